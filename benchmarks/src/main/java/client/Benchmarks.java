@@ -0,0 +1,27 @@
+package client;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+* title: Benchmarks.java
+* run: java -jar benchmarks/target/benchmarks.jar [JMH options] [benchmark regexp]
+* description: Runs the benchmarks with the JMH command line options given, with the
+* 				GC profiler always on so every result comes with the bytes allocated
+* 				per operation (gc.alloc.rate.norm) next to its time.
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+public class Benchmarks {
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}
+}
@@ -0,0 +1,68 @@
+package client;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+* title: HeaderBuildingBenchmark.java
+* description: Builds the response headers Server sends. A full header is only built
+* 				when a file enters the cache, a 304 or 206 header on each request that
+* 				asks for one, so these bound the cost of a cache miss and of the
+* 				conditional and partial paths.
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeaderBuildingBenchmark {
+
+	private final long lastModified = 1558066109000L;
+	private final long length = 288001;
+	private final String etag = StaticFileCache.etag(length, lastModified, null);
+
+	@Benchmark
+	public byte[] fullHeader() {
+		return StaticFileCache.buildHeader(length, "image/jpeg", "UTF-8", lastModified, null, etag);
+	}
+
+	@Benchmark
+	public byte[] compressedHeader() {
+		return StaticFileCache.buildHeader(83939, "text/javascript", "UTF-8", lastModified, "gzip",
+				StaticFileCache.etag(83939, lastModified, "gzip"));
+	}
+
+	@Benchmark
+	public byte[] notModifiedHeader() {
+		return StaticFileCache.buildNotModifiedHeader(lastModified, etag, false);
+	}
+
+	@Benchmark
+	public byte[] partialHeader() {
+		return StaticFileCache.buildPartialHeader(1000, "image/jpeg", "bytes 0-999/" + length, lastModified, etag);
+	}
+
+	@Benchmark
+	public String entityTag() {
+		return StaticFileCache.etag(length, lastModified, null);
+	}
+
+	@Benchmark
+	public long parseDate() {
+		return StaticFileCache.parseHttpDate("Fri, 17 May 2019 04:08:29 GMT");
+	}
+}
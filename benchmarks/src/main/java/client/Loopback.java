@@ -0,0 +1,127 @@
+package client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.Charset;
+
+/**
+* title: Loopback.java
+* description: Starts Server and the proxy in the benchmark JVM, on 127.0.0.1 ports
+* 				800 and 8000, and reads their responses. Used by the loopback
+* 				benchmarks; each benchmark runs in a JVM of its own, so the servers
+* 				are started once per benchmark. The files are served from the
+* 				directory named by -Dbench.root, ../root by default.
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+final class Loopback {
+
+	static final Charset ASCII = Charset.forName("US-ASCII");
+	static final int SERVER_PORT = 800;
+	static final int PROXY_PORT = 8000;
+
+	private static boolean serverStarted;
+	private static boolean proxyStarted;
+
+	private Loopback() {
+	}
+
+	/**
+	 * Starts Server, once, and waits until it accepts connections.
+	 */
+	static synchronized void startServer() throws InterruptedException {
+		if(serverStarted) return;
+		// the access log goes out of the way, it is still written
+		if(System.getProperty("server.accesslog") == null) {
+			System.setProperty("server.accesslog", "target/access.log");
+		}
+		// a kept alive connection is never closed under the benchmark
+		if(System.getProperty("server.keepalive.maxRequests") == null) {
+			System.setProperty("server.keepalive.maxRequests", Integer.toString(Integer.MAX_VALUE));
+		}
+		String root = new File(System.getProperty("bench.root", "../root")).getAbsolutePath();
+		start(() -> new Server("127.0.0.1", root).start(), "loopback-server");
+		waitFor(SERVER_PORT);
+		serverStarted = true;
+	}
+
+	/**
+	 * Starts Server and the proxy with its thread pool, once, and waits
+	 * until both accept connections.
+	 *
+	 * @param cache whether the proxy keeps responses in its cache
+	 */
+	static synchronized void startProxy(boolean cache) throws InterruptedException {
+		startServer();
+		if(proxyStarted) return;
+		if(!cache) System.setProperty("proxy.cache.bytes", "0");
+		if(System.getProperty("proxy.log.level") == null) System.setProperty("proxy.log.level", "WARN");
+		start(() -> ProxyServer.main(new String[0]), "loopback-proxy");
+		waitFor(PROXY_PORT);
+		proxyStarted = true;
+	}
+
+	private static void start(Runnable server, String name) {
+		Thread thread = new Thread(server, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private static void waitFor(int port) throws InterruptedException {
+		for(int i = 0; i < 200; i++) {
+			try(Socket socket = new Socket("127.0.0.1", port)) {
+				return;
+			} catch(IOException e) {
+				Thread.sleep(25);
+			}
+		}
+		throw new IllegalStateException("Nothing listening on port " + port);
+	}
+
+	/**
+	 * Reads one response framed by Content-length.
+	 *
+	 * @param in the connection
+	 * @param buffer a buffer to read into, large enough for the head
+	 * @return the number of bytes of the response, head included
+	 */
+	static long readResponse(InputStream in, byte[] buffer) throws IOException {
+		int length = 0;
+		while(length < 4 || buffer[length - 1] != '\n' || buffer[length - 3] != '\n') {
+			int c = in.read();
+			if(c == -1) throw new IOException("Connection closed");
+			buffer[length++] = (byte) c;
+		}
+		String head = new String(buffer, 0, length, ASCII).toLowerCase();
+		int index = head.indexOf("content-length:");
+		if(index == -1) throw new IOException("No Content-length: " + head);
+		long remaining = Long.parseLong(head.substring(index + 15, head.indexOf('\r', index)).trim());
+		long total = length + remaining;
+		while(remaining > 0) {
+			int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+			if(read == -1) throw new IOException("Connection closed");
+			remaining -= read;
+		}
+		return total;
+	}
+
+	/**
+	 * Reads everything up to the end of the connection.
+	 *
+	 * @param in the connection
+	 * @param buffer a buffer to read into
+	 * @return the number of bytes read
+	 */
+	static long readToEnd(InputStream in, byte[] buffer) throws IOException {
+		long total = 0;
+		int read;
+		while((read = in.read(buffer)) != -1) {
+			total += read;
+		}
+		return total;
+	}
+}
@@ -0,0 +1,66 @@
+package client;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+* title: ProxyLoopbackBenchmark.java
+* description: Fetches files of Server through the proxy over loopback, in this JVM,
+* 				the way Client does: a connection per request carrying the URL, read
+* 				until the proxy closes it. With the cache on, every request after the
+* 				first is a cache hit and ConnectionHandler.readRequest() and
+* 				breakDownURL() dominate; with it off every request goes through
+* 				HTTPClientStub.readResponse() over a pooled connection to Server.
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProxyLoopbackBenchmark {
+
+	// 465 bytes, 5 KB, 61 KB, 288 KB and 1.4 MB
+	@Param({"/javascript/dist/socialmedia/facebook.js", "/Exfoliatingsoap.html", "/pics/arganfruit.jpg",
+			"/pics/arganfield.jpg", "/json/countriescities.json"})
+	public String path;
+
+	@Param({"true", "false"})
+	public boolean cache;
+
+	private byte[] request;
+	private final byte[] buffer = new byte[64 * 1024];
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		Loopback.startProxy(cache);
+		request = ("http://localhost" + path + "\r\n").getBytes(Loopback.ASCII);
+	}
+
+	@Benchmark
+	public long fetch() throws IOException {
+		try(Socket connection = new Socket("127.0.0.1", Loopback.PROXY_PORT)) {
+			connection.setTcpNoDelay(true);
+			connection.getOutputStream().write(request);
+			return Loopback.readToEnd(connection.getInputStream(), buffer);
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+* title: RequestParsingBenchmark.java
+* description: Parses request heads the way Server.Handler.call() does, with one
+* 				RequestContext per connection reused from request to request. The
+* 				requests come from memory, an endless stream of the same head, so only
+* 				the parsing and the lookups the handler makes are measured.
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestParsingBenchmark {
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	// a browser request, the common case
+	private static final String BROWSER = "GET /pics/arganfield.jpg HTTP/1.1\r\n"
+			+ "Host: 127.0.0.1:800\r\n"
+			+ "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:120.0) Gecko/20100101 Firefox/120.0\r\n"
+			+ "Accept: image/avif,image/webp,*/*\r\n"
+			+ "Accept-Language: en-US,en;q=0.5\r\n"
+			+ "Accept-Encoding: gzip, deflate, br\r\n"
+			+ "Connection: keep-alive\r\n"
+			+ "Referer: http://127.0.0.1:800/index.html\r\n"
+			+ "If-None-Match: \"16ac3fa1a48-46501\"\r\n"
+			+ "If-Modified-Since: Fri, 17 May 2019 04:08:29 GMT\r\n\r\n";
+	// the smallest request
+	private static final String MINIMAL = "GET /index.html?charset=utf-8 HTTP/1.0\r\n\r\n";
+
+	private RequestContext browser;
+	private RequestContext minimal;
+
+	@Setup
+	public void setup() {
+		browser = new RequestContext(new Repeating(BROWSER.getBytes(ASCII)));
+		minimal = new RequestContext(new Repeating(MINIMAL.getBytes(ASCII)));
+	}
+
+	@Benchmark
+	public void browserRequest(Blackhole blackhole) throws IOException {
+		browser.next();
+		blackhole.consume(browser.isHttp11());
+		blackhole.consume(browser.isMethod("GET"));
+		blackhole.consume(browser.getPath());
+		blackhole.consume(browser.getParameter("charset"));
+		blackhole.consume(browser.headerContains("connection", "close"));
+		blackhole.consume(browser.getHeader("accept-encoding"));
+		blackhole.consume(browser.getHeader("if-none-match"));
+		blackhole.consume(browser.getHeader("range"));
+	}
+
+	@Benchmark
+	public void minimalRequest(Blackhole blackhole) throws IOException {
+		minimal.next();
+		blackhole.consume(minimal.isHttp10());
+		blackhole.consume(minimal.getPath());
+		blackhole.consume(minimal.getParameter("charset"));
+	}
+
+	/*
+	 * Returns the same bytes over and over, as many pipelined requests.
+	 */
+	private static class Repeating extends InputStream {
+		private final byte[] bytes;
+		private int position;
+
+		Repeating(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		@Override
+		public int read() {
+			int b = bytes[position] & 0xff;
+			position = (position + 1) % bytes.length;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			int length = Math.min(len, bytes.length - position);
+			System.arraycopy(bytes, position, b, off, length);
+			position = (position + length) % bytes.length;
+			return length;
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+* title: ResponseFramingBenchmark.java
+* description: The per response work of HTTPClientStub.readResponse() without the
+* 				sockets: parsing the response head, following the body to its end
+* 				by Content-Length or chunked encoding, decoding chunks, and encoding
+* 				a body of unknown length in chunks as the proxy and Server do. The
+* 				body is fed in blocks of the size the stub reads.
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseFramingBenchmark {
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	private static final int BLOCK = BufferPool.BUFFER_SIZE;
+
+	@Param({"465", "5423", "61740", "288001"})
+	public int size;
+
+	private byte[] head;
+	private byte[] body;
+	private byte[] chunkedHead;
+	private byte[] chunkedBody;
+	private final OutputStream discard = new OutputStream() {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	};
+
+	@Setup
+	public void setup() throws IOException {
+		body = new byte[size];
+		new Random(size).nextBytes(body);
+		head = ("HTTP/1.1 200 OK\r\n"
+				+ "Server: OneFile 2.0\r\n"
+				+ "Content-length: " + size + "\r\n"
+				+ "Content-type: image/jpeg; charset= UTF-8\r\n"
+				+ "Last-Modified: Fri, 17 May 2019 04:08:29 GMT\r\n"
+				+ "ETag: \"16ac3fa1a48-46501\"\r\n"
+				+ "Accept-Ranges: bytes\r\n\r\n").getBytes(ASCII);
+		chunkedHead = ("HTTP/1.1 200 OK\r\n"
+				+ "Server: OneFile 2.0\r\n"
+				+ "Content-type: text/html; charset=utf-8\r\n"
+				+ "Transfer-Encoding: chunked\r\n\r\n").getBytes(ASCII);
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+		ChunkedOutputStream chunks = new ChunkedOutputStream(encoded, 8 * 1024);
+		chunks.write(body);
+		chunks.finish();
+		chunkedBody = encoded.toByteArray();
+	}
+
+	@Benchmark
+	public HttpResponseHead parseHead() {
+		return HttpResponseHead.parse(head, head.length);
+	}
+
+	@Benchmark
+	public boolean frameByLength() throws IOException {
+		BodyFramer framer = BodyFramer.forResponse(HttpResponseHead.parse(head, head.length));
+		return feed(framer, body, null);
+	}
+
+	@Benchmark
+	public boolean frameChunked() throws IOException {
+		BodyFramer framer = BodyFramer.forResponse(HttpResponseHead.parse(chunkedHead, chunkedHead.length));
+		return feed(framer, chunkedBody, null);
+	}
+
+	@Benchmark
+	public boolean decodeChunked() throws IOException {
+		BodyFramer framer = BodyFramer.forResponse(HttpResponseHead.parse(chunkedHead, chunkedHead.length));
+		return feed(framer, chunkedBody, discard);
+	}
+
+	@Benchmark
+	public long encodeChunked() throws IOException {
+		ChunkedOutputStream chunks = new ChunkedOutputStream(discard, BLOCK);
+		for(int i = 0; i < body.length; i += BLOCK) {
+			chunks.write(body, i, Math.min(BLOCK, body.length - i));
+			chunks.flush();
+		}
+		chunks.finish();
+		return chunks.getBytesWritten();
+	}
+
+	/*
+	 * Hands the bytes to the framer a block at a time, as they would be read.
+	 */
+	private boolean feed(BodyFramer framer, byte[] bytes, OutputStream data) throws IOException {
+		for(int i = 0; i < bytes.length && !framer.isComplete(); i += BLOCK) {
+			framer.frame(bytes, i, Math.min(BLOCK, bytes.length - i), data);
+		}
+		return framer.isComplete();
+	}
+}
@@ -0,0 +1,95 @@
+package client;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+* title: ServerLoopbackBenchmark.java
+* description: Requests files of Server over loopback, in this JVM, so the whole of
+* 				Server.Handler.call() is measured: reading and parsing the request,
+* 				the file cache, the header and the write to the socket. The files
+* 				range from a few hundred bytes to more than the send file threshold.
+* 				Each thread keeps its connection open from one request to the next,
+* 				or opens a new one for every request.
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServerLoopbackBenchmark {
+
+	// 465 bytes, 5 KB, 61 KB, 288 KB and 1.4 MB
+	@Param({"/javascript/dist/socialmedia/facebook.js", "/Exfoliatingsoap.html", "/pics/arganfruit.jpg",
+			"/pics/arganfield.jpg", "/json/countriescities.json"})
+	public String path;
+
+	private byte[] keepAliveRequest;
+	private byte[] closeRequest;
+	private final byte[] buffer = new byte[64 * 1024];
+	private Socket socket;
+	private InputStream in;
+	private OutputStream out;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		Loopback.startServer();
+		String head = "GET " + path + " HTTP/1.1\r\n"
+				+ "Host: 127.0.0.1:800\r\n"
+				+ "User-Agent: ServerLoopbackBenchmark\r\n"
+				+ "Accept: */*\r\n"
+				+ "Accept-Encoding: identity\r\n";
+		keepAliveRequest = (head + "\r\n").getBytes(Loopback.ASCII);
+		closeRequest = (head + "Connection: close\r\n\r\n").getBytes(Loopback.ASCII);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		if(socket != null) socket.close();
+	}
+
+	@Benchmark
+	public long keepAlive() throws IOException {
+		if(socket == null) {
+			socket = new Socket("127.0.0.1", Loopback.SERVER_PORT);
+			socket.setTcpNoDelay(true);
+			in = new BufferedInputStream(socket.getInputStream());
+			out = socket.getOutputStream();
+		}
+		out.write(keepAliveRequest);
+		out.flush();
+		return Loopback.readResponse(in, buffer);
+	}
+
+	@Benchmark
+	public long newConnection() throws IOException {
+		try(Socket connection = new Socket("127.0.0.1", Loopback.SERVER_PORT)) {
+			connection.setTcpNoDelay(true);
+			connection.getOutputStream().write(closeRequest);
+			return Loopback.readToEnd(connection.getInputStream(), buffer);
+		}
+	}
+}
@@ -0,0 +1,300 @@
+//package client;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.nio.charset.Charset;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+* title: AccessLog.java
+* to compile: javac AccessLog.java
+* description: The access log of Server, in Common Log Format. Handlers publish a record
+* 				into a bounded ring buffer of preallocated slots: a slot is claimed with a
+* 				single compare and set and filled in place, no lock is taken and nothing
+* 				is formatted on the request path. When the buffer is full the record is
+* 				dropped and counted rather than making the handler wait. A background
+* 				writer drains the buffer in batches, formats the lines with a timestamp
+* 				that is only formatted again when the second changes, and writes each
+* 				batch to the log file at once. The file is rotated by size, keeping a
+* 				fixed number of old files (access.log.1 is the most recent).
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+public class AccessLog {
+
+	private static final DateTimeFormatter TIMESTAMP =
+			DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.US).withZone(ZoneId.systemDefault());
+	// the most records written before the file is flushed
+	private static final int BATCH_SIZE = 256;
+	// how long the writer sleeps when there is nothing to write, in nanoseconds
+	private static final long IDLE_WAIT = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private final File file;
+	private final long maxFileSize;
+	private final int maxFiles;
+
+	// the ring buffer, its size is a power of two
+	private final Record[] ring;
+	private final int mask;
+	// the next sequence handlers claim, and the next one the writer reads
+	private final AtomicLong tail = new AtomicLong();
+	private volatile long head;
+
+	// only used by the writer thread
+	private Writer out;
+	private long fileSize;
+	private long cachedSecond = -1;
+	private String cachedTimestamp;
+	private final StringBuilder line = new StringBuilder(256);
+	private final Thread writer;
+	private volatile boolean running = true;
+
+	// statistics
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong rotations = new AtomicLong();
+
+	/**
+	 * Opens the log file, appending to it, and starts the writer.
+	 *
+	 * @param file the log file
+	 * @param capacity the number of records the ring buffer holds, rounded up to a power of two
+	 * @param maxFileSize the size at which the file is rotated, in bytes
+	 * @param maxFiles the number of rotated files kept
+	 * @throws IOException if the file could not be opened
+	 */
+	public AccessLog(File file, int capacity, long maxFileSize, int maxFiles) throws IOException {
+		this.file = file;
+		this.maxFileSize = maxFileSize;
+		this.maxFiles = maxFiles;
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		ring = new Record[size];
+		for(int i = 0; i < size; i++) {
+			ring[i] = new Record();
+		}
+		mask = size - 1;
+		File directory = file.getAbsoluteFile().getParentFile();
+		if(directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+		openFile();
+
+		writer = new Thread(this::drain, "access-log-writer");
+		writer.setDaemon(true);
+		writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(this::close, "access-log-close"));
+	}
+
+	/**
+	 * Publishes a request to the log. Never blocks: if the writer has fallen
+	 * a whole buffer behind the record is dropped.
+	 *
+	 * @param address the client address
+	 * @param method the request method
+	 * @param target the request target
+	 * @param code the response code
+	 * @param length the length of the response content
+	 * @return false if the record was dropped
+	 */
+	public boolean log(InetAddress address, String method, String target, int code, long length) {
+		long sequence;
+		do {
+			sequence = tail.get();
+			if(sequence - head >= ring.length) {
+				dropped.incrementAndGet();
+				return false;
+			}
+		} while(!tail.compareAndSet(sequence, sequence + 1));
+
+		Record record = ring[(int) (sequence & mask)];
+		record.time = System.currentTimeMillis();
+		record.address = address;
+		record.method = method;
+		record.target = target;
+		record.code = code;
+		record.length = length;
+		// the writer reads the slot once it sees its sequence
+		record.published = sequence + 1;
+		return true;
+	}
+
+	/*
+	 * The writer loop: takes the published records in order, a batch at a time,
+	 * and writes them. The slots are handed back to the handlers once written.
+	 */
+	private void drain() {
+		while(running) {
+			if(writeBatch() == 0) {
+				LockSupport.parkNanos(IDLE_WAIT);
+			}
+		}
+	}
+
+	/*
+	 * Writes the records published so far, up to a batch. Returns how many.
+	 */
+	private synchronized int writeBatch() {
+		long next = head;
+		int count = 0;
+		try {
+			while(count < BATCH_SIZE) {
+				Record record = ring[(int) (next & mask)];
+				if(record.published != next + 1) break;
+				format(record);
+				record.address = null;
+				record.method = null;
+				record.target = null;
+				out.append(line);
+				fileSize += line.length();
+				next++;
+				count++;
+			}
+			if(count > 0) {
+				out.flush();
+				written.addAndGet(count);
+			}
+			if(fileSize >= maxFileSize) {
+				rotate();
+			}
+		} catch(IOException e) {
+			System.out.println("AccessLog: Unable to write " + file + ": " + e);
+		} finally {
+			head = next;
+		}
+		return count;
+	}
+
+	/*
+	 * host - - [day/month/year:hour:minute:second zone] "method target" code length
+	 */
+	private void format(Record record) {
+		long second = record.time / 1000;
+		if(second != cachedSecond) {
+			cachedSecond = second;
+			cachedTimestamp = TIMESTAMP.format(Instant.ofEpochMilli(record.time));
+		}
+		line.setLength(0);
+		line.append(record.address == null ? "-" : record.address.getHostAddress())
+			.append(" - - [")
+			.append(cachedTimestamp)
+			.append("] \"")
+			.append(record.method)
+			.append(' ')
+			.append(record.target)
+			.append("\" ")
+			.append(record.code)
+			.append(' ')
+			.append(record.length)
+			.append('\n');
+	}
+
+	/*
+	 * Moves access.log to access.log.1, access.log.1 to access.log.2 and so on,
+	 * dropping the oldest, then starts a new file.
+	 */
+	private void rotate() throws IOException {
+		out.close();
+		new File(file.getPath() + "." + maxFiles).delete();
+		for(int i = maxFiles - 1; i >= 1; i--) {
+			File older = new File(file.getPath() + "." + i);
+			if(older.exists()) {
+				older.renameTo(new File(file.getPath() + "." + (i + 1)));
+			}
+		}
+		if(maxFiles > 0) {
+			file.renameTo(new File(file.getPath() + ".1"));
+		} else {
+			file.delete();
+		}
+		rotations.incrementAndGet();
+		openFile();
+	}
+
+	private void openFile() throws IOException {
+		fileSize = file.length();
+		out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true),
+				Charset.forName("ISO-8859-1")), 64 * 1024);
+	}
+
+	/**
+	 * Stops the writer once the records published so far are written.
+	 */
+	public void close() {
+		if(!running) return;
+		running = false;
+		LockSupport.unpark(writer);
+		try {
+			writer.join(1000);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		while(writeBatch() > 0) {
+			// write what is left
+		}
+		synchronized(this) {
+			try {
+				out.close();
+			} catch(IOException e) {
+				System.out.println("AccessLog: Unable to close " + file);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of records waiting to be written.
+	 *
+	 * @return the queue depth
+	 */
+	public long getDepth() {
+		return Math.max(tail.get() - head, 0);
+	}
+
+	/**
+	 * Returns the number of records dropped because the ring buffer was full.
+	 *
+	 * @return the dropped records
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Returns the log statistics as a single line.
+	 *
+	 * @return the statistics
+	 */
+	public String getStatistics() {
+		return "written=" + written.get()
+				+ " dropped=" + dropped.get()
+				+ " depth=" + getDepth()
+				+ " capacity=" + ring.length
+				+ " rotations=" + rotations.get();
+	}
+
+	/*
+	 * A slot of the ring buffer, filled in place by handlers.
+	 */
+	private static class Record {
+		// the sequence of the record in the slot plus one, set last
+		private volatile long published;
+		private long time;
+		private InetAddress address;
+		private String method;
+		private String target;
+		private int code;
+		private long length;
+	}
+}
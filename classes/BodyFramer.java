@@ -0,0 +1,188 @@
+//package client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+* title: BodyFramer.java
+* to compile: javac BodyFramer.java
+* description: Finds where the body of an HTTP response ends, from the bytes as they
+* 				arrive, without copying or decoding them. The body is framed by
+* 				Content-Length, by chunked transfer encoding or by the end of the
+* 				connection, as its head says. The caller hands over each block read
+* 				and gets back how many of its bytes belong to the body; chunk sizes,
+* 				chunk ends and trailers are followed one byte at a time, so a block
+* 				may end anywhere in the encoding. Used by the client stub and by the
+* 				non-blocking engine to relay a response byte for byte and stop right
+* 				at its end, leaving the connection ready for the next request. It can
+* 				also hand on the content of a chunked body without its framing, for
+* 				callers that send it on encoded their own way.
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+public class BodyFramer {
+
+	// states of the framer
+	private static final int LENGTH = 1;
+	private static final int CHUNK_SIZE = 2;
+	private static final int CHUNK_EXTENSION = 3;
+	private static final int CHUNK_DATA = 4;
+	private static final int CHUNK_DATA_END = 5;
+	private static final int TRAILER_START = 6;
+	private static final int TRAILER = 7;
+	private static final int UNTIL_CLOSE = 8;
+	private static final int COMPLETE = 9;
+
+	private int state;
+	// the bytes left in the body or in the current chunk, or the chunk size being read
+	private long remaining;
+	// whether the chunk size line has a digit yet
+	private boolean sizeRead;
+
+	private BodyFramer(int state, long remaining) {
+		this.state = state;
+		this.remaining = remaining;
+	}
+
+	/**
+	 * Returns a framer for the body of a response.
+	 *
+	 * @param head the head of the response
+	 * @return the framer
+	 */
+	public static BodyFramer forResponse(HttpResponseHead head) {
+		if(head.hasNoBody()) return new BodyFramer(COMPLETE, 0);
+		if(head.isChunked()) return new BodyFramer(CHUNK_SIZE, 0);
+		long length = head.getContentLength();
+		if(length >= 0) return new BodyFramer(length == 0 ? COMPLETE : LENGTH, length);
+		return untilClose();
+	}
+
+	/**
+	 * Returns a framer for bytes that only end with the connection.
+	 *
+	 * @return the framer
+	 */
+	public static BodyFramer untilClose() {
+		return new BodyFramer(UNTIL_CLOSE, 0);
+	}
+
+	/**
+	 * Takes the next bytes read and returns how many of them, from the first,
+	 * belong to the body. Fewer than given are only taken when the body ends
+	 * among them; the rest belong to whatever follows on the connection.
+	 *
+	 * @param buffer the bytes
+	 * @param offset the first byte
+	 * @param length the number of bytes
+	 * @return the number of bytes of the body
+	 * @throws IOException if the chunked encoding is malformed
+	 */
+	public int frame(byte[] buffer, int offset, int length) throws IOException {
+		return frame(buffer, offset, length, null);
+	}
+
+	/**
+	 * Takes the next bytes read like frame(buffer, offset, length) does, and
+	 * writes the content they carry to data as it is found: the chunk data of a
+	 * chunked body without its sizes, line ends and trailers, any other body as is.
+	 *
+	 * @param buffer the bytes
+	 * @param offset the first byte
+	 * @param length the number of bytes
+	 * @param data where the decoded content is written, or null
+	 * @return the number of bytes of the body
+	 * @throws IOException if the chunked encoding is malformed or data cannot be written
+	 */
+	public int frame(byte[] buffer, int offset, int length, OutputStream data) throws IOException {
+		int position = offset;
+		int end = offset + length;
+		while(position < end && state != COMPLETE) {
+			switch(state) {
+			case UNTIL_CLOSE:
+				if(data != null) data.write(buffer, position, end - position);
+				position = end;
+				break;
+			case LENGTH:
+			case CHUNK_DATA:
+				int take = (int) Math.min(remaining, end - position);
+				if(data != null) data.write(buffer, position, take);
+				position += take;
+				remaining -= take;
+				if(remaining == 0) state = state == LENGTH ? COMPLETE : CHUNK_DATA_END;
+				break;
+			case CHUNK_SIZE:
+				readSize(buffer[position++]);
+				break;
+			case CHUNK_EXTENSION:
+				if(buffer[position++] == '\n') endSizeLine();
+				break;
+			case CHUNK_DATA_END:
+				byte b = buffer[position++];
+				if(b == '\n') {
+					state = CHUNK_SIZE;
+				} else if(b != '\r') {
+					throw new IOException("Chunk not followed by a line end");
+				}
+				break;
+			case TRAILER_START:
+				b = buffer[position++];
+				if(b == '\n') state = COMPLETE;
+				else if(b != '\r') state = TRAILER;
+				break;
+			case TRAILER:
+				if(buffer[position++] == '\n') state = TRAILER_START;
+				break;
+			}
+		}
+		return position - offset;
+	}
+
+	/*
+	 * Adds a byte of the chunk size line.
+	 */
+	private void readSize(byte b) throws IOException {
+		int digit = Character.digit(b, 16);
+		if(digit >= 0) {
+			if(remaining > (Long.MAX_VALUE >> 4)) throw new IOException("Chunk size too large");
+			remaining = remaining * 16 + digit;
+			sizeRead = true;
+		} else if(b == '\n') {
+			endSizeLine();
+		} else if(b == ';' || b == ' ' || b == '\t') {
+			state = CHUNK_EXTENSION;
+		} else if(b != '\r') {
+			throw new IOException("Invalid chunk size");
+		}
+	}
+
+	/*
+	 * The size line is over, a zero size is the last chunk.
+	 */
+	private void endSizeLine() throws IOException {
+		if(!sizeRead) throw new IOException("Missing chunk size");
+		sizeRead = false;
+		state = remaining == 0 ? TRAILER_START : CHUNK_DATA;
+	}
+
+	/**
+	 * Returns whether the whole body has been framed.
+	 *
+	 * @return true if complete
+	 */
+	public boolean isComplete() {
+		return state == COMPLETE;
+	}
+
+	/**
+	 * Returns whether the body only ends with the connection, which then
+	 * cannot carry another request.
+	 *
+	 * @return true if framed by the connection end
+	 */
+	public boolean isDelimitedByClose() {
+		return state == UNTIL_CLOSE;
+	}
+}
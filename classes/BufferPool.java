@@ -0,0 +1,62 @@
+//package client;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+* title: BufferPool.java
+* to compile: javac BufferPool.java
+* description: A bounded pool of fixed size byte buffers shared by every connection.
+* 				Responses are relayed through one of these buffers at a time, so the
+* 				memory a connection needs does not depend on the size of the resource.
+* 				Buffers are handed back once the transfer is over; when the pool is
+* 				full the returned buffer is left to the garbage collector.
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+public final class BufferPool {
+
+	// the size of every buffer in the pool
+	public static final int BUFFER_SIZE = 16 * 1024;
+	// the most buffers kept around for reuse
+	private static final int MAX_POOLED = 256;
+
+	// the buffers waiting to be reused
+	private static final Queue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+	// the number of buffers in the queue
+	private static final AtomicInteger pooled = new AtomicInteger();
+
+	private BufferPool() {
+	}
+
+	/**
+	 * Takes a buffer from the pool, or allocates one if the pool is empty.
+	 *
+	 * @return a buffer of BUFFER_SIZE bytes
+	 */
+	public static byte[] acquire() {
+		byte[] buffer = buffers.poll();
+		if(buffer == null) {
+			return new byte[BUFFER_SIZE];
+		}
+		pooled.decrementAndGet();
+		return buffer;
+	}
+
+	/**
+	 * Hands a buffer back to the pool.
+	 *
+	 * @param buffer the buffer, must have come from acquire()
+	 */
+	public static void release(byte[] buffer) {
+		if(buffer == null || buffer.length != BUFFER_SIZE) return;
+		if(pooled.incrementAndGet() <= MAX_POOLED) {
+			buffers.offer(buffer);
+		} else {
+			pooled.decrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,93 @@
+//package client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+* title: CapturingOutputStream.java
+* to compile: javac CapturingOutputStream.java
+* description: Passes everything written to it on to another stream and keeps a copy,
+* 				up to a limit. Used to fill the response cache while the response is
+* 				being relayed to the client. Once the limit is passed the copy is
+* 				dropped and the stream only passes bytes on.
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+public class CapturingOutputStream extends OutputStream {
+
+	// where the bytes are passed on to
+	private final OutputStream target;
+	// the most bytes kept
+	private final int limit;
+	// the copy of the bytes written so far
+	private byte[] copy = new byte[BufferPool.BUFFER_SIZE];
+	private int count;
+	// set once more than limit bytes were written
+	private boolean overflowed;
+
+	/**
+	 * Instantiates a new capturing stream.
+	 *
+	 * @param target where the bytes are passed on to
+	 * @param limit the most bytes kept
+	 */
+	public CapturingOutputStream(OutputStream target, int limit) {
+		this.target = target;
+		this.limit = limit;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		target.write(b);
+		capture(new byte[] {(byte) b}, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		target.write(b, off, len);
+		capture(b, off, len);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		target.flush();
+	}
+
+	/*
+	 * Keeps a copy of the bytes, unless the limit has been passed.
+	 */
+	private void capture(byte[] b, int off, int len) {
+		if(overflowed) return;
+		if(count + len > limit) {
+			overflowed = true;
+			copy = null;
+			return;
+		}
+		if(count + len > copy.length) {
+			copy = Arrays.copyOf(copy, Math.min(limit, Math.max(copy.length * 2, count + len)));
+		}
+		System.arraycopy(b, off, copy, count, len);
+		count += len;
+	}
+
+	/**
+	 * Returns whether more than limit bytes were written.
+	 *
+	 * @return true if the copy was dropped
+	 */
+	public boolean isOverflowed() {
+		return overflowed;
+	}
+
+	/**
+	 * Returns the bytes written so far.
+	 *
+	 * @return the bytes, or null if the limit was passed
+	 */
+	public byte[] toByteArray() {
+		return overflowed ? null : Arrays.copyOf(copy, count);
+	}
+}
@@ -0,0 +1,127 @@
+//package client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+* title: ChunkedOutputStream.java
+* to compile: javac ChunkedOutputStream.java
+* description: Writes a body of unknown length with chunked transfer encoding. Small
+* 				writes are gathered into a buffer that has room for the chunk size line
+* 				in front and the line end behind, so each chunk goes out in one write
+* 				to the stream below. A chunk is sent when the buffer is full or on
+* 				flush(), which lets the writer decide how soon the reader sees the
+* 				first bytes. finish() sends the last, empty, chunk and leaves the
+* 				stream below open for the next response on the connection.
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+public class ChunkedOutputStream extends OutputStream {
+
+	private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(Charset.forName("US-ASCII"));
+	private static final byte[] HEX = "0123456789abcdef".getBytes(Charset.forName("US-ASCII"));
+	// room for the size of a chunk in hexadecimal and its line end
+	private static final int SIZE_LINE = 10;
+
+	private final OutputStream target;
+	// the chunk being gathered, its data starts after the room for the size line
+	private final byte[] buffer;
+	private int count = SIZE_LINE;
+	// the data bytes written, chunk size lines not included
+	private long written;
+	private boolean finished;
+
+	/**
+	 * Instantiates a new chunked stream sending chunks of at most the given size.
+	 *
+	 * @param target where the chunks are written
+	 * @param chunkSize the most data bytes in a chunk
+	 */
+	public ChunkedOutputStream(OutputStream target, int chunkSize) {
+		this.target = target;
+		this.buffer = new byte[SIZE_LINE + chunkSize + 2];
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if(finished) throw new IOException("Chunked body already finished");
+		if(count == buffer.length - 2) sendChunk();
+		buffer[count++] = (byte) b;
+		written++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if(finished) throw new IOException("Chunked body already finished");
+		written += len;
+		while(len > 0) {
+			int length = Math.min(len, buffer.length - 2 - count);
+			System.arraycopy(b, off, buffer, count, length);
+			count += length;
+			off += length;
+			len -= length;
+			if(count == buffer.length - 2) sendChunk();
+		}
+	}
+
+	/*
+	 * Writes the size line in front of the gathered data and the line end behind
+	 * it, then sends the whole chunk at once.
+	 */
+	private void sendChunk() throws IOException {
+		int size = count - SIZE_LINE;
+		if(size == 0) return;
+		int start = SIZE_LINE - 2;
+		buffer[start] = '\r';
+		buffer[start + 1] = '\n';
+		do {
+			buffer[--start] = HEX[size & 0xf];
+			size >>>= 4;
+		} while(size != 0);
+		buffer[count++] = '\r';
+		buffer[count++] = '\n';
+		target.write(buffer, start, count - start);
+		count = SIZE_LINE;
+	}
+
+	/**
+	 * Sends what has been gathered as a chunk and flushes the stream below.
+	 */
+	@Override
+	public void flush() throws IOException {
+		sendChunk();
+		target.flush();
+	}
+
+	/**
+	 * Sends what is left and the last chunk. The stream below is not closed.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void finish() throws IOException {
+		if(finished) return;
+		sendChunk();
+		target.write(LAST_CHUNK);
+		finished = true;
+	}
+
+	/**
+	 * Finishes the body, leaving the stream below open.
+	 */
+	@Override
+	public void close() throws IOException {
+		finish();
+	}
+
+	/**
+	 * Returns the number of data bytes written, without the chunk framing.
+	 *
+	 * @return the byte count
+	 */
+	public long getBytesWritten() {
+		return written;
+	}
+}
@@ -6,6 +6,7 @@ import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.util.Arrays;
 
 /**
 * title: Client.java
@@ -174,10 +175,20 @@ public class Client implements ClientInterface{
         String pass = null;
         
         // Format used:
+        // -load [options], see LoadGenerator
         // http://remotehost/resource
         // ftp://remotehost/resource
         // remotehost/resource
-        if(args.length == 1) {
+        if(args.length > 0 && args[0].equals("-load")) {
+        	try {
+        		LoadGenerator generator = new LoadGenerator(Arrays.copyOfRange(args, 1, args.length));
+        		generator.start();
+        	} catch(IllegalArgumentException e) {
+        		System.out.println("Client: " + e.getMessage());
+        		System.out.println("Usage:");
+        		LoadGenerator.printUsage();
+        	}
+        } else if(args.length == 1) {
         	url = args[0];
         	Client Client = new Client(url);
             Client.start();
@@ -197,6 +208,7 @@ public class Client implements ClientInterface{
         	System.out.println("Usage:");
         	System.out.println("\tjava Client http[s]://]hostname[/resource]");
         	System.out.println("\tjava Client ftp://hostname/resource [USER PASS]");
+        	LoadGenerator.printUsage();
         }
 	}
 }
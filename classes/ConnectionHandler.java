@@ -1,11 +1,12 @@
 //package client;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Socket;
 import java.net.URL;
+import java.util.concurrent.TimeUnit;
 
 /**
 * title: ConnectionHandler.java
@@ -19,22 +20,56 @@ import java.net.URL;
 * @author Zakaria Bakkal
 * @version 3.0
 */
-public class ConnectionHandler implements Runnable {
+public class ConnectionHandler implements Runnable, SheddingExecutor.Rejectable {
 	
 	// client request types
 	private final int FTP = 1;
 	private final int HTTP = 2;
 	private final int HTTPS = 3;
+	
+	// total size of the responses kept in the cache, in bytes
+	private static final long CACHE_SIZE = Long.getLong("proxy.cache.bytes", 64L * 1024 * 1024);
+	// the largest response kept in the cache, in bytes
+	private static final int CACHE_MAX_ENTRY = Integer.getInteger("proxy.cache.maxEntryBytes", 4 * 1024 * 1024);
+	// the HTTP responses shared by every connection
+	private static final ResponseCache cache = new ResponseCache(CACHE_SIZE, CACHE_MAX_ENTRY);
+	
+	// total size of the disk cache segment files, in bytes, 0 turns the disk cache off
+	private static final long DISK_CACHE_SIZE = Long.getLong("proxy.diskcache.bytes", 0);
+	// size of each disk cache segment file, in bytes
+	private static final int DISK_CACHE_SEGMENT = Integer.getInteger("proxy.diskcache.segmentBytes", 64 * 1024 * 1024);
+	// the directory holding the disk cache segment files
+	private static final String DISK_CACHE_DIRECTORY = System.getProperty("proxy.diskcache.dir", "cache");
+	// the second cache tier, holds the responses evicted from memory, null when turned off
+	private static final DiskCache diskCache = openDiskCache();
+	
+	// the most bytes of a response shared with concurrent requests for it while it is fetched
+	private static final long COALESCE_MAX_BYTES = Long.getLong("proxy.coalesce.maxBytes", CACHE_MAX_ENTRY);
+	// the fetches under way, shared by concurrent requests for the same resource
+	private static final RequestCoalescer coalescer = new RequestCoalescer(COALESCE_MAX_BYTES);
+	
+	// whether a connection refused under overload gets a 503, or is just closed
+	private static final boolean REJECT_WITH_503 = !"close".equals(System.getProperty("proxy.queue.reject", "503"));
+	// sent to a refused client, followed by the end of message line
+	private static final byte[] SERVICE_UNAVAILABLE = ("HTTP/1.1 503 Service Unavailable\r\n"
+			+ "Retry-After: 1\r\n"
+			+ "Content-Length: 0\r\n"
+			+ "Connection: close\r\n\r\n"
+			+ "\r\ndone\r\n").getBytes();
+	
+	// how long a request may take from its accept to its last byte, in milliseconds, 0 for ever
+	private static final long DEADLINE = Long.getLong("proxy.deadline.millis", 30000);
 
 	// client connection socket
 	private Socket connection;
 	// the remote server that the client wishes to reach
 	private String remoteServer;
-	// used to read client request
-	private BufferedReader clientInput;
+	// used to read client request, read in blocks into our own buffer so no
+	// synchronized reader sits on the path and pins a virtual thread
+	private InputStream clientInput;
 	// used to respond to client
-	private PrintWriter clientOutput;
-	// holds the server response, header + data
+	private OutputStream clientOutput;
+	// holds the message sent to the client when no server could be reached
 	private String serverResponse;
 	// holds the resource the client wishes to get
 	private String resource;
@@ -52,6 +87,10 @@ public class ConnectionHandler implements Runnable {
 	private HTTPClientStub httpClientStub;
 	// used when an FTP request is made
 	private FTPClientStub ftpClientStub;
+	// times the phases of this connection
+	private final ProxyMetrics.Request metrics;
+	// when the request must be answered by, in System.nanoTime() terms, 0 for never
+	private final long deadline;
 
 	/**
 	 * Instantiates a new ConnectionHandler, by initializing the instance variable connection.
@@ -59,12 +98,26 @@ public class ConnectionHandler implements Runnable {
 	 * @param connection the client connection
 	 */
 	public ConnectionHandler(Socket connection) {
+		this(connection, ProxyMetrics.accepted());
+	}
+	
+	/**
+	 * Instantiates a new ConnectionHandler for a connection whose timing
+	 * started when it was accepted. The deadline of the request starts
+	 * now too, so the time spent in the queue counts against it.
+	 *
+	 * @param connection the client connection
+	 * @param metrics the request timing the connection
+	 */
+	public ConnectionHandler(Socket connection, ProxyMetrics.Request metrics) {
 		this.connection = connection;
+		this.metrics = metrics;
+		this.deadline = DEADLINE > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DEADLINE) : 0;
 	}
 	
 	/* 
-	 * Reads the client request, connects to the remote server, reads the
-	 * server response and sends it to the client, then closes the client connection.
+	 * Reads the client request, connects to the remote server, relays the
+	 * server response to the client as it arrives, then closes the client connection.
 	 * 
 	 * calls: 
 	 * 		setupClientStreams()
@@ -79,15 +132,52 @@ public class ConnectionHandler implements Runnable {
 	public void run() {
 		
 		try {
+			metrics.end(ProxyMetrics.ACCEPT);
 			setupClientStreams();
+			metrics.begin(ProxyMetrics.REQUEST_READ);
 			readRequest();
+			metrics.end(ProxyMetrics.REQUEST_READ);
+			metrics.begin(ProxyMetrics.URL_PARSE);
 			breakDownURL();
+			metrics.end(ProxyMetrics.URL_PARSE);
 			connectToServer();
 			readResponse();
 			sendResponseToClient();
 			closeClientConnection();
 		} catch(IOException e) {
-			System.out.println("Error");
+			Log.warn("Error");
+		} finally {
+			metrics.finish();
+		}
+	}
+	
+	/**
+	 * Refuses the connection, the proxy is overloaded. The client gets a 503
+	 * right away, or the connection is closed, depending on proxy.queue.reject.
+	 * Whatever the client already sent is discarded without waiting, so the
+	 * close does not reset the connection before the 503 is read.
+	 */
+	@Override
+	public void reject() {
+		metrics.end(ProxyMetrics.ACCEPT);
+		metrics.fail(ProxyMetrics.SHED);
+		try {
+			if(REJECT_WITH_503) {
+				metrics.wrap(connection.getOutputStream()).write(SERVICE_UNAVAILABLE);
+				InputStream in = connection.getInputStream();
+				int unread = in.available();
+				if(unread > 0) in.skip(unread);
+				connection.shutdownOutput();
+			}
+		} catch(IOException e) {
+			Log.debug("ConnectionHandler: Unable to refuse connection");
+		} finally {
+			try {
+				connection.close();
+			} catch(IOException e) {
+				Log.debug("ConnectionHandler: Unable to close connection");
+			}
+			metrics.finish();
 		}
 	}
 	
@@ -97,16 +187,20 @@ public class ConnectionHandler implements Runnable {
 	 */
 	private void setupClientStreams() {
 		try {
-			clientOutput = new PrintWriter(connection.getOutputStream(), true);
+			// every write to the client is timed
+			clientOutput = metrics.wrap(connection.getOutputStream());
 		} catch (IOException e) {
-			System.out.println("ConnectionHandler: Unable to setup output stream");
+			Log.warn("ConnectionHandler: Unable to setup output stream");
 		}
 		
 		try {
-			clientInput = new BufferedReader(
-					new InputStreamReader(connection.getInputStream()));
+			clientInput = connection.getInputStream();
+			// a client that has not sent its request by the deadline is dropped
+			if(deadline != 0) {
+				connection.setSoTimeout((int) Math.max(TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()), 1));
+			}
 		} catch (IOException e) {
-			System.out.println("ConnectionHandler: Unable to setup input stream");
+			Log.warn("ConnectionHandler: Unable to setup input stream");
 		}
 	}
 	
@@ -115,22 +209,32 @@ public class ConnectionHandler implements Runnable {
 	 * Called by: run()
 	 */
 	private void readRequest() {
-		// stores each character read from the client,
+		// stores the bytes read from the client,
 		// representing the client request
-		StringBuilder line = new StringBuilder();
+		byte[] line = new byte[1024];
+		int length = 0;
 		
 		try {
-			int c;
-			while(true) {
-				c = clientInput.read();
+			int end = -1;
+			while(end == -1 && length < line.length) {
+				int read = clientInput.read(line, length, line.length - length);
+				if(read == -1) break;
 				// check for end of request
-				if(c == -1 || c == '\r') break;
-				line.append((char) c);
+				for(int i = length; i < length + read; i++) {
+					if(line[i] == '\r' || line[i] == '\n') {
+						end = i;
+						break;
+					}
+				}
+				length += read;
 			}
+			if(end != -1) length = end;
 			// store the client request as lower case
-			request = line.toString().toLowerCase();
+			request = new String(line, 0, length).toLowerCase();
 		} catch (IOException e) {
-			System.out.println("CoonectionHandler: Unable to read request");
+			Log.warn("CoonectionHandler: Unable to read request");
+			// answered like a client that sent nothing, as an invalid URL
+			request = "";
 		}
 				
 		
@@ -149,20 +253,24 @@ public class ConnectionHandler implements Runnable {
 	 *Called by: run()
 	 */
 	private void breakDownURL() {
-		System.out.println("request: " + request);
 		retrieveURL();
-		System.out.println("url: " + url);
 		retrieveProtocol();
-		System.out.println("protocol: " + protocol);
 		retrieveRemoteHost();
-		System.out.println("remotehost: " + remoteServer);
 		retrieveResource();
-		System.out.println("resource: " + resource);
 		if(protocol == FTP) {
 			retrieveUserAndPass();
-			System.out.println("user/pass: " + user + "/" + pass);
+		}
+		metrics.setProtocol(protocol == HTTP ? ProxyMetrics.HTTP : protocol == FTP ? ProxyMetrics.FTP : ProxyMetrics.NONE);
+		if(Log.isDebugEnabled()) {
+			Log.debug("request: " + request
+					+ "\nurl: " + url
+					+ "\nprotocol: " + protocol
+					+ "\nremotehost: " + remoteServer
+					+ "\nresource: " + resource
+					+ (protocol == FTP ? "\nuser: " + user : ""));
 		}
 	}
+
 	
 	/**
 	 * Retrieve URL from the client request.
@@ -176,7 +284,7 @@ public class ConnectionHandler implements Runnable {
 			try {
 				url = new URL(request);
 			} catch(IOException e) {
-				System.out.println("ConnectionHandler: Invalid URL");
+				Log.warn("ConnectionHandler: Invalid URL");
 				serverResponse = "Invalid URL\r\n";
 			}
 		}
@@ -190,7 +298,7 @@ public class ConnectionHandler implements Runnable {
 			try {
 				url = new URL(pieces[0]);
 			} catch(IOException e) {
-				System.out.println("ConnectionHandler: Invalid URL");
+				Log.warn("ConnectionHandler: Invalid URL");
 				serverResponse = "Invalid URL\r\n";
 			}
 		}
@@ -263,55 +371,224 @@ public class ConnectionHandler implements Runnable {
 	}
 	
 	/**
-	 * Connect to the remote server using an http or an ftp client stub
-	 * depending the request type.
+	 * Create an http or an ftp client stub depending the request type,
+	 * the stub connects to the remote server once it is started.
 	 * Called by: start()
 	 */
 	private void connectToServer() {
 		// use the HTTP client stub
 		if(protocol == HTTP) {
 			httpClientStub= new HTTPClientStub(remoteServer, resource);
-			httpClientStub.start();
+			httpClientStub.setMetrics(metrics);
+			httpClientStub.setDeadline(deadline);
 		}
 		
 		// use the FTP client stub
 		if(protocol == FTP) {
 			ftpClientStub= new FTPClientStub(remoteServer, resource, user, pass);
-			ftpClientStub.start();
+			ftpClientStub.setMetrics(metrics);
+			ftpClientStub.setDeadline(deadline);
 		}
 		
 	}
 	
 	/**
-	 * Read response from the remote server.
+	 * Read response from the remote server and relay it to the client as it
+	 * arrives, so nothing more than one buffer of it is held at a time.
 	 * Called by: start()
 	 */
 	private void readResponse() {
-		// check which protocol was used and read the 
+		// check which protocol was used and relay the
 		// appropriate response
 		if(httpClientStub != null) {
-			serverResponse = httpClientStub.getResponse();
+			relayHTTP();
 		}
 		if(ftpClientStub != null) {
-			serverResponse = ftpClientStub.getResponse();
+			relayFTP();
 		}
 		
 		// no connection was ever made, thus exit
 		if(httpClientStub == null && ftpClientStub == null) {
-			System.out.println("ConnectionHandler: No connection established");
+			Log.warn("ConnectionHandler: No connection established");
+			metrics.fail(ProxyMetrics.INVALID);
+		}
+		
+	}
+	
+	/**
+	 * Serve an HTTP response from the cache, or relay it from the remote
+	 * server while keeping a copy to cache if its headers allow it.
+	 * Called by: readResponse()
+	 */
+	private void relayHTTP() {
+		String key = ResponseCache.normalize(url);
+		ResponseCache.Entry cached = cache.get(key);
+		if(cached != null) {
+			metrics.setSource(ProxyMetrics.MEMORY);
+			try {
+				clientOutput.write(cached.getResponse());
+			} catch(IOException e) {
+				Log.warn("ConnectionHandler: Unable to send response");
+			}
+			return;
+		}
+		
+		// then the disk tier, sent from the mapped file to the client socket
+		if(diskCache != null) {
+			try(DiskCache.Hit hit = diskCache.get(key)) {
+				if(hit != null) {
+					metrics.setSource(ProxyMetrics.DISK);
+					// sent through the socket channel, past the timed stream
+					long start = System.nanoTime();
+					int length = hit.getLength();
+					hit.writeTo(connection, connection.getOutputStream());
+					metrics.clientWrite(System.nanoTime() - start, length);
+					return;
+				}
+			} catch(IOException e) {
+				Log.warn("ConnectionHandler: Unable to send response");
+				metrics.fail(ProxyMetrics.CLIENT_ERROR);
+				return;
+			}
+		}
+		
+		// concurrent misses for the same URL share one fetch
+		RequestCoalescer.Flight flight = coalescer.join(key);
+		if(!flight.isLeader()) {
+			metrics.setSource(ProxyMetrics.COALESCED);
+			flight.follow(clientOutput);
+			return;
+		}
+		try {
+			fetchHTTP(key, flight.getOutput(clientOutput));
+		} finally {
+			flight.finish();
+		}
+	}
+	
+	/**
+	 * Fetch an HTTP response from the remote server, revalidating a stale
+	 * cached copy when there is one, and cache it if its headers allow it.
+	 * Called by: relayHTTP()
+	 *
+	 * @param key the cache key
+	 * @param out where the response is written
+	 */
+	private void fetchHTTP(String key, OutputStream out) {
+		// a stale response is revalidated rather than fetched again
+		ResponseCache.Entry stale = cache.getStale(key);
+		if(stale != null) {
+			httpClientStub.setValidators(stale.getHead().getHeader("etag"),
+					stale.getHead().getHeader("last-modified"));
 		}
 		
+		CapturingOutputStream capture = new CapturingOutputStream(out, cache.getMaxEntrySize());
+		httpClientStub.start(capture);
+		if(httpClientStub.isNotModified()) {
+			metrics.setSource(ProxyMetrics.REVALIDATED);
+			cache.refresh(stale, httpClientStub.getResponseHead());
+			try {
+				out.write(stale.getResponse());
+			} catch(IOException e) {
+				Log.warn("ConnectionHandler: Unable to send response");
+			}
+			return;
+		}
+		metrics.setSource(ProxyMetrics.ORIGIN);
+		if(!httpClientStub.isComplete()) {
+			metrics.fail(ProxyMetrics.UPSTREAM_ERROR);
+		}
+		if(httpClientStub.isComplete() && !capture.isOverflowed()) {
+			cache.put(key, httpClientStub.getResponseHead(), capture.toByteArray());
+		}
+	}
+	
+	/**
+	 * Relay an FTP file from the remote server, sharing the transfer with
+	 * concurrent requests for the same file made with the same credentials.
+	 * Called by: readResponse()
+	 */
+	private void relayFTP() {
+		RequestCoalescer.Flight flight = coalescer.join(request);
+		if(!flight.isLeader()) {
+			metrics.setSource(ProxyMetrics.COALESCED);
+			flight.follow(clientOutput);
+			return;
+		}
+		try {
+			metrics.setSource(ProxyMetrics.ORIGIN);
+			ftpClientStub.start(flight.getOutput(clientOutput));
+			if(!ftpClientStub.isComplete()) {
+				metrics.fail(ProxyMetrics.UPSTREAM_ERROR);
+			}
+		} finally {
+			flight.finish();
+		}
+	}
+	
+	/**
+	 * Returns the fetches shared by concurrent requests, for their statistics.
+	 *
+	 * @return the coalescer
+	 */
+	public static RequestCoalescer getCoalescer() {
+		return coalescer;
 	}
 	
 	/**
-	 * Send response to the client.
+	 * Returns the response cache shared by every connection, for its statistics.
+	 *
+	 * @return the cache
+	 */
+	public static ResponseCache getCache() {
+		return cache;
+	}
+	
+	/**
+	 * Returns the disk tier of the response cache, for its statistics.
+	 *
+	 * @return the disk cache, or null if it is turned off
+	 */
+	public static DiskCache getDiskCache() {
+		return diskCache;
+	}
+	
+	/**
+	 * Opens the disk cache tier and has the memory tier spill its evicted
+	 * responses into it.
+	 *
+	 * @return the disk cache, or null if it is turned off or could not be opened
+	 */
+	private static DiskCache openDiskCache() {
+		if(DISK_CACHE_SIZE <= 0) return null;
+		try {
+			DiskCache disk = new DiskCache(new File(DISK_CACHE_DIRECTORY), DISK_CACHE_SIZE, DISK_CACHE_SEGMENT);
+			cache.setEvictionListener(entry ->
+					disk.put(entry.getKey(), entry.getExpires(), entry.getResponse()));
+			return disk;
+		} catch(IOException e) {
+			Log.error("ConnectionHandler: Unable to open disk cache: " + e);
+			return null;
+		}
+	}
+	
+	/**
+	 * Send what is left of the response to the client, an error message
+	 * if no stub was used, and the end of message line.
 	 * Called by: start()
 	 */
 	private void sendResponseToClient() {
 		// the /r used to inform the client of end of message
-		clientOutput.println(serverResponse + "done");
-		clientOutput.flush();
-		clientOutput.close();
+		try {
+			if(httpClientStub == null && ftpClientStub == null && serverResponse != null) {
+				clientOutput.write(serverResponse.getBytes());
+			}
+			clientOutput.write("\r\ndone\r\n".getBytes());
+			clientOutput.flush();
+			clientOutput.close();
+		} catch(IOException e) {
+			Log.warn("ConnectionHandler: Unable to send response");
+		}
 	}
 	
 	/**
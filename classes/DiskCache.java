@@ -0,0 +1,367 @@
+//package client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+* title: DiskCache.java
+* to compile: javac DiskCache.java
+* description: The second tier of the proxy response cache, below ResponseCache. Responses
+* 				are appended to large segment files that are allocated up front and mapped
+* 				into memory, and found through a hash index that lives off the Java heap.
+* 				A hit is written from the mapped segment straight to the client socket
+* 				channel, so the bytes never pass through the heap. When every segment is
+* 				full the oldest one is recycled as a whole, which drops all the responses
+* 				it held at once.
+*
+* 				Record layout in a segment:
+* 					int keyLength, key bytes, long expires, int responseLength, response bytes
+* 				Index slot layout, 24 bytes:
+* 					long keyHash, int segment, int offset, int generation, int unused
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+public class DiskCache {
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	// the size of an index slot, in bytes
+	private static final int SLOT_SIZE = 24;
+	// the slots looked at before a key is considered absent
+	private static final int MAX_PROBES = 32;
+	// the size a response is assumed to have when sizing the index
+	private static final int AVERAGE_ENTRY_SIZE = 4 * 1024;
+
+	// the segment files, recycled in order
+	private final Segment[] segments;
+	// the segment responses are being appended to
+	private int current;
+	// the off-heap index, open addressing with linear probing
+	private final ByteBuffer index;
+	private final int mask;
+	// readers hold the read lock, appending and recycling hold the write lock
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	// statistics
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong writes = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong recycled = new AtomicLong();
+
+	/**
+	 * Instantiates a new disk cache, creating and mapping its segment files.
+	 *
+	 * @param directory the directory holding the segment files
+	 * @param capacity the total size of the segment files, in bytes
+	 * @param segmentSize the size of each segment file, in bytes
+	 * @throws IOException if the segment files could not be created
+	 */
+	public DiskCache(File directory, long capacity, int segmentSize) throws IOException {
+		if(!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+		int count = (int) Math.max(capacity / segmentSize, 2);
+		segments = new Segment[count];
+		for(int i = 0; i < count; i++) {
+			segments[i] = new Segment(new File(directory, "segment-" + i + ".dat"), segmentSize);
+		}
+
+		int slots = Integer.highestOneBit((int) Math.min(Math.max(capacity / AVERAGE_ENTRY_SIZE, 1024), 1 << 26) - 1) << 1;
+		index = ByteBuffer.allocateDirect(slots * SLOT_SIZE);
+		mask = slots - 1;
+	}
+
+	/**
+	 * Looks a response up. A hit pins its segment so it is not recycled while
+	 * the response is being sent, and must be closed once it has been sent.
+	 *
+	 * @param key the normalized URL
+	 * @return the hit, or null if no fresh response is cached
+	 */
+	public Hit get(String key) {
+		long hash = hash(key);
+		byte[] keyBytes = key.getBytes(ASCII);
+		long now = System.currentTimeMillis();
+		lock.readLock().lock();
+		try {
+			for(int probe = 0; probe < MAX_PROBES; probe++) {
+				int slot = (int) ((hash + probe) & mask) * SLOT_SIZE;
+				long slotHash = index.getLong(slot);
+				if(slotHash == 0) break;
+				if(slotHash != hash) continue;
+				Segment segment = segments[index.getInt(slot + 8)];
+				if(segment.generation != index.getInt(slot + 16)) continue;
+
+				int offset = index.getInt(slot + 12);
+				if(!segment.matches(offset, keyBytes)) continue;
+				int position = offset + 4 + keyBytes.length;
+				long expires = segment.buffer.getLong(position);
+				if(now >= expires) break;
+				int length = segment.buffer.getInt(position + 8);
+
+				ByteBuffer response = segment.buffer.duplicate();
+				response.position(position + 12).limit(position + 12 + length);
+				segment.readers.incrementAndGet();
+				hits.incrementAndGet();
+				return new Hit(segment, response.slice());
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Stores a response, recycling the oldest segment if the current one is full.
+	 * The response is dropped if it does not fit in a segment or every segment
+	 * is being read.
+	 *
+	 * @param key the normalized URL
+	 * @param expires the time until which the response is fresh, in milliseconds
+	 * @param response the whole response, head and body
+	 */
+	public void put(String key, long expires, byte[] response) {
+		byte[] keyBytes = key.getBytes(ASCII);
+		int recordSize = 4 + keyBytes.length + 8 + 4 + response.length;
+		long hash = hash(key);
+		lock.writeLock().lock();
+		try {
+			Segment segment = segmentFor(recordSize);
+			if(segment == null) {
+				dropped.incrementAndGet();
+				return;
+			}
+			int offset = segment.append(keyBytes, expires, response);
+			setSlot(hash, current, offset, segment.generation);
+			writes.incrementAndGet();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * Returns a segment with room for a record, moving on to and recycling the
+	 * next segments as needed. Segments being read are skipped.
+	 */
+	private Segment segmentFor(int recordSize) {
+		if(recordSize > segments[0].buffer.capacity()) return null;
+		if(segments[current].hasRoom(recordSize)) return segments[current];
+		for(int i = 1; i <= segments.length; i++) {
+			int next = (current + i) % segments.length;
+			Segment segment = segments[next];
+			if(segment.readers.get() > 0) continue;
+			if(segment.used > 0) {
+				segment.recycle();
+				recycled.incrementAndGet();
+			}
+			current = next;
+			return segment;
+		}
+		return null;
+	}
+
+	/*
+	 * Points the slot of a key at a record. A slot holding the same key or
+	 * a recycled record is reused; if none is found within MAX_PROBES the
+	 * first slot is overwritten, since the index may lose entries.
+	 */
+	private void setSlot(long hash, int segment, int offset, int generation) {
+		int target = -1;
+		for(int probe = 0; probe < MAX_PROBES; probe++) {
+			int slot = (int) ((hash + probe) & mask) * SLOT_SIZE;
+			long slotHash = index.getLong(slot);
+			if(slotHash == hash || slotHash == 0) {
+				target = slot;
+				break;
+			}
+			Segment old = segments[index.getInt(slot + 8)];
+			if(target == -1 && old.generation != index.getInt(slot + 16)) {
+				target = slot;
+			}
+		}
+		if(target == -1) target = (int) (hash & mask) * SLOT_SIZE;
+		index.putLong(target, hash);
+		index.putInt(target + 8, segment);
+		index.putInt(target + 12, offset);
+		index.putInt(target + 16, generation);
+	}
+
+	/*
+	 * A 64-bit FNV-1a hash of the key, never 0 since 0 marks an empty slot.
+	 */
+	private static long hash(String key) {
+		long hash = 0xcbf29ce484222325L;
+		for(int i = 0; i < key.length(); i++) {
+			hash ^= key.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		return hash == 0 ? 1 : hash;
+	}
+
+	/**
+	 * Returns the total size of the segment files.
+	 *
+	 * @return the size in bytes
+	 */
+	public long getCapacity() {
+		return (long) segments.length * segments[0].buffer.capacity();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getWrites() {
+		return writes.get();
+	}
+
+	/**
+	 * Returns the number of responses that could not be written, too large
+	 * for a segment or with every segment being read.
+	 *
+	 * @return the count
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Returns the number of times a segment was emptied to take new responses.
+	 *
+	 * @return the count
+	 */
+	public long getRecycled() {
+		return recycled.get();
+	}
+
+	/**
+	 * A cached response found on disk. The response stays in the mapped segment
+	 * until it is sent, and the segment cannot be recycled until the hit is closed.
+	 */
+	public static class Hit implements AutoCloseable {
+		private final Segment segment;
+		private final ByteBuffer response;
+
+		private Hit(Segment segment, ByteBuffer response) {
+			this.segment = segment;
+			this.response = response;
+		}
+
+		/**
+		 * Returns the length of the response, in bytes.
+		 *
+		 * @return the length
+		 */
+		public int getLength() {
+			return response.remaining();
+		}
+
+		/**
+		 * Sends the response to the client. Through the socket channel when there
+		 * is one, so the bytes go from the mapped file to the socket without a copy
+		 * on the heap, otherwise through a pooled buffer.
+		 *
+		 * @param connection the client connection
+		 * @param output the client output stream
+		 * @throws IOException Signals that an I/O exception has occurred.
+		 */
+		public void writeTo(Socket connection, OutputStream output) throws IOException {
+			SocketChannel channel = connection.getChannel();
+			if(channel != null && channel.isBlocking()) {
+				while(response.hasRemaining()) {
+					channel.write(response);
+				}
+				return;
+			}
+			byte[] buffer = BufferPool.acquire();
+			try {
+				while(response.hasRemaining()) {
+					int length = Math.min(buffer.length, response.remaining());
+					response.get(buffer, 0, length);
+					output.write(buffer, 0, length);
+				}
+			} finally {
+				BufferPool.release(buffer);
+			}
+		}
+
+		/**
+		 * Unpins the segment.
+		 */
+		@Override
+		public void close() {
+			segment.readers.decrementAndGet();
+		}
+	}
+
+	/*
+	 * One segment file, mapped as a whole.
+	 */
+	private static class Segment {
+		private final MappedByteBuffer buffer;
+		// bumped every time the segment is recycled, index slots of older generations are stale
+		private volatile int generation = 1;
+		// the bytes of the segment in use
+		private int used;
+		// the hits being sent from this segment
+		private final AtomicInteger readers = new AtomicInteger();
+
+		Segment(File file, int size) throws IOException {
+			try(RandomAccessFile raf = new RandomAccessFile(file, "rw");
+					FileChannel channel = raf.getChannel()) {
+				raf.setLength(size);
+				buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			}
+		}
+
+		boolean hasRoom(int recordSize) {
+			return used + recordSize <= buffer.capacity();
+		}
+
+		/*
+		 * Appends a record and returns its offset.
+		 */
+		int append(byte[] key, long expires, byte[] response) {
+			int offset = used;
+			ByteBuffer record = buffer.duplicate();
+			record.position(offset);
+			record.putInt(key.length).put(key).putLong(expires).putInt(response.length).put(response);
+			used = record.position();
+			return offset;
+		}
+
+		/*
+		 * Returns whether the record at offset has the given key.
+		 */
+		boolean matches(int offset, byte[] key) {
+			if(buffer.getInt(offset) != key.length) return false;
+			for(int i = 0; i < key.length; i++) {
+				if(buffer.get(offset + 4 + i) != key[i]) return false;
+			}
+			return true;
+		}
+
+		void recycle() {
+			generation++;
+			used = 0;
+		}
+	}
+}
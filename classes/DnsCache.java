@@ -0,0 +1,328 @@
+//package client;
+
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+* title: DnsCache.java
+* to compile: javac DnsCache.java
+* description: Resolves the hosts the proxy connects to and remembers the answers, so
+* 				the system resolver is not called on every request. A found address is
+* 				kept for the positive TTL and a host that could not be resolved for the
+* 				shorter negative TTL. An entry that is used once most of its TTL has gone
+* 				is refreshed in the background while the cached address keeps being
+* 				served, so hosts in use never expire in front of a request. Every
+* 				address of a host is kept, the first is the one requests go to and
+* 				the others are there for a hedged request to try. The time spent in
+* 				the system resolver is kept in a histogram on its own.
+* 				Clients choose the host names, so expired entries are swept out and
+* 				the cache holds at most -Dproxy.dns.maxEntries hosts; past that the
+* 				hosts that could not be resolved go first, then any others.
+* 				It also works out once which host names and addresses are this machine,
+* 				which decides whether a request goes to the local Server on port 800.
+* 				The TTLs are set with -Dproxy.dns.ttl and -Dproxy.dns.negativeTtl,
+* 				in milliseconds.
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+public class DnsCache {
+
+	// an entry used after this share of its TTL is refreshed in the background
+	private static final double REFRESH_AHEAD = 0.75;
+
+	// the cache shared by the proxy
+	private static final DnsCache shared = new DnsCache(
+			Long.getLong("proxy.dns.ttl", 60000),
+			Long.getLong("proxy.dns.negativeTtl", 5000),
+			Integer.getInteger("proxy.dns.maxEntries", 10000));
+	// the names and addresses of this machine, lower case
+	private static final Set<String> localNames = findLocalNames();
+
+	private final long positiveTtl;
+	private final long negativeTtl;
+	private final int maxEntries;
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+	// when expired entries are next swept out, in milliseconds
+	private final AtomicLong nextSweep = new AtomicLong();
+	// refreshes entries in the background
+	private final ExecutorService refresher = Executors.newSingleThreadExecutor(task -> {
+		Thread thread = new Thread(task, "dns-refresh");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	// statistics
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong negativeHits = new AtomicLong();
+	private final AtomicLong refreshes = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	// the time spent in the system resolver, in microseconds, for found and unknown hosts
+	private final LatencyHistogram foundLookups = new LatencyHistogram(TimeUnit.MINUTES.toMicros(10), 2);
+	private final LatencyHistogram unknownLookups = foundLookups.newEmpty();
+
+	/**
+	 * Instantiates a new DNS cache.
+	 *
+	 * @param positiveTtl how long a found address is kept, in milliseconds
+	 * @param negativeTtl how long a failed lookup is kept, in milliseconds
+	 * @param maxEntries the most hosts kept
+	 */
+	public DnsCache(long positiveTtl, long negativeTtl, int maxEntries) {
+		this.positiveTtl = positiveTtl;
+		this.negativeTtl = negativeTtl;
+		this.maxEntries = Math.max(maxEntries, 1);
+	}
+
+	/**
+	 * Returns the cache shared by the proxy.
+	 *
+	 * @return the cache
+	 */
+	public static DnsCache getShared() {
+		return shared;
+	}
+
+	/**
+	 * Returns whether a host is this machine, by name or by one of its addresses.
+	 *
+	 * @param host the host
+	 * @return true if local
+	 */
+	public static boolean isLocal(String host) {
+		return localNames.contains(host.toLowerCase());
+	}
+
+	/*
+	 * The loopback names and addresses, the host name and every interface address.
+	 * Looked up once, when the class is loaded.
+	 */
+	private static Set<String> findLocalNames() {
+		Set<String> names = new HashSet<>();
+		names.add("localhost");
+		names.add("127.0.0.1");
+		names.add("::1");
+		try {
+			InetAddress localhost = InetAddress.getLocalHost();
+			names.add(localhost.getHostName().toLowerCase());
+			names.add(localhost.getHostAddress().trim());
+		} catch(UnknownHostException e) {
+			Log.warn("DnsCache: Unknown local host");
+		}
+		try {
+			for(NetworkInterface network : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+				for(InetAddress address : Collections.list(network.getInetAddresses())) {
+					String name = address.getHostAddress();
+					// drop the scope of IPv6 addresses
+					int scope = name.indexOf('%');
+					names.add((scope == -1 ? name : name.substring(0, scope)).toLowerCase());
+				}
+			}
+		} catch(SocketException e) {
+			Log.warn("DnsCache: Unable to list network interfaces");
+		}
+		return Collections.unmodifiableSet(names);
+	}
+
+	/**
+	 * Resolves a host, from the cache when it holds a live answer.
+	 *
+	 * @param host the host
+	 * @return the address
+	 * @throws UnknownHostException if the host cannot be resolved, now or within the negative TTL
+	 */
+	public InetAddress resolve(String host) throws UnknownHostException {
+		InetAddress address = getCached(host);
+		if(address != null) return address;
+		misses.incrementAndGet();
+		Entry entry = lookup(host);
+		if(entry.address == null) throw new UnknownHostException(host);
+		return entry.address;
+	}
+
+	/**
+	 * Returns a cached answer without ever calling the resolver on this thread,
+	 * for callers that must not block.
+	 *
+	 * @param host the host
+	 * @return the address, or null if nothing live is cached
+	 * @throws UnknownHostException if the host is cached as unresolvable
+	 */
+	public InetAddress getCached(String host) throws UnknownHostException {
+		String key = host.toLowerCase();
+		Entry entry = entries.get(key);
+		long now = System.currentTimeMillis();
+		if(entry == null || now >= entry.expires) return null;
+		if(entry.address == null) {
+			negativeHits.incrementAndGet();
+			throw new UnknownHostException(host);
+		}
+		hits.incrementAndGet();
+		// the entry is in use and getting old, have it refreshed before it expires
+		if(now >= entry.refreshAt && entry.refreshing.compareAndSet(false, true)) {
+			refreshes.incrementAndGet();
+			refresher.execute(() -> lookup(key));
+		}
+		return entry.address;
+	}
+
+	/**
+	 * Returns another address of a host than the given one, for a second try
+	 * at another of its replicas. Only the cache is looked at, the addresses
+	 * are taken in turn after the given one.
+	 *
+	 * @param host the host
+	 * @param address the address already tried
+	 * @return the next cached address, or the given one if the host has no other
+	 */
+	public InetAddress getAlternate(String host, InetAddress address) {
+		Entry entry = entries.get(host.toLowerCase());
+		if(entry == null || entry.addresses == null || entry.addresses.length < 2) return address;
+		InetAddress[] addresses = entry.addresses;
+		for(int i = 0; i < addresses.length; i++) {
+			if(addresses[i].equals(address)) return addresses[(i + 1) % addresses.length];
+		}
+		return addresses[0];
+	}
+
+	/*
+	 * Calls the system resolver and caches the answer, keeping a positive
+	 * answer if a refresh fails.
+	 */
+	private Entry lookup(String host) {
+		String key = host.toLowerCase();
+		long start = System.nanoTime();
+		InetAddress[] addresses = null;
+		try {
+			addresses = InetAddress.getAllByName(key);
+		} catch(UnknownHostException e) {
+			// cached as a negative entry
+		}
+		long elapsed = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+		boolean found = addresses != null && addresses.length > 0;
+		(found ? foundLookups : unknownLookups).record(elapsed);
+
+		long now = System.currentTimeMillis();
+		Entry old = entries.get(key);
+		Entry entry;
+		if(found) {
+			entry = new Entry(addresses, now + positiveTtl, now + (long) (positiveTtl * REFRESH_AHEAD));
+		} else if(old != null && old.address != null && now < old.expires) {
+			// a failed refresh leaves the address in place until it expires
+			old.refreshing.set(false);
+			return old;
+		} else {
+			entry = new Entry(null, now + negativeTtl, Long.MAX_VALUE);
+		}
+		entries.put(key, entry);
+		evict(now);
+		return entry;
+	}
+
+	/*
+	 * Sweeps out the expired entries, at most once per negative TTL unless the
+	 * cache is full. A cache still full after the sweep drops the hosts that
+	 * could not be resolved, then any others, down to nine tenths of its size
+	 * so the next few lookups do not have to evict again.
+	 */
+	private void evict(long now) {
+		long next = nextSweep.get();
+		boolean full = entries.size() > maxEntries;
+		if(!full && (now < next || !nextSweep.compareAndSet(next, now + negativeTtl))) return;
+		sweep(entry -> now >= entry.expires, 0);
+		if(entries.size() <= maxEntries) return;
+		int target = maxEntries - maxEntries / 10;
+		sweep(entry -> entry.address == null, target);
+		sweep(entry -> true, target);
+	}
+
+	/*
+	 * Removes the entries matching drop until no more than target are left.
+	 */
+	private void sweep(Predicate<Entry> drop, int target) {
+		for(Iterator<Entry> iterator = entries.values().iterator(); entries.size() > target && iterator.hasNext(); ) {
+			if(drop.test(iterator.next())) {
+				iterator.remove();
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Returns the time spent in the system resolver.
+	 *
+	 * @param found true for the lookups that found the host, false for the others
+	 * @return the histogram, in microseconds
+	 */
+	public LatencyHistogram getLookupTimes(boolean found) {
+		return found ? foundLookups : unknownLookups;
+	}
+
+	public int getEntryCount() {
+		return entries.size();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of times a host cached as unresolvable was asked for.
+	 *
+	 * @return the count
+	 */
+	public long getNegativeHits() {
+		return negativeHits.get();
+	}
+
+	/**
+	 * Returns the number of background refreshes started.
+	 *
+	 * @return the count
+	 */
+	public long getRefreshes() {
+		return refreshes.get();
+	}
+
+	/*
+	 * A cached answer, the addresses are null for a host that could not be
+	 * resolved, and address is the first of them.
+	 */
+	private static class Entry {
+		private final InetAddress[] addresses;
+		private final InetAddress address;
+		private final long expires;
+		private final long refreshAt;
+		private final AtomicBoolean refreshing = new AtomicBoolean();
+
+		Entry(InetAddress[] addresses, long expires, long refreshAt) {
+			this.addresses = addresses;
+			this.address = addresses == null ? null : addresses[0];
+			this.expires = expires;
+			this.refreshAt = refreshAt;
+		}
+	}
+}
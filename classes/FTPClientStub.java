@@ -1,15 +1,14 @@
 //package client;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.BufferedOutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
 
 /**
@@ -17,7 +16,11 @@ import org.apache.commons.net.ftp.FTPClient;
 * implements: ClientInterface
 * to compile: javac -cp commons-net-3.6.jar; FTPClientStub.java
 * description: This class helps connect to an FTP server and
-* 				retrieve a resource.
+* 				retrieve a resource. Logged in sessions are borrowed from a
+* 				shared pool and given back after the transfer, so repeated
+* 				fetches from the same server skip connecting and logging in.
+* 				Connecting, the commands and the transfer give up at the
+* 				deadline of the request.
 *
 * @date: July 05, 2018
 * @author Zakaria Bakkal
@@ -25,10 +28,23 @@ import org.apache.commons.net.ftp.FTPClient;
 */
 public class FTPClientStub implements ClientInterface{
 
-	// this code represents FTP connection failure
-	private final int FAILURE = 530;
 	// the default port of an FTP server
 	private final int PORT = 21;
+	
+	// the most idle sessions kept for one server and user
+	private static final int MAX_IDLE_SESSIONS = 4;
+	// how long an unused session is kept logged in, in milliseconds
+	private static final long IDLE_TIMEOUT = 60000;
+	// how often idle sessions are sent NOOP, in milliseconds
+	private static final long KEEP_ALIVE_INTERVAL = 15000;
+	// the logged in sessions shared by every stub
+	private static final FtpSessionPool pool =
+			new FtpSessionPool(MAX_IDLE_SESSIONS, IDLE_TIMEOUT, KEEP_ALIVE_INTERVAL);
+	
+	// transfer counters shared by every stub
+	private static final AtomicLong transfers = new AtomicLong();
+	private static final AtomicLong failedTransfers = new AtomicLong();
+	private static final AtomicLong bytesTransferred = new AtomicLong();
 		
 	// used for FTP anonymous connections
 	private final String ANONYMOUS = "anonymous";
@@ -36,26 +52,37 @@ public class FTPClientStub implements ClientInterface{
 	private String remoteServer;
 	// holds the resource name
 	private String resource;
-	// used to download the resource file
-	private File temp;
 	// holds the user name
 	private String user;
 	// holds the user password
 	private String pass;
-	// represents the client connection
+	// represents the client connection, borrowed from the pool
+	private FtpSessionPool.Session session;
 	private FTPClient ftpClient;
-	// used to write the resource content to the temp file
-	private OutputStream output;
-	// holds the remote file content
-	private StringBuilder response;
+	// whether the retrieve command completed, the session can then be reused
+	private boolean completed;
+	// the data connection the file arrives on
+	private InputStream input;
+	// the number of bytes of the file relayed
+	private long bytes;
+	// the remote file content is relayed here
+	private OutputStream sink;
+	// holds the remote file content when start() is used
+	private ByteArrayOutputStream response;
 	// connection flag
 	private boolean connected;
+	// whether the whole file was relayed
+	private boolean relayed;
+	// when the request must be answered by, in System.nanoTime() terms, 0 for never
+	private long deadline;
+	// times the connect, the wait for the first byte and the transfer
+	private ProxyMetrics.Request metrics = ProxyMetrics.untracked();
 	
 	/**
 	 * Anonymous FTP connection.
 	 * Instantiates a new FTP client stub, by initializing the remoteServer,
 	 * and the resource file name to the value of the arguments passed.
-	 * Creates the temp file and set USER and PASS instance variable to ANONYMOUS.
+	 * And sets USER and PASS instance variable to ANONYMOUS.
 	 *
 	 * @param remoteServer the remote FTP server address
 	 * @param resource the resource file name
@@ -63,7 +90,6 @@ public class FTPClientStub implements ClientInterface{
 	public FTPClientStub(String remoteServer, String resource) {
 		this.remoteServer = remoteServer;
 		this.resource = resource;
-		this.temp = new File("temp");
 		this.user = ANONYMOUS;
 		this.pass = ANONYMOUS;
 	}
@@ -72,7 +98,7 @@ public class FTPClientStub implements ClientInterface{
 	 * Non-anonymous FTP connection.
 	 * Instantiates a new FTP client stub, by initializing the remoteServer,
 	 * the resource file name, USER and PASS instance variable to the value 
-	 * of the arguments passed. And Creates the temp file. if the USER and PASS
+	 * of the arguments passed. If the USER and PASS
 	 * are null ANONYMOUS connection is used.
 	 *
 	 * @param remoteServer the remote FTP server address
@@ -83,7 +109,6 @@ public class FTPClientStub implements ClientInterface{
 	public FTPClientStub(String remoteServer, String resource, String user, String pass) {
 		this.remoteServer = remoteServer;
 		this.resource = resource;
-		this.temp = new File("temp");
 		if(user != null) {
 			this.user = user;
 			this.pass = pass;
@@ -93,119 +118,269 @@ public class FTPClientStub implements ClientInterface{
 		}
 	}
 	
+	/**
+	 * Times the phases of the exchange with the FTP server as part of
+	 * the given request.
+	 *
+	 * @param metrics the request
+	 */
+	public void setMetrics(ProxyMetrics.Request metrics) {
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Sets when the request must be answered by. Connecting, each command
+	 * and the transfer give up once it has passed.
+	 *
+	 * @param deadline the deadline in System.nanoTime() terms, 0 for none
+	 */
+	public void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+	
+	/*
+	 * The time left before the deadline as a socket timeout, in milliseconds,
+	 * 0 when there is no deadline.
+	 */
+	private int remaining() throws SocketTimeoutException {
+		if(deadline == 0) return 0;
+		long left = deadline - System.nanoTime();
+		if(left <= 0) throw new SocketTimeoutException("Deadline exceeded");
+		return (int) Math.min(Math.max(TimeUnit.NANOSECONDS.toMillis(left), 1), Integer.MAX_VALUE);
+	}
+	
 	/* 
-	 * Connects to the FTP server, sets up the streams, sends request
-	 * and read the response, then disconnects.
+	 * Connects to the FTP server, retrieves the file and disconnects.
+	 * The whole file is kept in memory and returned by getResponse().
+	 */
+	public void start() {
+		response = new ByteArrayOutputStream();
+		start(response);
+	}
+	
+	/**
+	 * Connects to the FTP server, sends request and relays the file
+	 * to sink as it arrives on the data connection, then disconnects.
 	 * calls:
 	 * 		connect()
-	 *		setupStreams()
 	 *		sendRequest()
 	 *		readResponse()
 	 *		disconnect()
+	 *
+	 * @param sink where the file content is written
 	 */
-	public void start() {
+	public void start(OutputStream sink) {
+		this.sink = sink;
 		connect();
 		if(connected) {
-			setupStreams();
 			sendRequest();
 			readResponse();
 			disconnect();
-			temp.delete();
 		}
 	}
 	
 	/**
-	 * Connects to the FTP server
+	 * Connects to the FTP server, or reuses a logged in session to it.
+	 * New sessions are logged in, in passive mode and set to binary transfers.
 	 * Called by: start()
 	 */
 	private void connect() {
-		ftpClient = new FTPClient();
+		metrics.begin(ProxyMetrics.UPSTREAM_CONNECT);
 		try {
-			// start a connection with the FTP server on port 21
-			ftpClient.connect(remoteServer, PORT);
-			// provide user name and user password
-			ftpClient.login(user, pass);
+			// a session on port 21 logged in with the user name and password
+			session = pool.borrow(remoteServer, PORT, user, pass, remaining());
+			metrics.end(ProxyMetrics.UPSTREAM_CONNECT);
 			// check if the connection has succeeded
-			int replyCode = ftpClient.getReplyCode();
-			if(replyCode == FAILURE) {
-				System.out.println("FTPClientStub: Invalid Username/Password");
-				response = new StringBuilder();
-				response.append("Invalid Username/Password\r\n");
+			if(session == null) {
+				Log.warn("FTPClientStub: Invalid Username/Password");
+				writeMessage("Invalid Username/Password\r\n");
 			} else {
 				connected = true;
-				// Set the current data connection mode to PASSIVE_LOCAL_DATA_CONNECTION_MODE
-				// This method causes a PASV or EPSV command to be issued to the server before
-				// the opening of every data connection, telling the server to open a data port 
-				// to which the client will connect to conduct data transfers
-				ftpClient.enterLocalPassiveMode();
-				// set the transfer mode of data from server to client to binay
-				ftpClient.setFileTransferMode(FTP.BINARY_FILE_TYPE);
+				ftpClient = session.getClient();
 			}
+		} catch (SocketTimeoutException e) {
+			Log.warn("FTPClientStub: Deadline exceeded connecting to server");
+			metrics.end(ProxyMetrics.UPSTREAM_CONNECT);
+			metrics.fail(ProxyMetrics.TIMEOUT);
+			writeMessage("Couldn't connect to server\r\n");
 		} catch (IOException e) {
-			System.out.println("FTPClientStub: Could't connect to server");
-			response = new StringBuilder();
-			response.append("Couldn't connect to server\r\n");
+			Log.warn("FTPClientStub: Could't connect to server");
+			metrics.end(ProxyMetrics.UPSTREAM_CONNECT);
+			writeMessage("Couldn't connect to server\r\n");
 		}
 	}
 	
 	/**
-	 * Setup the output stream that writes to the temp file.
-	 * Called by: start()
+	 * Write an error message in place of the file content.
+	 * 
+	 * @param message the message
 	 */
-	private void setupStreams() {
+	private void writeMessage(String message) {
 		try {
-			output = new BufferedOutputStream(new FileOutputStream(temp));
-		} catch(FileNotFoundException e) {
-			System.out.println("FTPClientStub: Could not find file");
+			sink.write(message.getBytes());
+		} catch(IOException e) {
+			Log.warn("FTPClientStub: Unable to write response");
 		}
-		
 	}
 	
 	/**
-	 * Send an FTP request to retrieve the resource file and store it
-	 * in the resource instance variable.
+	 * Send an FTP request to retrieve the resource file and open the
+	 * data connection it arrives on.
 	 * Called by: start()
 	 */
 	private void sendRequest() {
+		metrics.begin(ProxyMetrics.UPSTREAM_FIRST_BYTE);
 		try {
-			ftpClient.retrieveFile(resource, output);
-			output.close();
+			// the replies and the data connection wait no longer than the deadline
+			int timeout = remaining();
+			ftpClient.setSoTimeout(timeout);
+			ftpClient.setDataTimeout(timeout);
+			input = ftpClient.retrieveFileStream(resource);
+			if(input == null) {
+				// the server refused, the command is over and the session is fine
+				Log.warn("FTPClientStub: Could not retrieve file");
+				completed = true;
+			}
+		} catch(SocketTimeoutException e) {
+			Log.warn("FTPClientStub: Deadline exceeded retrieving file");
+			metrics.fail(ProxyMetrics.TIMEOUT);
 		} catch(IOException e) {
-			System.out.println("FTPClientStub: Could not retrieve file");
+			Log.warn("FTPClientStub: Could not retrieve file");
 		}
 	}
 	
 	/**
-	 * Read the FTP server response and store it in the response
-	 * instance variable.
+	 * Relay the file from the data connection to the sink, one pooled buffer
+	 * at a time, with no temp file and no character decoding. Then wait for
+	 * the server to confirm the transfer, which leaves the session ready for
+	 * the next command. The data connection waits at most the time left when
+	 * the transfer started, and the deadline is checked after each read.
 	 * Called by: start()
 	 */
 	private void readResponse() {
-		try(BufferedReader reader = new BufferedReader(new FileReader(temp))) {
-			response = new StringBuilder();
-			String line = null;
-			while((line = reader.readLine()) != null) {
-				response.append(line)
-						.append("\n");
+		if(input == null) return;
+		transfers.incrementAndGet();
+		byte[] buffer = BufferPool.acquire();
+		try {
+			int read;
+			while((read = input.read(buffer)) != -1) {
+				if(metrics.end(ProxyMetrics.UPSTREAM_FIRST_BYTE)) metrics.begin(ProxyMetrics.TRANSFER);
+				sink.write(buffer, 0, read);
+				bytes += read;
+				remaining();
 			}
+			input.close();
+			ftpClient.setSoTimeout(remaining());
+			completed = ftpClient.completePendingCommand();
+			sink.flush();
+			relayed = completed;
+		} catch(SocketTimeoutException e) {
+			Log.warn("FTPClientStub: Deadline exceeded relaying file");
+			metrics.fail(ProxyMetrics.TIMEOUT);
+			closeQuietly(input);
 		} catch(IOException e) {
-			System.out.println("FTPClientStub: Could read file");
+			Log.warn("FTPClientStub: Could not relay file");
+			closeQuietly(input);
+		} finally {
+			metrics.end(ProxyMetrics.TRANSFER);
+			BufferPool.release(buffer);
+			bytesTransferred.addAndGet(bytes);
+			if(!completed) failedTransfers.incrementAndGet();
 		}
 	}
 	
 	/**
-	 * Disconnect from the FTP server
+	 * Close the data connection after a failed transfer.
+	 *
+	 * @param input the data connection
+	 */
+	private void closeQuietly(InputStream input) {
+		try {
+			input.close();
+		} catch(IOException e) {
+			Log.warn("FTPClientStub: Error closing data connection");
+		}
+	}
+	
+	/**
+	 * Give the session back to the pool. It is only kept if the transfer
+	 * completed, otherwise the control connection may be mid-command.
 	 * Called by: start()
 	 */
 	private void disconnect() {
+		// an idle session waits on its replies as long as it did before the request
 		try {
-			if(ftpClient.isConnected()) {
-				ftpClient.logout();
-				ftpClient.disconnect();
-			}
+			if(completed) ftpClient.setSoTimeout(0);
 		} catch(IOException e) {
-			System.out.println("FTPClientStub: Error disconnecting from server");
+			completed = false;
 		}
+		pool.giveBack(session, completed);
+
+		session = null;
+		ftpClient = null;
+	}
+	
+	/**
+	 * Returns the session pool shared by every stub, for its statistics.
+	 *
+	 * @return the pool
+	 */
+	public static FtpSessionPool getPool() {
+		return pool;
+	}
+	
+	/**
+	 * Returns the number of transfers started by every stub.
+	 *
+	 * @return the count
+	 */
+	public static long getTransfers() {
+		return transfers.get();
+	}
+	
+	/**
+	 * Returns the number of transfers that did not complete.
+	 *
+	 * @return the count
+	 */
+	public static long getFailedTransfers() {
+		return failedTransfers.get();
+	}
+	
+	/**
+	 * Returns the bytes relayed by every stub.
+	 *
+	 * @return the byte count
+	 */
+	public static long getTotalBytesTransferred() {
+		return bytesTransferred.get();
+	}
+	
+	/**
+	 * Returns whether the whole file was relayed.
+	 *
+	 * @return true if complete
+	 */
+	public boolean isComplete() {
+		return relayed;
+	}
+	
+	/**
+	 * Returns the number of bytes of the file relayed by this stub.
+	 *
+	 * @return the byte count
+	 */
+	public long getBytesTransferred() {
+		return bytes;
+	}
+
+	/**
+	 * Returns the resource file content kept by start(), byte for byte.
+	 *
+	 * @return the file content
+	 */
+	public byte[] getResponseBytes() {
+		return response == null ? new byte[0] : response.toByteArray();
 	}
 
 	/* 
@@ -214,7 +389,8 @@ public class FTPClientStub implements ClientInterface{
 	 * @return String
 	 */
 	public String getResponse() {
-		return response.toString();
+		return response == null ? "" : new String(response.toByteArray(), Charset.forName("ISO-8859-1"));
 	}
+
 	
 }
@@ -0,0 +1,324 @@
+//package client;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+
+/**
+* title: FtpSessionPool.java
+* to compile: javac -cp commons-net-3.6.jar; FtpSessionPool.java
+* description: Keeps FTP control connections logged in between requests, keyed by
+* 				host and user, so repeated fetches from the same server skip connecting,
+* 				logging in and setting the transfer modes. A session is only handed to a
+* 				request carrying the password it logged in with. Idle sessions are kept
+* 				alive with NOOP, closed after an idle timeout, and checked with NOOP
+* 				when borrowed unless they were used a moment ago.
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+public class FtpSessionPool {
+
+	// a session used this recently is handed out without a NOOP first, in milliseconds
+	private static final long TRUSTED_PERIOD = 2000;
+
+	// the most idle sessions kept for one host and user
+	private final int maxIdlePerKey;
+	// how long a session may stay idle before it is closed, in milliseconds
+	private final long idleTimeout;
+	// the idle sessions of each host and user
+	private final Map<String, ArrayDeque<Session>> idle = new ConcurrentHashMap<>();
+	// sends NOOP to idle sessions and closes expired ones
+	private final ScheduledExecutorService keepAlive;
+
+	// statistics
+	private final AtomicLong created = new AtomicLong();
+	private final AtomicLong reused = new AtomicLong();
+	private final AtomicLong failedChecks = new AtomicLong();
+	private final AtomicLong expired = new AtomicLong();
+
+	/**
+	 * Instantiates a new FTP session pool.
+	 *
+	 * @param maxIdlePerKey the most idle sessions kept for one host and user
+	 * @param idleTimeout how long a session may stay idle, in milliseconds
+	 * @param keepAliveInterval how often idle sessions are sent NOOP, in milliseconds
+	 */
+	public FtpSessionPool(int maxIdlePerKey, long idleTimeout, long keepAliveInterval) {
+		this.maxIdlePerKey = maxIdlePerKey;
+		this.idleTimeout = idleTimeout;
+		this.keepAlive = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "ftp-pool-keepalive");
+			thread.setDaemon(true);
+			return thread;
+		});
+		keepAlive.scheduleWithFixedDelay(this::keepAlive, keepAliveInterval, keepAliveInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Hands out a logged in session to the server, an idle one if there is a
+	 * healthy one for this user and password, otherwise a new one.
+	 *
+	 * @param host the FTP server
+	 * @param port the FTP server port
+	 * @param user the user name
+	 * @param pass the password
+	 * @return the session, or null if the server refused the user and password
+	 * @throws IOException if the server could not be reached
+	 */
+	public Session borrow(String host, int port, String user, String pass) throws IOException {
+		return borrow(host, port, user, pass, 0);
+	}
+
+	/**
+	 * Hands out a logged in session as borrow() does, a new session giving up
+	 * on the server once the timeout has passed, while connecting and while
+	 * waiting for each reply until it is logged in.
+	 *
+	 * @param host the FTP server
+	 * @param port the FTP server port
+	 * @param user the user name
+	 * @param pass the password
+	 * @param timeout the timeout in milliseconds, 0 for none
+	 * @return the session, or null if the server refused the user and password
+	 * @throws IOException if the server could not be reached in time
+	 */
+	public Session borrow(String host, int port, String user, String pass, int timeout) throws IOException {
+		String key = host + ":" + port + "/" + user;
+		byte[] digest = digest(pass);
+		ArrayDeque<Session> sessions = idle.get(key);
+		if(sessions != null) {
+			while(true) {
+				Session session;
+				synchronized(sessions) {
+					session = takeMatching(sessions, digest);
+				}
+				if(session == null) break;
+				if(session.isHealthy()) {
+					reused.incrementAndGet();
+					return session;
+				}
+				failedChecks.incrementAndGet();
+				session.close();
+			}
+		}
+		return open(key, host, port, user, pass, digest, timeout);
+	}
+
+	/*
+	 * Takes the most recently used idle session logged in with the password.
+	 */
+	private Session takeMatching(ArrayDeque<Session> sessions, byte[] digest) {
+		Iterator<Session> iterator = sessions.iterator();
+		while(iterator.hasNext()) {
+			Session session = iterator.next();
+			if(MessageDigest.isEqual(session.digest, digest)) {
+				iterator.remove();
+				return session;
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * Connects, logs in and sets passive mode and binary transfers.
+	 */
+	private Session open(String key, String host, int port, String user, String pass, byte[] digest, int timeout)
+			throws IOException {
+		FTPClient client = new FTPClient();
+		client.setConnectTimeout(timeout);
+		client.setDefaultTimeout(timeout);
+		client.connect(DnsCache.getShared().resolve(host), port);
+		if(!client.login(user, pass)) {
+			client.disconnect();
+			return null;
+		}
+		// Set the current data connection mode to PASSIVE_LOCAL_DATA_CONNECTION_MODE
+		// This method causes a PASV or EPSV command to be issued to the server before
+		// the opening of every data connection, telling the server to open a data port
+		// to which the client will connect to conduct data transfers
+		client.enterLocalPassiveMode();
+		// transfer files as binary
+		client.setFileType(FTP.BINARY_FILE_TYPE);
+		created.incrementAndGet();
+		return new Session(key, client, digest);
+	}
+
+	/**
+	 * Gives a session back once its transfer is complete, or closes it if
+	 * it is in an unknown state or enough sessions are already idle.
+	 *
+	 * @param session the session
+	 * @param reusable whether the last command on the session completed
+	 */
+	public void giveBack(Session session, boolean reusable) {
+		if(!reusable || !session.client.isConnected()) {
+			session.close();
+			return;
+		}
+		session.lastUsed = System.currentTimeMillis();
+		ArrayDeque<Session> sessions = idle.computeIfAbsent(session.key, k -> new ArrayDeque<>());
+		synchronized(sessions) {
+			if(sessions.size() < maxIdlePerKey) {
+				sessions.addFirst(session);
+				return;
+			}
+		}
+		session.logout();
+	}
+
+	/*
+	 * Sends NOOP to every idle session, closing those that fail or have been idle too long.
+	 * The sessions are taken out while they are pinged so nobody borrows them meanwhile.
+	 */
+	private void keepAlive() {
+		long now = System.currentTimeMillis();
+		for(ArrayDeque<Session> sessions : idle.values()) {
+			List<Session> taken;
+			synchronized(sessions) {
+				taken = new ArrayList<>(sessions);
+				sessions.clear();
+			}
+			for(Session session : taken) {
+				if(now - session.lastUsed >= idleTimeout) {
+					expired.incrementAndGet();
+					session.logout();
+				} else if(!session.ping()) {
+					failedChecks.incrementAndGet();
+					session.close();
+				} else {
+					synchronized(sessions) {
+						sessions.addLast(session);
+					}
+				}
+			}
+		}
+	}
+
+	/*
+	 * A SHA-256 digest of the password, so the pool does not keep passwords.
+	 */
+	private static byte[] digest(String pass) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(pass.getBytes(Charset.forName("UTF-8")));
+		} catch(NoSuchAlgorithmException e) {
+			return Arrays.copyOf(pass.getBytes(Charset.forName("UTF-8")), 32);
+		}
+	}
+
+	/**
+	 * Returns the number of idle sessions.
+	 *
+	 * @return the count
+	 */
+	public int getIdle() {
+		int count = 0;
+		for(ArrayDeque<Session> sessions : idle.values()) {
+			synchronized(sessions) {
+				count += sessions.size();
+			}
+		}
+		return count;
+	}
+
+	public long getCreated() {
+		return created.get();
+	}
+
+	public long getReused() {
+		return reused.get();
+	}
+
+	public long getFailedChecks() {
+		return failedChecks.get();
+	}
+
+	/**
+	 * Returns the number of idle sessions closed after the idle timeout.
+	 *
+	 * @return the count
+	 */
+	public long getExpired() {
+		return expired.get();
+	}
+
+	/**
+	 * A logged in FTP control connection.
+	 */
+	public static class Session {
+		private final String key;
+		private final FTPClient client;
+		private final byte[] digest;
+		// the last time the session was given back or pinged, in milliseconds
+		private volatile long lastUsed = System.currentTimeMillis();
+
+		private Session(String key, FTPClient client, byte[] digest) {
+			this.key = key;
+			this.client = client;
+			this.digest = digest;
+		}
+
+		public FTPClient getClient() {
+			return client;
+		}
+
+		/*
+		 * Checks the session with NOOP, unless it was used a moment ago.
+		 */
+		private boolean isHealthy() {
+			if(!client.isConnected()) return false;
+			if(System.currentTimeMillis() - lastUsed < TRUSTED_PERIOD) return true;
+			return ping();
+		}
+
+		private boolean ping() {
+			try {
+				boolean ok = client.sendNoOp();
+				lastUsed = System.currentTimeMillis();
+				return ok;
+			} catch(IOException e) {
+				return false;
+			}
+		}
+
+		/*
+		 * Logs out politely, then closes.
+		 */
+		private void logout() {
+			try {
+				if(client.isConnected()) {
+					client.logout();
+				}
+			} catch(IOException e) {
+				Log.warn("FtpSessionPool: Error logging out");
+			}
+			close();
+		}
+
+		private void close() {
+			try {
+				if(client.isConnected()) {
+					client.disconnect();
+				}
+			} catch(IOException e) {
+				Log.warn("FtpSessionPool: Error disconnecting from server");
+			}
+		}
+	}
+}
@@ -1,19 +1,28 @@
 //package client;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.InetAddress;
-import java.net.Socket;
-import java.net.UnknownHostException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
 
 /**
 * title: HTTPClientStub.java
 * implements: ClientInterface
 * to compile: javac -cp commons-net-3.6.jar; HTTPClientStub.java
 * description: This class helps connect to an HTTP server and
-* 				retrieve a resource.
+* 				retrieve a resource. Connections are taken from a shared pool
+* 				of persistent connections and given back once the response has
+* 				been read, so repeated requests to a host reuse the same socket.
+* 				Connecting, sending and every read give up at the deadline of the
+* 				request, and a GET slow to answer is hedged, see HedgingPolicy.
 *
 * @date: July 05, 2018
 * @author Zakaria Bakkal
@@ -21,26 +30,67 @@ import java.net.UnknownHostException;
 */
 public class HTTPClientStub implements ClientInterface{
 
-	// The local proxy server address
-	private String localserver;
+	// the most connections kept open to a single host
+	private static final int MAX_CONNECTIONS_PER_HOST = 20;
+	// how long an unused connection is kept open, in milliseconds
+	private static final long IDLE_TIMEOUT = 30000;
+	// how long to wait for a connection when a host is at its limit, in milliseconds
+	private static final long WAIT_TIMEOUT = 10000;
+	// the persistent connections shared by every stub
+	private static final HttpConnectionPool pool =
+			new HttpConnectionPool(MAX_CONNECTIONS_PER_HOST, IDLE_TIMEOUT, WAIT_TIMEOUT);
+	// ends the head of a response the proxy sends on in chunks
+	private static final byte[] CHUNKED_FIELD = "Transfer-Encoding: chunked\r\n\r\n".getBytes(Charset.forName("US-ASCII"));
+	// sent when the deadline passes before any of the response was relayed
+	private static final byte[] GATEWAY_TIMEOUT = ("HTTP/1.1 504 Gateway Timeout\r\n"
+			+ "Content-Length: 0\r\n"
+			+ "Connection: close\r\n\r\n").getBytes(Charset.forName("US-ASCII"));
+	// decides when a slow GET is sent a second time
+	private static final HedgingPolicy hedging = HedgingPolicy.getShared();
 	// The connection is made on this port 
 	private int port;
 	// The remote host address
 	private String remoteHost;
-	// The connection to the server socket
-	private Socket connection;
+	// the address the request went to
+	private InetAddress address;
+	// The connection to the server, borrowed from the pool
+	private HttpConnectionPool.Connection connection;
 	// The resource path
 	private String resource;
 	// Used to write to the server
-	private PrintWriter out;
-	// Used to read from the server
-	private BufferedReader in;
+	private OutputStream out;
+	// Used to read from the server, through a pooled buffer rather than a
+	// synchronized reader so a virtual thread blocked here is not pinned
+	private InputStream in;
 	// Holds the http request
 	private String httpRequest;
-	// Holds the server response
-	private StringBuilder response;
-	// http response code
-	private int code;
+	// The server response is relayed here as it arrives
+	private OutputStream output;
+	// Holds the server response when start() is used
+	private ByteArrayOutputStream response;
+	// The status line and headers of the server response
+	private HttpResponseHead head;
+	// the buffer the response is read into, and the unread part of it
+	private byte[] buffer;
+	private int position;
+	private int limit;
+	// whether the connection can go back to the pool
+	private boolean reusable;
+	// whether the whole response was relayed
+	private boolean complete;
+	// whether the head of the response was passed on to the output
+	private boolean relaying;
+	// when the request must be answered by, in System.nanoTime() terms, 0 for never
+	private long deadline;
+	// when the request was sent, in System.nanoTime() terms
+	private long sent;
+	// the validators of a cached response to revalidate, null if there is none
+	private String ifNoneMatch;
+	private String ifModifiedSince;
+	// whether the server answered the revalidation with 304
+	private boolean notModified;
+	// times the connect, the wait for the first byte and the transfer
+	private ProxyMetrics.Request metrics = ProxyMetrics.untracked();
 	
 	/**
 	 * Instantiates a new HTTP client stub, by initializing the remoteHost,
@@ -52,23 +102,64 @@ public class HTTPClientStub implements ClientInterface{
 	public HTTPClientStub(String remoteHost, String resource) {
 		this.remoteHost = remoteHost;
 		this.resource = resource;
-		try {
-			InetAddress localhost = InetAddress.getLocalHost();
-			localserver = (localhost.getHostAddress()).trim();
-		} catch(UnknownHostException e) {
-			System.out.println("HTTPClientStub: Unkown host");
-		}
+	}
+	
+	/**
+	 * Makes the request conditional on a cached response having changed.
+	 * A 304 answer is not relayed, see isNotModified().
+	 *
+	 * @param etag the ETag of the cached response, or null
+	 * @param lastModified the Last-Modified date of the cached response, or null
+	 */
+	public void setValidators(String etag, String lastModified) {
+		this.ifNoneMatch = etag;
+		this.ifModifiedSince = lastModified;
+	}
+	
+	/**
+	 * Times the phases of the exchange with the remote server as part of
+	 * the given request.
+	 *
+	 * @param metrics the request
+	 */
+	public void setMetrics(ProxyMetrics.Request metrics) {
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Sets when the request must be answered by. Connecting, sending and each
+	 * read give up once it has passed, and a client that got nothing yet is
+	 * answered with 504 Gateway Timeout.
+	 *
+	 * @param deadline the deadline in System.nanoTime() terms, 0 for none
+	 */
+	public void setDeadline(long deadline) {
+		this.deadline = deadline;
 	}
 	
 	/* Connects to the remote server, sends the client request,
 	 * read the server response and closes the connection.
+	 * The whole response is kept in memory and returned by getResponse().
+	 */
+	public void start() {
+		response = new ByteArrayOutputStream();
+		start(response);
+	}
+	
+	/**
+	 * Connects to the remote server, sends the client request,
+	 * relays the server response to output as it arrives and gives
+	 * the connection back.
 	 * Calls:
 	 * 		connect()
 	 *		sendRequest()
 	 *		readResponse()
 	 *		closeConnection()
+	 *
+	 * @param output where the response is written
 	 */
-	public void start() {
+	public void start(OutputStream output) {
+		this.output = output;
 		connect();
 		if(connection != null) {
 			sendRequest();
@@ -78,32 +169,38 @@ public class HTTPClientStub implements ClientInterface{
 	}
 	
 	/**
-	 * Connect to the server
+	 * Connect to the server, reusing a pooled connection when there is one.
 	 * Called by: start()
 	 */
 	private void connect() {
-		// check if the server is local
-		// either running on 127.0.0.1 or the local IP address
-		// and assign the appropriate port number
-		if(remoteHost.equals("localhost") 
-				|| remoteHost.equalsIgnoreCase(localserver)) {
+		// check if the server is local, by one of the names or addresses
+		// of this machine, and assign the appropriate port number
+		if(DnsCache.isLocal(remoteHost)) {
 			port = 800;
 		} else {
 			port = 80;
 		}
 		// establish the connection
+		metrics.begin(ProxyMetrics.UPSTREAM_CONNECT);
 		try {
-			InetAddress address = InetAddress.getByName(remoteHost);
-			connection = new Socket(address, port);
+			address = DnsCache.getShared().resolve(remoteHost);
+			connection = pool.acquire(remoteHost, address, port, remaining());
+			connection.requestSent();
 			// setup input and output streams to the server
 			setupStreams();
+			metrics.end(ProxyMetrics.UPSTREAM_CONNECT);
 		} catch (IOException e) {
-			System.out.println("HTTPClientStub: Could't connect to server");
-			response = new StringBuilder();
-			response.append("Couldn't connect to server\r\n");
+			boolean timedOut = e instanceof SocketTimeoutException;
+			Log.warn(timedOut ? "HTTPClientStub: Deadline exceeded connecting to server" : "HTTPClientStub: Could't connect to server");
+			metrics.end(ProxyMetrics.UPSTREAM_CONNECT);
+			metrics.fail(timedOut ? ProxyMetrics.TIMEOUT : ProxyMetrics.UPSTREAM_ERROR);
+			connection = null;
+			try {
+				output.write(timedOut ? GATEWAY_TIMEOUT : "Couldn't connect to server\r\n".getBytes());
+			} catch (IOException ex) {
+				Log.warn("HTTPClientStub: Unable to write response");
+			}
 		}
-		
-		
 	}
 	
 	/**
@@ -111,128 +208,358 @@ public class HTTPClientStub implements ClientInterface{
 	 * Called by: start()
 	 */
 	private void setupStreams() {
-		try {
-			out = new PrintWriter(connection.getOutputStream(), true);
-		} catch (IOException e) {
-			System.out.println("HTTPClientStub: Unable to setup output stream");
-		}
-		
-		try {
-			in = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-		} catch (IOException e) {
-			System.out.println("HTTPClientStub: Unable to setup input stream");
-		}
+		out = connection.getOutputStream();
+		in = connection.getInputStream();
 	}
 	
 	/**
-	 * Send the client request to the server
+	 * Send the client request to the server, asking it to keep the connection open.
 	 * Called by: start()
 	 */
 	private void sendRequest() {
-		httpRequest = "GET " + resource + " HTTP/1.1\r\n\r\n";
-		System.out.println(httpRequest);
-		out.println(httpRequest);
-		out.flush();
+		httpRequest = "GET " + resource + " HTTP/1.1\r\n"
+				+ "Host: " + remoteHost + (port == 80 ? "" : ":" + port) + "\r\n"
+				+ (ifNoneMatch == null ? "" : "If-None-Match: " + ifNoneMatch + "\r\n")
+				+ (ifModifiedSince == null ? "" : "If-Modified-Since: " + ifModifiedSince + "\r\n")
+				+ "Connection: keep-alive\r\n\r\n";
+		Log.debug(httpRequest);
+		try {
+			// nothing is sent once the deadline has passed
+			remaining();
+			out.write(httpRequest.getBytes());
+			out.flush();
+			sent = System.nanoTime();
+			metrics.begin(ProxyMetrics.UPSTREAM_FIRST_BYTE);
+		} catch (IOException e) {
+			Log.warn("HTTPClientStub: Unable to send request");
+		}
 	}
 	
 	/**
-	 * Read the server response.
-	 * Calls: readHeader()
+	 * Read the server response and relay it to the output as it arrives,
+	 * one pooled buffer at a time. The bytes are passed on untouched, and
+	 * only the bytes of this response are read so the connection is left
+	 * ready for the next request.
+	 * Calls:
+	 * 		awaitFirstByte()
+	 * 		readHeader()
+	 *		relayBody()
 	 * Called by: start()
 	 */
 	private void readResponse() {
-		String line;
-		response = new StringBuilder();
-		// read the header from the server
-		readHeader();
-		// depending on the response we read the body
-		if(code == 200) {
-			try {
-				while((line = in.readLine()) != null) {
-					// check for end of response
-					if(line.equals("0")) break;
-					response.append(line);
-					response.append("\n");
+		buffer = BufferPool.acquire();
+		try {
+			limit = 0;
+			awaitFirstByte();
+			readHeader();
+			// a pooled connection may have been closed by the server while it sat
+			// idle, in that case the request is sent once more on a new connection
+			if(head == null && connection.isReused()) {
+				closeConnection();
+				connect();
+				if(connection == null) return;
+				sendRequest();
+				limit = 0;
+				readHeader();
+			}
+			if(head == null) {
+				Log.warn("HTTPClientStub: Invalid response");
+				metrics.fail(ProxyMetrics.UPSTREAM_ERROR);
+				return;
+			}
+			metrics.begin(ProxyMetrics.TRANSFER);
+			// the cached response is still valid, the caller sends it
+			notModified = head.getCode() == 304 && (ifNoneMatch != null || ifModifiedSince != null);
+			// a body of unknown length is sent on in chunks as it arrives; an HTTP/1.0
+			// response cannot be chunked and is relayed as is up to the close
+			boolean rechunk = !notModified && !head.hasNoBody() && "HTTP/1.1".equals(head.getVersion())
+					&& (head.isChunked() || head.getContentLength() < 0);
+			relaying = !notModified;
+			if(rechunk && !head.isChunked()) {
+				writeChunkedHead();
+			} else if(!notModified) {
+				output.write(buffer, 0, head.getLength());
+			}
+			position = head.getLength();
+			relayBody(rechunk);
+			output.flush();
+			complete = true;
+		} catch (SocketTimeoutException e) {
+			reusable = false;
+			Log.warn("HTTPClientStub: Deadline exceeded reading response");
+			metrics.fail(ProxyMetrics.TIMEOUT);
+			if(!relaying) {
+				try {
+					output.write(GATEWAY_TIMEOUT);
+				} catch (IOException ex) {
+					Log.warn("HTTPClientStub: Unable to write response");
 				}
-				
-				in.close();
-				
-			} catch (IOException e) {
-				System.out.println("HTTPClientStub: Unable to read response");
 			}
+		} catch (IOException e) {
+			reusable = false;
+			Log.warn("HTTPClientStub: Unable to read response");
+		} finally {
+			metrics.end(ProxyMetrics.TRANSFER);
+			BufferPool.release(buffer);
+			buffer = null;
 		}
-		
-		// the page requested not found
-		if(code == 404) {
-			response.append("<html>\r\n")
-            		.append("<head><title>File Not Found</title>\r\n")
-            		.append("<head>\r\n")
-            		.append("<body>")
-            		.append("<h1>HTTP Error 404: File Not Found</h1>\r\n")
-            		.append("</body></html>\r\n");
+	}
+	
+	/*
+	 * Waits for the first bytes of the response and leaves them in the buffer.
+	 * Once a GET has waited past the hedging delay it is sent again on a
+	 * second connection, to another address of the host when it has one,
+	 * and the connection that answers first is read from, the other closed.
+	 * A connection that fails or ends is left to readHeader().
+	 */
+	private void awaitFirstByte() throws SocketTimeoutException {
+		try {
+			int timeout = remaining();
+			long delay = hedging.getDelayMillis();
+			int read;
+			if(delay > 0 && (timeout == 0 || delay < timeout)) {
+				connection.getSocket().setSoTimeout((int) delay);
+				try {
+					read = in.read(buffer, 0, buffer.length);
+				} catch (SocketTimeoutException e) {
+					read = hedge((int) delay);
+				}
+			} else {
+				read = read(buffer, 0, buffer.length);
+			}
+			if(read == -1) return;
+			limit = read;
+			hedging.record(System.nanoTime() - sent);
+			metrics.end(ProxyMetrics.UPSTREAM_FIRST_BYTE);
+		} catch (SocketTimeoutException e) {
+			throw e;
+		} catch (IOException e) {
+			limit = 0;
 		}
 	}
 	
 	/*
-	 * Reads the http response header from the remote server.
-	 * */
-	private void readHeader() {
-		String line;
+	 * Sends the request again on a second connection, then waits for either
+	 * connection to answer and reads from the first that does, which becomes
+	 * the connection of the stub. Closing the other one cancels its request.
+	 * If the budget is spent or the second connection cannot be made in the
+	 * hedging delay, the first connection is waited for alone.
+	 */
+	private int hedge(int delay) throws IOException {
+		if(!hedging.tryHedge()) {
+			return read(buffer, 0, buffer.length);
+		}
+		InetAddress alternate = DnsCache.getShared().getAlternate(remoteHost, address);
+		HttpConnectionPool.Connection second = null;
+		try {
+			int timeout = remaining();
+			second = pool.acquire(remoteHost, alternate, port, timeout == 0 ? delay : Math.min(delay, timeout));
+			second.requestSent();
+			second.getOutputStream().write(httpRequest.getBytes());
+			second.getOutputStream().flush();
+		} catch (IOException e) {
+			Log.debug("HTTPClientStub: Unable to send hedged request");
+			hedging.hedgeFailed();
+			if(second != null) pool.release(second, false);
+			return read(buffer, 0, buffer.length);
+		}
 		
+		boolean secondWon = false;
 		try {
-			// used to check the server response code
-			String firstLine = in.readLine();
-			response.append(firstLine);
-			response.append("\n");
-			// now we read the rest of the header
-			while((line = in.readLine()) != null) {
-				// check for end of response
-				if(line.equals("")) break;
-				response.append(line);
-				response.append("\n");
+			secondWon = race(connection.getChannel(), second.getChannel());
+		} finally {
+			if(secondWon) {
+				pool.release(connection, false);
+				connection = second;
+				address = alternate;
+				setupStreams();
+				hedging.hedgeWon();
+			} else {
+				pool.release(second, false);
+				hedging.hedgeLost();
 			}
-			
-			response.append("\n");
-			
-			// retrieve the response code now
-			String[] pieces = firstLine.split(" ");
-			try {
-				code = Integer.parseInt(pieces[1]);
-			} catch(NumberFormatException e) {
-				System.out.println("HTTPClientStub: Invalid reponse code");
+		}
+		return read(buffer, 0, buffer.length);
+	}
+	
+	/*
+	 * Waits, until the deadline, for one of two connections to have something
+	 * to read, and returns whether it is the second one. The first one wins a tie.
+	 */
+	private boolean race(SocketChannel first, SocketChannel second) throws IOException {
+		Selector selector = Selector.open();
+		try {
+			first.configureBlocking(false);
+			second.configureBlocking(false);
+			SelectionKey firstKey = first.register(selector, SelectionKey.OP_READ);
+			SelectionKey secondKey = second.register(selector, SelectionKey.OP_READ);
+			while(selector.select(remaining()) == 0) {
+				// woken up early, or the deadline is checked again
 			}
-			
-			// if the code is not a success we close the input stream
-			if(code == 404) {
-				in.close();
+			return secondKey.isReadable() && !firstKey.isReadable();
+		} finally {
+			// the keys must be gone before the channels can block again
+			selector.close();
+			first.configureBlocking(true);
+			second.configureBlocking(true);
+		}
+	}
+	
+	/*
+	 * Reads until the status line and headers are in the buffer and parses them,
+	 * starting from what awaitFirstByte() left there. The head is left null if
+	 * the connection ends or fails first.
+	 */
+	private void readHeader() throws SocketTimeoutException {
+		head = null;
+		position = 0;
+		try {
+			if(limit > 0) head = HttpResponseHead.parse(buffer, limit);
+			while(head == null && limit < buffer.length) {
+				int read = read(buffer, limit, buffer.length - limit);
+				if(read == -1) return;
+				if(limit == 0) metrics.end(ProxyMetrics.UPSTREAM_FIRST_BYTE);
+				limit += read;
+				head = HttpResponseHead.parse(buffer, limit);
 			}
-			
+		} catch (SocketTimeoutException e) {
+			throw e;
 		} catch (IOException e) {
-			System.out.println("HTTPClientStub: Unable to read response");
+			head = null;
 		}
 	}
 	
+	/*
+	 * Reads from the server, waiting no longer than the deadline allows.
+	 */
+	private int read(byte[] bytes, int offset, int length) throws IOException {
+		connection.getSocket().setSoTimeout(remaining());
+		return in.read(bytes, offset, length);
+	}
+	
+	/*
+	 * The time left before the deadline as a socket timeout, in milliseconds,
+	 * 0 when there is no deadline.
+	 */
+	private int remaining() throws SocketTimeoutException {
+		if(deadline == 0) return 0;
+		long left = deadline - System.nanoTime();
+		if(left <= 0) throw new SocketTimeoutException("Deadline exceeded");
+		return (int) Math.min(Math.max(TimeUnit.NANOSECONDS.toMillis(left), 1), Integer.MAX_VALUE);
+	}
+	
+	/*
+	 * Writes the head of a response that ends with the connection, saying the
+	 * body follows in chunks instead.
+	 */
+	private void writeChunkedHead() throws IOException {
+		int end = head.getLength();
+		// leave out the blank line ending the head
+		end -= buffer[end - 2] == '\r' ? 2 : 1;
+		output.write(buffer, 0, end);
+		output.write(CHUNKED_FIELD);
+	}
+	
+	/*
+	 * Relays the body, framed by Content-Length, chunked encoding or the
+	 * end of the connection, and decides whether the connection can be reused.
+	 * When rechunk is set the content is decoded as it is read and each block
+	 * read goes on as a chunk of its own, flushed at once, so the client gets
+	 * the first bytes as soon as the server sends them.
+	 */
+	private void relayBody(boolean rechunk) throws IOException {
+		BodyFramer framer = BodyFramer.forResponse(head);
+		ChunkedOutputStream chunks = rechunk ? new ChunkedOutputStream(output, buffer.length) : null;
+		while(true) {
+			int length;
+			if(chunks != null) {
+				length = framer.frame(buffer, position, limit - position, chunks);
+				chunks.flush();
+			} else {
+				length = framer.frame(buffer, position, limit - position);
+				output.write(buffer, position, length);
+			}
+			position += length;
+			if(framer.isComplete()) break;
+			// the whole buffer was body, read the next part
+			position = 0;
+			limit = read(buffer, 0, buffer.length);
+			if(limit == -1) {
+				limit = 0;
+				if(framer.isDelimitedByClose()) break;
+				throw new EOFException("Response ended early");
+			}
+		}
+		if(chunks != null) chunks.finish();
+		reusable = !framer.isDelimitedByClose() && head.isKeepAlive() && position == limit;
+	}
+	
 	/**
-	 * Close connection to the remote server.
+	 * Give the connection back to the pool if the response was read to its end
+	 * and the server keeps it open, otherwise close it.
 	 * Called by: start()
 	 */
 	private void closeConnection() {
 		if(connection != null) {
-			try {
-				connection.close();
-			} catch(IOException e) {
-				System.out.println("HTTPClientStub: Error");
-			}
+			pool.release(connection, reusable);
+			connection = null;
 		}
+		reusable = false;
 	}
 	
+	/**
+	 * Returns the connection pool shared by every stub, for its statistics.
+	 *
+	 * @return the pool
+	 */
+	public static HttpConnectionPool getPool() {
+		return pool;
+	}
+	
+	/**
+	 * Returns the status line and headers of the server response.
+	 *
+	 * @return the head, or null if no valid response was read
+	 */
+	public HttpResponseHead getResponseHead() {
+		return head;
+	}
+	
+	/**
+	 * Returns whether the whole response was read and relayed.
+	 *
+	 * @return true if complete
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+	
+	/**
+	 * Returns whether the server answered a conditional request with 304,
+	 * in which case nothing was relayed and the cached response is valid.
+	 *
+	 * @return true if not modified
+	 */
+	public boolean isNotModified() {
+		return notModified;
+	}
+	
+	/**
+	 * Returns the server response kept by start(), byte for byte.
+	 *
+	 * @return the response
+	 */
+	public byte[] getResponseBytes() {
+		return response == null ? new byte[0] : response.toByteArray();
+	}
+
 	/* 
 	 * Return the server response.
 	 * 
 	 * @return String
 	 */
 	public String getResponse() {
-		return response.toString();
+		return response == null ? "" : new String(response.toByteArray(), Charset.forName("ISO-8859-1"));
 	}
 
 	
@@ -0,0 +1,184 @@
+//package client;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+* title: HedgingPolicy.java
+* to compile: javac HedgingPolicy.java
+* description: Decides when the proxy sends a second copy of a GET that is slow to
+* 				be answered. The time every response from a remote server took to
+* 				its first byte is recorded, and a GET still waiting once it has
+* 				waited longer than the given percentile of them is hedged: it is
+* 				sent again to another address of the server, the first answer is
+* 				relayed and the other connection closed. The percentile is worked
+* 				out at most once a second from the last minute or so of responses,
+* 				and nothing is hedged before enough of them were seen. Each request
+* 				earns a share of a hedge, so hedges stay a bounded share of the
+* 				requests and a server that is slow for everyone is not sent twice
+* 				the load.
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+public class HedgingPolicy {
+
+	// how often the delay is worked out again, in nanoseconds
+	private static final long UPDATE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+	// how long the first byte times are kept before starting over, in nanoseconds
+	private static final long WINDOW = TimeUnit.MINUTES.toNanos(1);
+	// one hedge, in thousandths, and the most hedges saved up while nothing is slow
+	private static final long HEDGE = 1000;
+	private static final long MAX_SAVED = 10 * HEDGE;
+
+	// the policy shared by the proxy
+	private static final HedgingPolicy shared = new HedgingPolicy(
+			Double.parseDouble(System.getProperty("proxy.hedge.percentile", "95")),
+			Double.parseDouble(System.getProperty("proxy.hedge.budget", "0.1")),
+			Integer.getInteger("proxy.hedge.minSamples", 100));
+
+	private final double percentile;
+	private final int minSamples;
+	// the share of a hedge each request earns, in thousandths
+	private final long earned;
+	// the hedges that can be sent now, in thousandths
+	private final AtomicLong saved = new AtomicLong(MAX_SAVED);
+	// the first byte times of the current window, in microseconds
+	private final LatencyHistogram firstByte = new LatencyHistogram(TimeUnit.MINUTES.toMicros(10), 2);
+	// the wait before a hedge, in microseconds, -1 while nothing is hedged
+	private volatile long delay = -1;
+	private final AtomicLong nextUpdate = new AtomicLong(System.nanoTime());
+	private volatile long windowStart = System.nanoTime();
+
+	// statistics
+	private final LongAdder won = new LongAdder();
+	private final LongAdder lost = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder throttled = new LongAdder();
+
+	/**
+	 * Instantiates a new hedging policy.
+	 *
+	 * @param percentile the percentile of the first byte times past which a GET is hedged, 0 for never
+	 * @param budget the most hedges per request, e.g. 0.1 for one in ten
+	 * @param minSamples the responses seen before anything is hedged
+	 */
+	public HedgingPolicy(double percentile, double budget, int minSamples) {
+		this.percentile = percentile;
+		this.minSamples = Math.max(minSamples, 1);
+		this.earned = Math.round(budget * HEDGE);
+	}
+
+	/**
+	 * Returns the policy shared by the proxy, set with "-Dproxy.hedge.percentile"
+	 * (0 turns hedging off), "-Dproxy.hedge.budget" and "-Dproxy.hedge.minSamples".
+	 *
+	 * @return the policy
+	 */
+	public static HedgingPolicy getShared() {
+		return shared;
+	}
+
+	/**
+	 * Records how long a response took to its first byte, from the time the
+	 * request was sent. Each response earns its share of a hedge.
+	 *
+	 * @param nanos the time in nanoseconds
+	 */
+	public void record(long nanos) {
+		if(percentile <= 0) return;
+		firstByte.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+		saved.accumulateAndGet(earned, (left, share) -> Math.min(left + share, MAX_SAVED));
+	}
+
+	/**
+	 * Returns how long a GET waits for its first byte before it is hedged.
+	 *
+	 * @return the delay in milliseconds, at least 1, or -1 if nothing is hedged
+	 */
+	public long getDelayMillis() {
+		update();
+		long micros = delay;
+		return micros < 0 ? -1 : Math.max(TimeUnit.MICROSECONDS.toMillis(micros), 1);
+	}
+
+	/*
+	 * Works the delay out again once a second, on one thread, and starts a
+	 * new window once the current one is over. The last delay is kept until
+	 * the new window has seen enough responses.
+	 */
+	private void update() {
+		if(percentile <= 0) return;
+		long now = System.nanoTime();
+		long next = nextUpdate.get();
+		if(now - next < 0 || !nextUpdate.compareAndSet(next, now + UPDATE_INTERVAL)) return;
+		if(firstByte.getTotalCount() >= minSamples) {
+			delay = firstByte.getValueAtPercentile(percentile);
+		}
+		if(now - windowStart >= WINDOW) {
+			windowStart = now;
+			firstByte.reset();
+		}
+	}
+
+	/**
+	 * Spends a hedge, if the budget holds one.
+	 *
+	 * @return true if the GET may be hedged
+	 */
+	public boolean tryHedge() {
+		if(saved.getAndUpdate(left -> left >= HEDGE ? left - HEDGE : left) >= HEDGE) {
+			return true;
+		}
+		throttled.increment();
+		return false;
+	}
+
+	/**
+	 * Counts a hedge that was answered first.
+	 */
+	public void hedgeWon() {
+		won.increment();
+	}
+
+	/**
+	 * Counts a hedge that the first request beat.
+	 */
+	public void hedgeLost() {
+		lost.increment();
+	}
+
+	/**
+	 * Counts a hedge that could not be sent.
+	 */
+	public void hedgeFailed() {
+		failed.increment();
+	}
+
+	/**
+	 * Returns the current wait before a hedge, without working it out again.
+	 *
+	 * @return the delay in microseconds, or -1 if nothing is hedged
+	 */
+	public long getDelayMicros() {
+		return delay;
+	}
+
+	public long getWon() {
+		return won.sum();
+	}
+
+	public long getLost() {
+		return lost.sum();
+	}
+
+	public long getFailed() {
+		return failed.sum();
+	}
+
+	public long getThrottled() {
+		return throttled.sum();
+	}
+}
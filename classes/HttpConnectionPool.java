@@ -0,0 +1,452 @@
+//package client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+* title: HttpConnectionPool.java
+* to compile: javac HttpConnectionPool.java
+* description: Keeps persistent HTTP/1.1 connections to remote servers so repeated
+* 				requests to the same host:port reuse the socket instead of paying for
+* 				a new TCP handshake. Connections are kept apart by the address they
+* 				go to, so a request can be sent to one replica of a host rather than
+* 				another. The number of connections to each address is bounded,
+* 				connections idle for too long are closed by a background sweeper,
+* 				and every connection is checked before it is handed out again.
+* 				The sweeper also drops the addresses left with no connections, so
+* 				the pool does not grow with every host clients ask for.
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+public class HttpConnectionPool {
+
+	// the most connections, in use and idle, kept to a single host address
+	private final int maxPerHost;
+	// how long a connection may sit idle before it is closed, in milliseconds
+	private final long idleTimeout;
+	// how long to wait for a connection when the host is at its limit, in milliseconds
+	private final long waitTimeout;
+	// the connections of each host address, keyed by host/address:port
+	private final Map<String, HostPool> hosts = new ConcurrentHashMap<>();
+	// closes connections that have been idle too long
+	private final ScheduledExecutorService sweeper;
+
+	// pool statistics
+	private final AtomicLong created = new AtomicLong();
+	private final AtomicLong reused = new AtomicLong();
+	private final AtomicLong evicted = new AtomicLong();
+	private final AtomicLong failedChecks = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+
+	/**
+	 * Instantiates a new connection pool.
+	 *
+	 * @param maxPerHost the most connections kept to a single host address
+	 * @param idleTimeout how long a connection may stay idle, in milliseconds
+	 * @param waitTimeout how long to wait for a free connection, in milliseconds
+	 */
+	public HttpConnectionPool(int maxPerHost, long idleTimeout, long waitTimeout) {
+		this.maxPerHost = maxPerHost;
+		this.idleTimeout = idleTimeout;
+		this.waitTimeout = waitTimeout;
+		this.sweeper = Executors.newSingleThreadScheduledExecutor(task -> {
+			Thread thread = new Thread(task, "http-pool-sweeper");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long period = Math.max(idleTimeout / 2, 1);
+		sweeper.scheduleAtFixedRate(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Hands out a connection to host:port, an idle one if a healthy one is
+	 * available, otherwise a new one as long as the host is under its limit.
+	 *
+	 * @param host the host name, used as part of the key
+	 * @param address the resolved host address
+	 * @param port the port
+	 * @return the connection
+	 * @throws IOException if the connection could not be made or none became free in time
+	 */
+	public Connection acquire(String host, InetAddress address, int port) throws IOException {
+		return acquire(host, address, port, 0);
+	}
+
+	/**
+	 * Hands out a connection to host:port as acquire() does, giving up once
+	 * the timeout has passed, whether waiting for room or connecting.
+	 *
+	 * @param host the host name, used as part of the key
+	 * @param address the resolved host address
+	 * @param port the port
+	 * @param timeout the longest wait in milliseconds, 0 for the pool wait and the system connect timeout
+	 * @return the connection
+	 * @throws IOException if the connection could not be made or none became free in time
+	 */
+	public Connection acquire(String host, InetAddress address, int port, int timeout) throws IOException {
+		String key = host + "/" + address.getHostAddress() + ":" + port;
+		// the pool is not dropped by the sweeper while a caller is taking from it
+		HostPool pool = hosts.compute(key, (k, existing) -> {
+			HostPool entered = existing == null ? new HostPool() : existing;
+			entered.callers.incrementAndGet();
+			return entered;
+		});
+		Connection connection;
+		try {
+			connection = pool.take(timeout == 0 ? waitTimeout : Math.min(timeout, waitTimeout));
+		} finally {
+			pool.callers.decrementAndGet();
+		}
+		if(connection != null) {
+			reused.incrementAndGet();
+			return connection;
+		}
+		SocketChannel channel = null;
+		try {
+			channel = SocketChannel.open();
+			channel.socket().connect(new InetSocketAddress(address, port), timeout);
+			connection = new Connection(pool, channel);
+			created.incrementAndGet();
+			return connection;
+		} catch(IOException e) {
+			pool.discarded();
+			if(channel != null) {
+				try {
+					channel.close();
+				} catch(IOException ex) {
+					e.addSuppressed(ex);
+				}
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns a connection to the pool. Only connections whose last response
+	 * was read completely and that the server agreed to keep open may be reused.
+	 *
+	 * @param connection the connection
+	 * @param reusable whether the connection can carry another request
+	 */
+	public void release(Connection connection, boolean reusable) {
+		if(reusable && connection.channel.isOpen()) {
+			connection.lastUsed = System.currentTimeMillis();
+			connection.pool.give(connection);
+		} else {
+			connection.close();
+			connection.pool.discarded();
+		}
+	}
+
+	/*
+	 * Closes every idle connection that has not been used for idleTimeout,
+	 * then drops the host pools left with no connection and no caller.
+	 */
+	private void evictIdle() {
+		long now = System.currentTimeMillis();
+		for(Map.Entry<String, HostPool> entry : hosts.entrySet()) {
+			evicted.addAndGet(entry.getValue().evictOlderThan(now - idleTimeout));
+			hosts.computeIfPresent(entry.getKey(), (key, pool) -> pool.isUnused() ? null : pool);
+		}
+	}
+
+	/**
+	 * Returns the number of host addresses the pool keeps connections for.
+	 *
+	 * @return the count
+	 */
+	public int getHostCount() {
+		return hosts.size();
+	}
+
+	/**
+	 * Returns the number of connections open, in use or idle.
+	 *
+	 * @return the count
+	 */
+	public int getOpen() {
+		int open = 0;
+		for(HostPool pool : hosts.values()) {
+			pool.lock.lock();
+			try {
+				open += pool.open;
+			} finally {
+				pool.lock.unlock();
+			}
+		}
+		return open;
+	}
+
+	/**
+	 * Returns the number of idle connections.
+	 *
+	 * @return the count
+	 */
+	public int getIdle() {
+		int idle = 0;
+		for(HostPool pool : hosts.values()) {
+			pool.lock.lock();
+			try {
+				idle += pool.idle.size();
+			} finally {
+				pool.lock.unlock();
+			}
+		}
+		return idle;
+	}
+
+	public long getCreated() {
+		return created.get();
+	}
+
+	public long getReused() {
+		return reused.get();
+	}
+
+	public long getEvicted() {
+		return evicted.get();
+	}
+
+	public long getFailedChecks() {
+		return failedChecks.get();
+	}
+
+	/**
+	 * Returns the number of times no connection became free in time.
+	 *
+	 * @return the count
+	 */
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+
+	/*
+	 * The connections to one host:port.
+	 */
+	private class HostPool {
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition available = lock.newCondition();
+		// idle connections, the most recently used first
+		private final ArrayDeque<Connection> idle = new ArrayDeque<>();
+		// connections open to the host, in use or idle
+		private int open;
+		// the callers of acquire() between finding this pool and taking from it
+		private final AtomicInteger callers = new AtomicInteger();
+
+		/**
+		 * Takes a healthy idle connection, or reserves room for a new one.
+		 *
+		 * @param wait how long to wait for room, in milliseconds
+		 * @return an idle connection, or null if a new one must be opened
+		 * @throws IOException if the host stays at its limit for the wait
+		 */
+		Connection take(long wait) throws IOException {
+			long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(wait);
+			lock.lock();
+			try {
+				while(true) {
+					Connection connection;
+					while((connection = idle.pollFirst()) != null) {
+						if(connection.isHealthy(idleTimeout)) {
+							return connection;
+						}
+						failedChecks.incrementAndGet();
+						connection.close();
+						open--;
+					}
+					if(open < maxPerHost) {
+						open++;
+						return null;
+					}
+					long remaining = deadline - System.nanoTime();
+					if(remaining <= 0) {
+						timeouts.incrementAndGet();
+						throw new SocketTimeoutException("No connection available to host");
+					}
+					available.awaitNanos(remaining);
+				}
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted waiting for a connection");
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Puts a connection back as idle.
+		 *
+		 * @param connection the connection
+		 */
+		void give(Connection connection) {
+			lock.lock();
+			try {
+				idle.addFirst(connection);
+				available.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Frees the room a closed connection held.
+		 */
+		void discarded() {
+			lock.lock();
+			try {
+				open--;
+				available.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Returns whether the pool holds no connection and no caller is taking
+		 * from it, so it can be dropped.
+		 *
+		 * @return true if unused
+		 */
+		boolean isUnused() {
+			lock.lock();
+			try {
+				return open == 0 && callers.get() == 0;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Closes the idle connections last used before the given time.
+		 *
+		 * @param time the time in milliseconds
+		 * @return the number of connections closed
+		 */
+		int evictOlderThan(long time) {
+			int count = 0;
+			lock.lock();
+			try {
+				Iterator<Connection> connections = idle.iterator();
+				while(connections.hasNext()) {
+					Connection connection = connections.next();
+					if(connection.lastUsed < time) {
+						connections.remove();
+						connection.close();
+						open--;
+						count++;
+					}
+				}
+				if(count > 0) available.signal();
+			} finally {
+				lock.unlock();
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * A connection to a remote server that goes back to the pool once a
+	 * response has been read from it.
+	 */
+	public static class Connection {
+		private final HostPool pool;
+		private final SocketChannel channel;
+		private final Socket socket;
+		private final InputStream in;
+		private final OutputStream out;
+		// the last time the connection was given back, in milliseconds
+		private long lastUsed;
+		// the number of requests sent over this connection
+		private int requests;
+
+		private Connection(HostPool pool, SocketChannel channel) throws IOException {
+			this.pool = pool;
+			this.channel = channel;
+			this.socket = channel.socket();
+			this.in = socket.getInputStream();
+			this.out = socket.getOutputStream();
+		}
+
+		/**
+		 * Checks that the connection is still open and has nothing unread on it.
+		 * A non-blocking read returns 0 on a healthy connection, -1 if the server
+		 * closed it and data if the server sent something nobody asked for.
+		 *
+		 * @param idleTimeout the longest a connection may stay idle
+		 * @return true if the connection can be reused
+		 */
+		private boolean isHealthy(long idleTimeout) {
+			if(!channel.isOpen() || System.currentTimeMillis() - lastUsed >= idleTimeout) {
+				return false;
+			}
+			try {
+				channel.configureBlocking(false);
+				int read = channel.read(ByteBuffer.allocate(1));
+				channel.configureBlocking(true);
+				return read == 0;
+			} catch(IOException e) {
+				return false;
+			}
+		}
+
+		/**
+		 * Counts a request sent over the connection.
+		 */
+		public void requestSent() {
+			requests++;
+		}
+
+		/**
+		 * Returns whether the connection carried an earlier request.
+		 *
+		 * @return true if the connection came from the pool
+		 */
+		public boolean isReused() {
+			return requests > 1;
+		}
+
+		public Socket getSocket() {
+			return socket;
+		}
+
+		public SocketChannel getChannel() {
+			return channel;
+		}
+
+		public InputStream getInputStream() {
+			return in;
+		}
+
+		public OutputStream getOutputStream() {
+			return out;
+		}
+
+		private void close() {
+			try {
+				channel.close();
+			} catch(IOException e) {
+				Log.warn("HttpConnectionPool: Error closing connection");
+			}
+		}
+	}
+}
@@ -0,0 +1,189 @@
+//package client;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+* title: HttpResponseHead.java
+* to compile: javac HttpResponseHead.java
+* description: The status line and headers of an HTTP response, parsed straight from
+* 				the bytes read off the socket. It tells the client stub how the body
+* 				is framed and whether the connection can carry another request.
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+public class HttpResponseHead {
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	// the protocol version, e.g. HTTP/1.1
+	private String version;
+	// the response code
+	private int code;
+	// the headers, names are lower case
+	private final Map<String, String> headers = new HashMap<>();
+	// the length of the status line and headers, blank line included
+	private int length;
+
+	private HttpResponseHead() {
+	}
+
+	/**
+	 * Parses the head of a response from the start of a buffer.
+	 *
+	 * @param buffer the bytes read so far
+	 * @param limit the number of bytes in the buffer
+	 * @return the head, or null if the blank line ending it has not been read yet
+	 */
+	public static HttpResponseHead parse(byte[] buffer, int limit) {
+		int end = indexOfEnd(buffer, limit);
+		if(end == -1) return null;
+
+		HttpResponseHead head = new HttpResponseHead();
+		head.length = end;
+		int start = 0;
+		boolean first = true;
+		while(start < end) {
+			int lineEnd = start;
+			while(lineEnd < end && buffer[lineEnd] != '\n') lineEnd++;
+			int stop = lineEnd > start && buffer[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+			if(stop > start) {
+				if(first) {
+					head.parseStatusLine(new String(buffer, start, stop - start, ASCII));
+					first = false;
+				} else {
+					head.parseHeader(buffer, start, stop);
+				}
+			}
+			start = lineEnd + 1;
+		}
+		return head;
+	}
+
+	/*
+	 * Finds the end of the blank line that ends the head.
+	 */
+	private static int indexOfEnd(byte[] buffer, int limit) {
+		for(int i = 0; i < limit; i++) {
+			if(buffer[i] != '\n') continue;
+			if(i + 1 < limit && buffer[i + 1] == '\n') return i + 2;
+			if(i + 2 < limit && buffer[i + 1] == '\r' && buffer[i + 2] == '\n') return i + 3;
+		}
+		return -1;
+	}
+
+	private void parseStatusLine(String line) {
+		String[] pieces = line.split(" ");
+		version = pieces[0];
+		try {
+			code = Integer.parseInt(pieces[1]);
+		} catch(NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			code = -1;
+		}
+	}
+
+	private void parseHeader(byte[] buffer, int start, int stop) {
+		int colon = start;
+		while(colon < stop && buffer[colon] != ':') colon++;
+		if(colon == stop) return;
+		String name = new String(buffer, start, colon - start, ASCII).trim().toLowerCase();
+		String value = new String(buffer, colon + 1, stop - colon - 1, ASCII).trim();
+		headers.put(name, value);
+	}
+
+	public String getVersion() {
+		return version;
+	}
+
+	public int getCode() {
+		return code;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns a copy of this head with the headers of a 304 response to a
+	 * revalidation laid over it, except those describing the body.
+	 *
+	 * @param notModified the 304 response
+	 * @return the updated head
+	 */
+	public HttpResponseHead updatedWith(HttpResponseHead notModified) {
+		HttpResponseHead updated = new HttpResponseHead();
+		updated.version = version;
+		updated.code = code;
+		updated.length = length;
+		updated.headers.putAll(headers);
+		for(Map.Entry<String, String> header : notModified.headers.entrySet()) {
+			String name = header.getKey();
+			if(name.equals("content-length") || name.equals("transfer-encoding") || name.equals("connection")) continue;
+			updated.headers.put(name, header.getValue());
+		}
+		return updated;
+	}
+
+	/**
+	 * Returns the value of a header.
+	 *
+	 * @param name the header name, lower case
+	 * @return the value, or null if the header is absent
+	 */
+	public String getHeader(String name) {
+		return headers.get(name);
+	}
+
+	/**
+	 * Returns the body length given by Content-Length.
+	 *
+	 * @return the length, or -1 if absent or invalid
+	 */
+	public long getContentLength() {
+		String value = headers.get("content-length");
+		if(value == null) return -1;
+		try {
+			return Long.parseLong(value);
+		} catch(NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns whether the body is sent with chunked transfer encoding.
+	 *
+	 * @return true if chunked
+	 */
+	public boolean isChunked() {
+		String value = headers.get("transfer-encoding");
+		return value != null && value.toLowerCase().contains("chunked");
+	}
+
+	/**
+	 * Returns whether the response carries no body whatever its headers say.
+	 *
+	 * @return true for 1xx, 204 and 304 responses
+	 */
+	public boolean hasNoBody() {
+		return (code >= 100 && code < 200) || code == 204 || code == 304;
+	}
+
+	/**
+	 * Returns whether the server will keep the connection open after this response.
+	 * HTTP/1.1 connections stay open unless the server says close, HTTP/1.0 ones
+	 * only if the server says keep-alive.
+	 *
+	 * @return true if the connection can be reused
+	 */
+	public boolean isKeepAlive() {
+		String connection = headers.get("connection");
+		if(connection != null) connection = connection.toLowerCase();
+		if("HTTP/1.1".equals(version)) {
+			return connection == null || !connection.contains("close");
+		}
+		return connection != null && connection.contains("keep-alive");
+	}
+}
@@ -0,0 +1,318 @@
+//package client;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+* title: LatencyHistogram.java
+* to compile: javac LatencyHistogram.java
+* description: A histogram of latencies with the layout of an HDR histogram: values are
+* 				counted in buckets whose width grows with the value, so every value
+* 				up to the highest tracked one is kept to the given number of significant
+* 				digits in a fixed, small array. Recording is a few shifts and one atomic
+* 				increment, without locks, so any number of threads can record into the
+* 				same histogram. Percentiles are read from a snapshot of the counts.
+* 				Coordinated omission, the requests a stalled closed loop never sent,
+* 				is corrected by recording the requests that would have been waiting
+* 				behind a slow one, given the expected interval between requests.
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+public class LatencyHistogram {
+
+	private final long highestTrackableValue;
+	private final int significantDigits;
+	private final int subBucketHalfCountMagnitude;
+	private final int subBucketHalfCount;
+	private final long subBucketMask;
+	private final int leadingZeroCountBase;
+	private final AtomicLongArray counts;
+
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+
+	/**
+	 * Instantiates a new histogram of values from 0 to highestTrackableValue.
+	 * Larger values are counted as highestTrackableValue.
+	 *
+	 * @param highestTrackableValue the highest value kept exactly, at least 2
+	 * @param significantDigits the significant decimal digits kept, 1 to 5
+	 */
+	public LatencyHistogram(long highestTrackableValue, int significantDigits) {
+		if(highestTrackableValue < 2) throw new IllegalArgumentException("highestTrackableValue < 2");
+		if(significantDigits < 1 || significantDigits > 5) throw new IllegalArgumentException("significantDigits");
+		this.highestTrackableValue = highestTrackableValue;
+		this.significantDigits = significantDigits;
+		// enough sub buckets to tell apart values one unit in the last digit apart
+		long largestSingleUnitResolution = 2 * (long) Math.pow(10, significantDigits);
+		int subBucketCountMagnitude = (int) Math.ceil(Math.log(largestSingleUnitResolution) / Math.log(2));
+		subBucketHalfCountMagnitude = Math.max(subBucketCountMagnitude, 1) - 1;
+		int subBucketCount = 1 << (subBucketHalfCountMagnitude + 1);
+		subBucketHalfCount = subBucketCount / 2;
+		subBucketMask = subBucketCount - 1;
+		leadingZeroCountBase = 64 - subBucketHalfCountMagnitude - 1;
+
+		// each bucket covers twice the range of the one before
+		long smallestUntrackableValue = subBucketCount;
+		int bucketCount = 1;
+		while(smallestUntrackableValue <= highestTrackableValue) {
+			if(smallestUntrackableValue > Long.MAX_VALUE / 2) {
+				bucketCount++;
+				break;
+			}
+			smallestUntrackableValue <<= 1;
+			bucketCount++;
+		}
+		counts = new AtomicLongArray((bucketCount + 1) * subBucketHalfCount);
+	}
+
+	/**
+	 * Records a value.
+	 *
+	 * @param value the value, negative values count as 0
+	 */
+	public void record(long value) {
+		recordCount(value, 1);
+	}
+
+	/**
+	 * Records a value taken by a closed loop that sends its next request only
+	 * once this one is answered, adding the values the requests that should
+	 * have been sent meanwhile would have seen: value - interval, value - 2 *
+	 * interval, and so on while they are above the interval.
+	 *
+	 * @param value the value
+	 * @param expectedInterval the expected interval between requests, 0 for none
+	 */
+	public void recordCorrected(long value, long expectedInterval) {
+		record(value);
+		if(expectedInterval <= 0) return;
+		for(long missing = value - expectedInterval; missing >= expectedInterval; missing -= expectedInterval) {
+			record(missing);
+		}
+	}
+
+	private void recordCount(long value, long count) {
+		if(value < 0) value = 0;
+		if(value > highestTrackableValue) value = highestTrackableValue;
+		counts.addAndGet(countsIndex(value), count);
+		totalCount.addAndGet(count);
+		total.addAndGet(value * count);
+		max.accumulateAndGet(value, Math::max);
+		min.accumulateAndGet(value, Math::min);
+	}
+
+	private int bucketIndex(long value) {
+		return leadingZeroCountBase - Long.numberOfLeadingZeros(value | subBucketMask);
+	}
+
+	private int countsIndex(long value) {
+		int bucketIndex = bucketIndex(value);
+		int subBucketIndex = (int) (value >>> bucketIndex);
+		return ((bucketIndex + 1) << subBucketHalfCountMagnitude) + (subBucketIndex - subBucketHalfCount);
+	}
+
+	/*
+	 * The lowest value counted at an index of the counts.
+	 */
+	private long valueFromIndex(int index) {
+		int bucketIndex = (index >> subBucketHalfCountMagnitude) - 1;
+		int subBucketIndex = (index & (subBucketHalfCount - 1)) + subBucketHalfCount;
+		if(bucketIndex < 0) {
+			subBucketIndex -= subBucketHalfCount;
+			bucketIndex = 0;
+		}
+		return (long) subBucketIndex << bucketIndex;
+	}
+
+	/*
+	 * The highest value counted at the same index as the given value.
+	 */
+	private long highestEquivalentValue(long value) {
+		int bucketIndex = bucketIndex(value);
+		int subBucketIndex = (int) (value >>> bucketIndex);
+		long lowest = (long) subBucketIndex << bucketIndex;
+		return lowest + (1L << bucketIndex) - 1;
+	}
+
+	/**
+	 * Adds the counts of another histogram of the same layout to this one.
+	 *
+	 * @param other the histogram
+	 */
+	public void add(LatencyHistogram other) {
+		if(other.counts.length() != counts.length() || other.subBucketHalfCount != subBucketHalfCount) {
+			throw new IllegalArgumentException("Histograms of different layouts");
+		}
+		for(int i = 0; i < counts.length(); i++) {
+			long count = other.counts.get(i);
+			if(count != 0) counts.addAndGet(i, count);
+		}
+		totalCount.addAndGet(other.totalCount.get());
+		total.addAndGet(other.total.get());
+		max.accumulateAndGet(other.max.get(), Math::max);
+		min.accumulateAndGet(other.min.get(), Math::min);
+	}
+
+	/**
+	 * Returns an empty histogram with the same layout.
+	 *
+	 * @return the histogram
+	 */
+	public LatencyHistogram newEmpty() {
+		return new LatencyHistogram(highestTrackableValue, significantDigits);
+	}
+
+	/**
+	 * Returns a copy of this histogram, corrected for coordinated omission after
+	 * the fact: every value is recorded as by recordCorrected().
+	 *
+	 * @param expectedInterval the expected interval between requests
+	 * @return the corrected copy
+	 */
+	public LatencyHistogram copyCorrected(long expectedInterval) {
+		LatencyHistogram copy = newEmpty();
+		for(int i = 0; i < counts.length(); i++) {
+			long count = counts.get(i);
+			if(count == 0) continue;
+			long value = valueFromIndex(i);
+			copy.recordCount(value, count);
+			if(expectedInterval <= 0) continue;
+			for(long missing = value - expectedInterval; missing >= expectedInterval; missing -= expectedInterval) {
+				copy.recordCount(missing, count);
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * Returns the value below or at which the given percentage of the values fall,
+	 * as the highest value of its bucket.
+	 *
+	 * @param percentile the percentile, 0 to 100
+	 * @return the value, 0 when empty
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = totalCount.get();
+		if(count == 0) return 0;
+		long rank = Math.max((long) Math.ceil(Math.min(percentile, 100) / 100 * count), 1);
+		long seen = 0;
+		for(int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if(seen >= rank) return Math.min(highestEquivalentValue(valueFromIndex(i)), getMax());
+		}
+		return getMax();
+	}
+
+	public long getTotalCount() {
+		return totalCount.get();
+	}
+
+	public long getMax() {
+		return totalCount.get() == 0 ? 0 : max.get();
+	}
+
+	public long getMin() {
+		return totalCount.get() == 0 ? 0 : min.get();
+	}
+
+	public long getSum() {
+		return total.get();
+	}
+
+	public double getMean() {
+		long count = totalCount.get();
+		return count == 0 ? 0 : (double) total.get() / count;
+	}
+
+	/**
+	 * Empties the histogram. Values recorded meanwhile may be lost.
+	 */
+	public void reset() {
+		for(int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+		totalCount.set(0);
+		total.set(0);
+		max.set(0);
+		min.set(Long.MAX_VALUE);
+	}
+
+	/**
+	 * Prints the percentile distribution in the text format of HdrHistogram
+	 * (.hgrm), which its plotter reads: value, percentile, total count and
+	 * 1/(1-percentile), at ticks halving the distance to 100%.
+	 *
+	 * @param out where it is printed
+	 * @param scale the values are divided by it, e.g. 1000 to print microseconds as milliseconds
+	 */
+	public void printPercentileDistribution(PrintStream out, double scale) {
+		out.println(String.format(Locale.US, "%12s %14s %10s %14s", "Value", "Percentile", "TotalCount", "1/(1-Percentile)"));
+		out.println();
+		long count = totalCount.get();
+		if(count > 0) {
+			double percentile = 0;
+			int ticksPerHalfDistance = 5;
+			while(true) {
+				long value = getValueAtPercentile(percentile);
+				long countAtValue = getCountAtOrBelow(value);
+				if(percentile >= 100 || countAtValue == count) {
+					out.println(String.format(Locale.US, "%12.3f %2.12f %10d", value / scale, 1.0, count));
+					break;
+				}
+				out.println(String.format(Locale.US, "%12.3f %2.12f %10d %14.2f",
+						value / scale, percentile / 100, countAtValue, 1 / (1 - percentile / 100)));
+				// the step halves each time the distance to 100% halves
+				double halfDistance = Math.pow(2, Math.floor(Math.log(100 / (100 - percentile)) / Math.log(2)) + 1);
+				percentile += 100 / (halfDistance * ticksPerHalfDistance);
+			}
+		}
+		out.println(String.format(Locale.US, "#[Mean    = %12.3f, StdDeviation   = %12.3f]", getMean() / scale, getStdDeviation() / scale));
+		out.println(String.format(Locale.US, "#[Max     = %12.3f, Total count    = %12d]", getMax() / scale, count));
+		out.println(String.format(Locale.US, "#[Buckets = %12d, SubBuckets     = %12d]",
+				counts.length() / subBucketHalfCount - 1, subBucketHalfCount * 2));
+	}
+
+	/**
+	 * Returns the number of values at or below the given one. The values
+	 * counted in the same bucket as it are all included, so the count may
+	 * take in values up to one bucket width above it.
+	 *
+	 * @param value the value
+	 * @return the count
+	 */
+	public long getCountAtOrBelow(long value) {
+		if(value < 0) return 0;
+		long seen = 0;
+		int last = countsIndex(Math.min(value, highestTrackableValue));
+		for(int i = 0; i <= last; i++) {
+			seen += counts.get(i);
+		}
+		return seen;
+	}
+
+	/**
+	 * Returns the standard deviation, from the bucket values.
+	 *
+	 * @return the standard deviation
+	 */
+	public double getStdDeviation() {
+		long count = totalCount.get();
+		if(count == 0) return 0;
+		double mean = getMean();
+		double sum = 0;
+		for(int i = 0; i < counts.length(); i++) {
+			long bucket = counts.get(i);
+			if(bucket == 0) continue;
+			double deviation = valueFromIndex(i) - mean;
+			sum += deviation * deviation * bucket;
+		}
+		return Math.sqrt(sum / count);
+	}
+}
@@ -0,0 +1,520 @@
+//package client;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+* title: LoadGenerator.java
+* implements: ClientInterface
+* to compile: javac LoadGenerator.java
+* to run: java Client -load [options]
+* description: Drives load at the proxy the way Client talks to it: a connection per
+* 				request, carrying the URL, read until the proxy closes it. Many
+* 				connections run at once, each on its own virtual thread, for a warm up
+* 				and then a measured period. In a closed loop each connection sends its
+* 				next request once the last one is answered; in an open loop requests
+* 				are due at a fixed rate, whether or not earlier ones are answered, and
+* 				their latency counts from the time they were due, so a stall shows
+* 				in every request it delayed. The closed loop latencies are corrected
+* 				for the requests a stall kept from being sent. The URLs are picked at
+* 				random, by weight, from a file. The percentiles are printed, and
+* 				written as JSON and as an HdrHistogram percentile distribution.
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+public class LoadGenerator implements ClientInterface {
+
+	// latencies are kept in microseconds, to three significant digits, up to 10 minutes
+	private static final long HIGHEST_LATENCY = TimeUnit.MINUTES.toMicros(10);
+	private static final int SIGNIFICANT_DIGITS = 3;
+	private static final double[] PERCENTILES = {50, 75, 90, 99, 99.9, 99.99};
+	// ends every response of the proxy
+	private static final byte[] DONE = "\r\ndone\r\n".getBytes(StandardCharsets.US_ASCII);
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	// the outcomes of a request
+	private static final int OK = 0;
+	private static final int HTTP_ERROR = 1;
+	private static final int INCOMPLETE = 2;
+	private static final int CONNECT_ERROR = 3;
+	private static final int IO_ERROR = 4;
+	private static final int TIMEOUT = 5;
+	private static final String[] OUTCOMES = {"ok", "httpError", "incomplete", "connectError", "ioError", "timeout"};
+
+	private String proxyHost = "localhost";
+	private int proxyPort = 8000;
+	private String urlFile;
+	private final List<String> urls = new ArrayList<>();
+	private int connections = 16;
+	private long durationSeconds = 30;
+	private long warmupSeconds = 5;
+	// requests per second over all connections, 0 for a closed loop
+	private double rate;
+	private long thinkMillis;
+	// the expected interval of the closed loop correction, -1 for the mean latency
+	private long expectedIntervalMicros = -1;
+	private int timeoutMillis = 30000;
+	private String jsonFile;
+	private String hgrmFile;
+
+	private InetSocketAddress proxyAddress;
+	private byte[][] requests;
+	private String[] requestURLs;
+	private double[] cumulativeWeights;
+
+	// from the time a request was due, or was sent in a closed loop
+	private final LatencyHistogram latency = new LatencyHistogram(HIGHEST_LATENCY, SIGNIFICANT_DIGITS);
+	// from the time a request was sent
+	private final LatencyHistogram serviceTime = latency.newEmpty();
+	private final LongAdder[] outcomes = new LongAdder[OUTCOMES.length];
+	private final LongAdder bytesReceived = new LongAdder();
+
+	/**
+	 * Instantiates a new load generator from the options following -load.
+	 *
+	 * @param args the options
+	 * @throws IllegalArgumentException if an option is unknown or its value is wrong
+	 */
+	public LoadGenerator(String[] args) {
+		for(int i = 0; i < args.length; i++) {
+			String option = args[i];
+			if(i + 1 == args.length) throw new IllegalArgumentException("No value for " + option);
+			String value = args[++i];
+			switch(option) {
+				case "-proxy":
+					int colon = value.lastIndexOf(':');
+					if(colon == -1) {
+						proxyHost = value;
+					} else {
+						proxyHost = value.substring(0, colon);
+						proxyPort = Integer.parseInt(value.substring(colon + 1));
+					}
+					break;
+				case "-url": urls.add(value); break;
+				case "-urls": urlFile = value; break;
+				case "-c": connections = Integer.parseInt(value); break;
+				case "-d": durationSeconds = Long.parseLong(value); break;
+				case "-w": warmupSeconds = Long.parseLong(value); break;
+				case "-rate": rate = Double.parseDouble(value); break;
+				case "-think": thinkMillis = Long.parseLong(value); break;
+				case "-interval": expectedIntervalMicros = Long.parseLong(value) * 1000; break;
+				case "-timeout": timeoutMillis = Integer.parseInt(value); break;
+				case "-json": jsonFile = value; break;
+				case "-hgrm": hgrmFile = value; break;
+				default: throw new IllegalArgumentException("Unknown option " + option);
+			}
+		}
+		if(urls.isEmpty() && urlFile == null) throw new IllegalArgumentException("No -url or -urls");
+		if(connections < 1 || durationSeconds < 1 || warmupSeconds < 0 || rate < 0) {
+			throw new IllegalArgumentException("Wrong -c, -d, -w or -rate");
+		}
+		for(int i = 0; i < outcomes.length; i++) {
+			outcomes[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Reads the URLs, runs the warm up and the measured period, and prints
+	 * the results.
+	 * Calls:
+	 * 		readURLs()
+	 * 		run()
+	 * 		printResults()
+	 */
+	public void start() {
+		try {
+			readURLs();
+		} catch(IOException e) {
+			System.out.println("LoadGenerator: Couldn't read " + urlFile + ": " + e.getMessage());
+			return;
+		}
+		proxyAddress = new InetSocketAddress(proxyHost, proxyPort);
+		if(proxyAddress.isUnresolved()) {
+			System.out.println("LoadGenerator: Unknown proxy host " + proxyHost);
+			return;
+		}
+		System.out.println("LoadGenerator: " + (rate > 0 ? "open loop at " + rate + " requests/s" : "closed loop")
+				+ ", " + connections + " connections, " + requests.length + " URLs, "
+				+ warmupSeconds + "s warm up, " + durationSeconds + "s measured, proxy " + proxyAddress);
+		long measuredNanos = run();
+		printResults(measuredNanos);
+	}
+
+	/**
+	 * Reads the URLs of the file, one a line, each as "[weight] url [user pass]"
+	 * like the arguments of Client; a URL without a weight weighs 1. Empty lines
+	 * and lines starting with # are skipped. The URLs given by -url weigh 1.
+	 * Called by: start()
+	 */
+	private void readURLs() throws IOException {
+		List<String> lines = new ArrayList<>();
+		List<Double> weights = new ArrayList<>();
+		for(String url : urls) {
+			lines.add(url);
+			weights.add(1.0);
+		}
+		if(urlFile != null) {
+			try(BufferedReader reader = new BufferedReader(
+					new InputStreamReader(new FileInputStream(urlFile), StandardCharsets.ISO_8859_1))) {
+				String line;
+				while((line = reader.readLine()) != null) {
+					line = line.trim();
+					if(line.isEmpty() || line.startsWith("#")) continue;
+					String[] fields = line.split("\\s+", 2);
+					double weight = 1;
+					if(fields.length == 2 && Character.isDigit(fields[0].charAt(0))) {
+						try {
+							weight = Double.parseDouble(fields[0]);
+							line = fields[1];
+						} catch(NumberFormatException e) {
+							// a URL starting with a digit
+						}
+					}
+					if(weight <= 0) continue;
+					lines.add(line);
+					weights.add(weight);
+				}
+			}
+		}
+		if(lines.isEmpty()) throw new IOException("No URLs");
+
+		requests = new byte[lines.size()][];
+		requestURLs = new String[lines.size()];
+		cumulativeWeights = new double[lines.size()];
+		double total = 0;
+		for(int i = 0; i < lines.size(); i++) {
+			String[] fields = lines.get(i).split("\\s+");
+			// an FTP user without a password is anonymous, as for Client
+			String request = fields.length == 2 && fields[0].startsWith("ftp://")
+					? fields[0] + " " + fields[1] + " anonymous" : String.join(" ", fields);
+			requests[i] = (request + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+			requestURLs[i] = fields[0];
+			total += weights.get(i);
+			cumulativeWeights[i] = total;
+		}
+	}
+
+	/**
+	 * Runs every connection until the end of the measured period and waits for
+	 * them. Only the requests due, or sent, within the measured period count.
+	 * Called by: start()
+	 *
+	 * @return the length of the measured period in nanoseconds
+	 */
+	private long run() {
+		long begin = System.nanoTime();
+		long measureStart = begin + TimeUnit.SECONDS.toNanos(warmupSeconds);
+		long end = measureStart + TimeUnit.SECONDS.toNanos(durationSeconds);
+		ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor();
+		for(int i = 0; i < connections; i++) {
+			final int connection = i;
+			executor.execute(() -> {
+				if(rate > 0) {
+					runOpenLoop(connection, begin, measureStart, end);
+				} else {
+					runClosedLoop(measureStart, end);
+				}
+			});
+		}
+		executor.shutdown();
+		try {
+			// requests still out at the end are waited for, up to their time out
+			executor.awaitTermination(TimeUnit.SECONDS.toMillis(warmupSeconds + durationSeconds)
+					+ 2L * timeoutMillis + 1000, TimeUnit.MILLISECONDS);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		executor.shutdownNow();
+		return end - measureStart;
+	}
+
+	/*
+	 * Sends the requests of one connection at the times they are due. The
+	 * connections take turns, so together they send one request every 1/rate
+	 * seconds. A request due while the last one is still out is sent late and
+	 * its latency still counts from the time it was due.
+	 */
+	private void runOpenLoop(int connection, long begin, long measureStart, long end) {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		double interval = TimeUnit.SECONDS.toNanos(1) / rate;
+		for(long n = connection; ; n += connections) {
+			long due = begin + (long) (n * interval);
+			if(due >= end) break;
+			long wait = due - System.nanoTime();
+			if(wait > 0) LockSupport.parkNanos(wait);
+			long sent = System.nanoTime();
+			int outcome = fetch(pickRequest(), buffer);
+			long done = System.nanoTime();
+			if(due >= measureStart) {
+				latency.record(TimeUnit.NANOSECONDS.toMicros(done - due));
+				serviceTime.record(TimeUnit.NANOSECONDS.toMicros(done - sent));
+				outcomes[outcome].increment();
+			}
+		}
+	}
+
+	/*
+	 * Sends the requests of one connection one after the other, with the think
+	 * time between an answer and the next request.
+	 */
+	private void runClosedLoop(long measureStart, long end) {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		long sent;
+		while((sent = System.nanoTime()) < end) {
+			int outcome = fetch(pickRequest(), buffer);
+			long done = System.nanoTime();
+			if(sent >= measureStart) {
+				serviceTime.record(TimeUnit.NANOSECONDS.toMicros(done - sent));
+				outcomes[outcome].increment();
+			}
+			if(thinkMillis > 0) LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(thinkMillis));
+		}
+	}
+
+	private int pickRequest() {
+		if(requests.length == 1) return 0;
+		double pick = ThreadLocalRandom.current().nextDouble() * cumulativeWeights[cumulativeWeights.length - 1];
+		int low = 0;
+		int high = cumulativeWeights.length - 1;
+		while(low < high) {
+			int middle = (low + high) >>> 1;
+			if(cumulativeWeights[middle] <= pick) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/*
+	 * Sends one request on a new connection and reads the response up to the
+	 * end of the connection. The response is complete if it ends with the done
+	 * line; it failed if it starts with an HTTP status of 400 or more.
+	 */
+	private int fetch(int request, byte[] buffer) {
+		try(Socket socket = new Socket()) {
+			try {
+				socket.connect(proxyAddress, timeoutMillis);
+			} catch(IOException e) {
+				return e instanceof SocketTimeoutException ? TIMEOUT : CONNECT_ERROR;
+			}
+			socket.setSoTimeout(timeoutMillis);
+			socket.setTcpNoDelay(true);
+			OutputStream out = socket.getOutputStream();
+			out.write(requests[request]);
+			out.flush();
+
+			InputStream in = socket.getInputStream();
+			byte[] head = new byte[12];
+			int headLength = 0;
+			byte[] tail = new byte[DONE.length];
+			int tailLength = 0;
+			long total = 0;
+			int read;
+			while((read = in.read(buffer)) != -1) {
+				total += read;
+				if(headLength < head.length) {
+					int copied = Math.min(read, head.length - headLength);
+					System.arraycopy(buffer, 0, head, headLength, copied);
+					headLength += copied;
+				}
+				// keep the last bytes read, to look for the done line
+				if(read >= tail.length) {
+					System.arraycopy(buffer, read - tail.length, tail, 0, tail.length);
+					tailLength = tail.length;
+				} else {
+					int kept = Math.min(tailLength, tail.length - read);
+					System.arraycopy(tail, tailLength - kept, tail, 0, kept);
+					System.arraycopy(buffer, 0, tail, kept, read);
+					tailLength = kept + read;
+				}
+			}
+			bytesReceived.add(total);
+			if(tailLength < tail.length || !Arrays.equals(tail, DONE)) return INCOMPLETE;
+			return statusOf(head, headLength) >= 400 ? HTTP_ERROR : OK;
+		} catch(SocketTimeoutException e) {
+			return TIMEOUT;
+		} catch(IOException e) {
+			return IO_ERROR;
+		}
+	}
+
+	/*
+	 * The status code of a response starting with an HTTP status line, or 0.
+	 */
+	private static int statusOf(byte[] head, int length) {
+		if(length < 12 || head[0] != 'H' || head[1] != 'T' || head[2] != 'T' || head[3] != 'P' || head[8] != ' ') {
+			return 0;
+		}
+		int status = 0;
+		for(int i = 9; i < 12; i++) {
+			if(head[i] < '0' || head[i] > '9') return 0;
+			status = status * 10 + head[i] - '0';
+		}
+		return status;
+	}
+
+	/**
+	 * Prints the percentiles and the outcomes, and writes the JSON and the
+	 * percentile distribution if asked to.
+	 * Called by: start()
+	 *
+	 * @param measuredNanos the length of the measured period
+	 */
+	private void printResults(long measuredNanos) {
+		// a closed loop counts from the time a request was sent, so it is corrected after the fact
+		long expectedInterval = 0;
+		LatencyHistogram corrected = latency;
+		if(rate == 0) {
+			expectedInterval = expectedIntervalMicros >= 0 ? expectedIntervalMicros
+					: (long) serviceTime.getMean() + TimeUnit.MILLISECONDS.toMicros(thinkMillis);
+			corrected = serviceTime.copyCorrected(expectedInterval);
+		}
+		long requestCount = serviceTime.getTotalCount();
+		double seconds = measuredNanos / 1e9;
+		double throughput = requestCount / seconds;
+
+		System.out.println(String.format(Locale.US, "LoadGenerator: %d requests in %.1fs, %.1f requests/s, %.1f KB/s",
+				requestCount, seconds, throughput, bytesReceived.sum() / 1024.0 / seconds));
+		StringBuilder counts = new StringBuilder("LoadGenerator:");
+		for(int i = 0; i < OUTCOMES.length; i++) {
+			counts.append(' ').append(OUTCOMES[i]).append('=').append(outcomes[i].sum());
+		}
+		System.out.println(counts);
+		System.out.println(String.format(Locale.US, "%10s %14s %14s", "percentile", "latency ms", "service ms"));
+		for(double percentile : PERCENTILES) {
+			System.out.println(String.format(Locale.US, "%10s %14.3f %14.3f", percentile,
+					corrected.getValueAtPercentile(percentile) / 1000.0, serviceTime.getValueAtPercentile(percentile) / 1000.0));
+		}
+		System.out.println(String.format(Locale.US, "%10s %14.3f %14.3f", "max",
+				corrected.getMax() / 1000.0, serviceTime.getMax() / 1000.0));
+		if(rate == 0) {
+			System.out.println("LoadGenerator: latency corrected for an expected interval of "
+					+ String.format(Locale.US, "%.3f", expectedInterval / 1000.0) + " ms");
+		}
+
+		if(jsonFile != null) {
+			String json = toJSON(corrected, expectedInterval, measuredNanos, throughput);
+			if(jsonFile.equals("-")) {
+				System.out.println(json);
+			} else {
+				write(jsonFile, out -> out.println(json));
+			}
+		}
+		if(hgrmFile != null) {
+			final LatencyHistogram distribution = corrected;
+			write(hgrmFile, out -> distribution.printPercentileDistribution(out, 1000.0));
+		}
+	}
+
+	private interface Printer {
+		void print(PrintStream out);
+	}
+
+	private static void write(String file, Printer printer) {
+		try(PrintStream out = new PrintStream(new FileOutputStream(file), false, "UTF-8")) {
+			printer.print(out);
+		} catch(IOException e) {
+			System.out.println("LoadGenerator: Couldn't write " + file + ": " + e.getMessage());
+		}
+	}
+
+	/*
+	 * The results as one JSON object, latencies in microseconds.
+	 */
+	private String toJSON(LatencyHistogram corrected, long expectedInterval, long measuredNanos, double throughput) {
+		StringBuilder json = new StringBuilder(1024);
+		json.append("{\n");
+		json.append("  \"tool\": \"LoadGenerator\",\n");
+		json.append("  \"timestamp\": ").append(System.currentTimeMillis()).append(",\n");
+		json.append("  \"proxy\": \"").append(escape(proxyHost + ":" + proxyPort)).append("\",\n");
+		json.append("  \"mode\": \"").append(rate > 0 ? "open" : "closed").append("\",\n");
+		json.append("  \"rate\": ").append(rate).append(",\n");
+		json.append("  \"connections\": ").append(connections).append(",\n");
+		json.append("  \"warmupSeconds\": ").append(warmupSeconds).append(",\n");
+		json.append("  \"durationSeconds\": ").append(String.format(Locale.US, "%.3f", measuredNanos / 1e9)).append(",\n");
+		json.append("  \"thinkMillis\": ").append(thinkMillis).append(",\n");
+		json.append("  \"urls\": [");
+		for(int i = 0; i < requestURLs.length; i++) {
+			double weight = cumulativeWeights[i] - (i == 0 ? 0 : cumulativeWeights[i - 1]);
+			json.append(i == 0 ? "" : ", ").append("{\"url\": \"").append(escape(requestURLs[i]))
+					.append("\", \"weight\": ").append(weight).append('}');
+		}
+		json.append("],\n");
+		json.append("  \"requests\": ").append(serviceTime.getTotalCount()).append(",\n");
+		json.append("  \"throughput\": ").append(String.format(Locale.US, "%.3f", throughput)).append(",\n");
+		json.append("  \"bytesReceived\": ").append(bytesReceived.sum()).append(",\n");
+		json.append("  \"outcomes\": {");
+		for(int i = 0; i < OUTCOMES.length; i++) {
+			json.append(i == 0 ? "" : ", ").append('"').append(OUTCOMES[i]).append("\": ").append(outcomes[i].sum());
+		}
+		json.append("},\n");
+		json.append("  \"coordinatedOmission\": \"").append(rate > 0 ? "measured from the due time" : "corrected")
+				.append("\",\n");
+		json.append("  \"expectedIntervalMicros\": ").append(expectedInterval).append(",\n");
+		json.append("  \"latencyMicros\": ");
+		appendPercentiles(json, corrected);
+		json.append(",\n");
+		json.append("  \"serviceTimeMicros\": ");
+		appendPercentiles(json, serviceTime);
+		json.append("\n}");
+		return json.toString();
+	}
+
+	private static void appendPercentiles(StringBuilder json, LatencyHistogram histogram) {
+		json.append("{\"count\": ").append(histogram.getTotalCount());
+		json.append(", \"min\": ").append(histogram.getMin());
+		json.append(", \"mean\": ").append(String.format(Locale.US, "%.1f", histogram.getMean()));
+		json.append(", \"stdDeviation\": ").append(String.format(Locale.US, "%.1f", histogram.getStdDeviation()));
+		for(double percentile : PERCENTILES) {
+			json.append(", \"p").append(Double.toString(percentile).replace(".0", "").replace('.', '_'))
+					.append("\": ").append(histogram.getValueAtPercentile(percentile));
+		}
+		json.append(", \"max\": ").append(histogram.getMax()).append('}');
+	}
+
+	private static String escape(String value) {
+		StringBuilder escaped = new StringBuilder(value.length());
+		for(char c : value.toCharArray()) {
+			if(c == '"' || c == '\\') {
+				escaped.append('\\').append(c);
+			} else if(c < ' ') {
+				escaped.append(String.format("\\u%04x", (int) c));
+			} else {
+				escaped.append(c);
+			}
+		}
+		return escaped.toString();
+	}
+
+	/**
+	 * Prints the options of the load generator.
+	 */
+	public static void printUsage() {
+		System.out.println("\tjava Client -load (-url URL | -urls FILE) [-proxy host[:port]] [-c connections]");
+		System.out.println("\t\t[-d seconds] [-w warmup seconds] [-rate requests/s | -think ms] [-interval ms]");
+		System.out.println("\t\t[-timeout ms] [-json FILE|-] [-hgrm FILE]");
+	}
+}
@@ -0,0 +1,188 @@
+//package client;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+* title: Log.java
+* to compile: javac Log.java
+* description: A small leveled logger for the proxy. A message below the current level
+* 				is dropped before it is built: the Supplier overloads only build the
+* 				message when the level is on, so a disabled debug line costs a level
+* 				check. Messages that pass are put on a bounded queue without waiting and
+* 				printed by a background thread in batches, so request threads never
+* 				contend for the console. When the queue is full the drop policy decides
+* 				whether the new message or the oldest one waiting is lost; lost messages
+* 				are counted and reported with the next batch.
+* 				The level is set with -Dproxy.log.level (ERROR, WARN, INFO or DEBUG, INFO
+* 				by default), the queue size with -Dproxy.log.capacity and the drop policy
+* 				with -Dproxy.log.drop (newest or oldest).
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+public final class Log {
+
+	/**
+	 * The levels, from the most to the least important.
+	 */
+	public enum Level { ERROR, WARN, INFO, DEBUG }
+
+	// the most messages printed in one batch
+	private static final int BATCH_SIZE = 512;
+
+	private static volatile Level level = parseLevel(System.getProperty("proxy.log.level", "INFO"));
+	private static final boolean DROP_OLDEST = "oldest".equalsIgnoreCase(System.getProperty("proxy.log.drop", "newest"));
+	private static final BlockingQueue<String> queue =
+			new ArrayBlockingQueue<>(Math.max(Integer.getInteger("proxy.log.capacity", 4096), 16));
+	private static final PrintStream console = System.out;
+	private static final AtomicLong dropped = new AtomicLong();
+	private static final Thread writer = startWriter();
+
+	private Log() {
+	}
+
+	private static Level parseLevel(String name) {
+		try {
+			return Level.valueOf(name.trim().toUpperCase());
+		} catch(IllegalArgumentException e) {
+			return Level.INFO;
+		}
+	}
+
+	private static Thread startWriter() {
+		Thread thread = new Thread(Log::drain, "log-writer");
+		thread.setDaemon(true);
+		thread.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "log-flush"));
+		return thread;
+	}
+
+	/*
+	 * Prints the queued messages, a batch at a time.
+	 */
+	private static void drain() {
+		List<String> batch = new ArrayList<>(BATCH_SIZE);
+		StringBuilder text = new StringBuilder(8 * 1024);
+		while(true) {
+			try {
+				batch.add(queue.take());
+			} catch(InterruptedException e) {
+				return;
+			}
+			queue.drainTo(batch, BATCH_SIZE - 1);
+			print(batch, text);
+		}
+	}
+
+	private static synchronized void print(List<String> batch, StringBuilder text) {
+		text.setLength(0);
+		long lost = dropped.getAndSet(0);
+		if(lost > 0) {
+			text.append("Log: ").append(lost).append(" messages dropped").append(System.lineSeparator());
+		}
+		for(String message : batch) {
+			text.append(message).append(System.lineSeparator());
+		}
+		batch.clear();
+		console.print(text);
+		console.flush();
+	}
+
+	/*
+	 * Prints what is still queued, when the JVM exits.
+	 */
+	private static void flush() {
+		List<String> batch = new ArrayList<>();
+		queue.drainTo(batch);
+		print(batch, new StringBuilder());
+	}
+
+	/*
+	 * Queues a message without waiting, applying the drop policy when the queue is full.
+	 */
+	private static void append(String message) {
+		if(queue.offer(message)) return;
+		dropped.incrementAndGet();
+		if(DROP_OLDEST) {
+			queue.poll();
+			queue.offer(message);
+		}
+	}
+
+	/**
+	 * Returns whether messages of a level are logged.
+	 *
+	 * @param of the level
+	 * @return true if enabled
+	 */
+	public static boolean isEnabled(Level of) {
+		return of.ordinal() <= level.ordinal();
+	}
+
+	public static boolean isDebugEnabled() {
+		return Level.DEBUG.ordinal() <= level.ordinal();
+	}
+
+	public static void setLevel(Level newLevel) {
+		level = newLevel;
+	}
+
+	public static void error(String message) {
+		if(isEnabled(Level.ERROR)) append(message);
+	}
+
+	public static void warn(String message) {
+		if(isEnabled(Level.WARN)) append(message);
+	}
+
+	public static void info(String message) {
+		if(isEnabled(Level.INFO)) append(message);
+	}
+
+	public static void debug(String message) {
+		if(isDebugEnabled()) append(message);
+	}
+
+	/**
+	 * Logs a debug message, built only if debug is enabled.
+	 *
+	 * @param message builds the message
+	 */
+	public static void debug(Supplier<String> message) {
+		if(isDebugEnabled()) append(message.get());
+	}
+
+	/**
+	 * Logs an info message, built only if info is enabled.
+	 *
+	 * @param message builds the message
+	 */
+	public static void info(Supplier<String> message) {
+		if(isEnabled(Level.INFO)) append(message.get());
+	}
+
+	/**
+	 * Returns the number of messages dropped since the last batch was printed.
+	 *
+	 * @return the dropped messages
+	 */
+	public static long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Returns the number of messages waiting to be printed.
+	 *
+	 * @return the queue depth
+	 */
+	public static int getDepth() {
+		return queue.size();
+	}
+}
@@ -0,0 +1,638 @@
+//package client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+* title: NioProxyServer.java
+* to compile: javac -cp commons-net-3.6.jar; NioProxyServer.java
+* description: A non-blocking alternative to the thread per connection model of the proxy server.
+* 				A small number of event loops (one per core) drive every client connection
+* 				through the same steps ConnectionHandler goes through: read the request,
+* 				break down the URL, connect to the remote server, relay the response to
+* 				the client and close. Both legs of an HTTP flow live on the same selector.
+* 				The response is relayed byte for byte and ends where its head frames it,
+* 				by Content-Length, chunked encoding or the server closing.
+*
+* 				FTP transfers and host name lookups are handed to a small blocking pool,
+* 				since neither has a non-blocking API. A lookup result is posted back to
+* 				the event loop that owns the client. An FTP file is streamed: each buffer
+* 				the FTP client reads is posted to the event loop, written to the client
+* 				like a relayed HTTP response, and the transfer waits until it is taken.
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+public class NioProxyServer {
+
+	// client request types
+	private static final int FTP = 1;
+	private static final int HTTP = 2;
+
+	// states a connection goes through
+	private static final int READING_REQUEST = 1;
+	private static final int RESOLVING = 2;
+	private static final int CONNECTING = 3;
+	private static final int SENDING_REQUEST = 4;
+	private static final int RELAYING = 5;
+	private static final int STREAMING = 6;
+	private static final int FINISHING = 7;
+	private static final int CLOSED = 8;
+
+	// size of the buffer each connection uses for both legs
+	private static final int BUFFER_SIZE = 16 * 1024;
+	// the port of the local HTTP server
+	private static final int LOCAL_PORT = 800;
+	// the default HTTP port
+	private static final int HTTP_PORT = 80;
+	// sent after the response, the client reads until it finds this line
+	private static final byte[] DONE = "\r\ndone\r\n".getBytes(Charset.forName("US-ASCII"));
+
+	// the address and port the proxy listens on
+	private final InetAddress address;
+	private final int port;
+	// the event loops, connections are spread over them round robin
+	private final EventLoop[] loops;
+	// runs the work that can only be done by blocking a thread
+	private final ExecutorService blockingPool;
+
+	/**
+	 * Instantiates a new non-blocking proxy server listening on the given address and port,
+	 * driven by the given number of event loops.
+	 *
+	 * @param address the address to listen on
+	 * @param port the port to listen on
+	 * @param threads the number of event loop threads
+	 */
+	public NioProxyServer(InetAddress address, int port, int threads) {
+		this.address = address;
+		this.port = port;
+		this.loops = new EventLoop[threads];
+		this.blockingPool = Executors.newFixedThreadPool(threads * 2);
+	}
+
+	/**
+	 * Starts the event loops, then accepts connections from clients and hands
+	 * each one to the next event loop.
+	 */
+	public void start() {
+		try {
+			for(int i = 0; i < loops.length; i++) {
+				loops[i] = new EventLoop();
+				Thread thread = new Thread(loops[i], "proxy-loop-" + i);
+				thread.start();
+			}
+		} catch(IOException e) {
+			Log.error("NioProxyServer: Could not open selector: " + e);
+			return;
+		}
+
+		try(ServerSocketChannel proxyServer = ServerSocketChannel.open()) {
+			proxyServer.bind(new InetSocketAddress(address, port), 100);
+			Log.info("Server: " + proxyServer.socket().getInetAddress()
+									+ "\tPort: " + proxyServer.socket().getLocalPort()
+									+ "\tEvent loops: " + loops.length);
+			Log.info("Accepting Connections...");
+
+			int next = 0;
+			while(true) {
+				try {
+					SocketChannel connection = proxyServer.accept();
+					ProxyMetrics.Request metrics = ProxyMetrics.accepted();
+					connection.configureBlocking(false);
+					EventLoop loop = loops[next];
+					next = (next + 1) % loops.length;
+					loop.execute(() -> new Flow(loop, connection, metrics).register());
+				} catch(IOException e) {
+					Log.warn("Proxy: Unable to accept connection");
+					ProxyMetrics.acceptFailed();
+				} catch(RuntimeException e) {
+					Log.error("Unexpected error: " + e);
+				}
+			}
+		} catch(IOException e) {
+			Log.error("Proxy: Could not start server: " + e);
+		}
+	}
+
+	/*
+	 * A selector thread, runs the tasks posted to it and dispatches
+	 * ready keys to the flow attached to them.
+	 */
+	private class EventLoop implements Runnable {
+		private final Selector selector;
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+		EventLoop() throws IOException {
+			selector = Selector.open();
+		}
+
+		/**
+		 * Runs the task on this event loop.
+		 *
+		 * @param task the task
+		 */
+		void execute(Runnable task) {
+			tasks.add(task);
+			selector.wakeup();
+		}
+
+		@Override
+		public void run() {
+			while(true) {
+				try {
+					selector.select();
+					Runnable task;
+					while((task = tasks.poll()) != null) {
+						try {
+							task.run();
+						} catch(RuntimeException e) {
+							Log.error("Unexpected error: " + e);
+						}
+					}
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while(keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						Flow flow = (Flow) key.attachment();
+						try {
+							flow.handle(key);
+						} catch(IOException | RuntimeException e) {
+							flow.close();
+						}
+					}
+				} catch(IOException e) {
+					Log.warn("NioProxyServer: Selector error: " + e);
+				}
+			}
+		}
+	}
+
+	/*
+	 * The state machine of one client connection. Every method runs on the
+	 * event loop that owns the connection.
+	 */
+	private class Flow {
+		private final EventLoop loop;
+		private final SocketChannel client;
+		private SocketChannel upstream;
+		private SelectionKey clientKey;
+		private SelectionKey upstreamKey;
+		// holds the request, then the data being relayed to the client
+		private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		// the bytes currently being written to the client
+		private ByteBuffer output;
+		private boolean doneSent;
+		// whether the whole response and the done line reached the client
+		private boolean delivered;
+		private int state;
+		// times the phases of this connection
+		private final ProxyMetrics.Request metrics;
+
+		// the client request broken down
+		private String request;
+		private int protocol;
+		private String remoteServer;
+		private int remotePort;
+		// finds the end of the response relayed from the remote server
+		private BodyFramer framer;
+		// takes the FTP file from the blocking pool
+		private ChannelSink ftpSink;
+
+		private String resource;
+		private String user;
+		private String pass;
+
+		Flow(EventLoop loop, SocketChannel client, ProxyMetrics.Request metrics) {
+			this.loop = loop;
+			this.client = client;
+			this.metrics = metrics;
+		}
+
+		/**
+		 * Registers the client with the selector and starts reading the request.
+		 */
+		void register() {
+			metrics.end(ProxyMetrics.ACCEPT);
+			try {
+				clientKey = client.register(loop.selector, SelectionKey.OP_READ, this);
+				state = READING_REQUEST;
+				metrics.begin(ProxyMetrics.REQUEST_READ);
+			} catch(ClosedChannelException e) {
+				close();
+			}
+		}
+
+		/**
+		 * Dispatches a ready key to the step the connection is at.
+		 *
+		 * @param key the ready key
+		 * @throws IOException Signals that an I/O exception has occurred.
+		 */
+		void handle(SelectionKey key) throws IOException {
+			if(!key.isValid()) return;
+			if(key == clientKey) {
+				if(key.isReadable() && state == READING_REQUEST) readRequest();
+				else if(key.isWritable()) writeToClient();
+			} else {
+				try {
+					if(key.isConnectable()) finishConnect();
+					else if(key.isWritable() && state == SENDING_REQUEST) sendRequest();
+					else if(key.isReadable() && state == RELAYING) readFromServer();
+				} catch(IOException e) {
+					metrics.fail(ProxyMetrics.UPSTREAM_ERROR);
+					throw e;
+				}
+			}
+		}
+
+		/**
+		 * Read the client request, up to the end of the first line.
+		 */
+		private void readRequest() throws IOException {
+			int read = client.read(buffer);
+			int end = -1;
+			for(int i = 0; i < buffer.position(); i++) {
+				byte c = buffer.get(i);
+				if(c == '\r' || c == '\n') {
+					end = i;
+					break;
+				}
+			}
+			if(end == -1 && read != -1 && buffer.hasRemaining()) return;
+			if(end == -1) end = buffer.position();
+
+			request = new String(buffer.array(), 0, end, "US-ASCII").toLowerCase();
+			buffer.clear();
+			clientKey.interestOps(0);
+			metrics.end(ProxyMetrics.REQUEST_READ);
+			metrics.begin(ProxyMetrics.URL_PARSE);
+			breakDownURL();
+		}
+
+		/**
+		 * Break down the request the same way ConnectionHandler does and
+		 * start the transfer for the protocol used.
+		 */
+		private void breakDownURL() {
+			String[] pieces = request.split(" ");
+			URL url;
+			try {
+				url = new URL(pieces[0]);
+			} catch(MalformedURLException e) {
+				metrics.fail(ProxyMetrics.INVALID);
+				respond("Invalid URL\r\n");
+				return;
+			}
+
+			remoteServer = url.getHost();
+			resource = url.getPath().equals("") ? "/" : url.getPath();
+			if(url.getProtocol().equals("ftp")) {
+				protocol = FTP;
+				if(pieces.length >= 3) {
+					user = pieces[1];
+					pass = pieces[2];
+				}
+			} else if(url.getProtocol().equals("http") || url.getProtocol().equals("https")) {
+				protocol = HTTP;
+			} else {
+				metrics.fail(ProxyMetrics.INVALID);
+				respond("Invalid URL\r\n");
+				return;
+			}
+			metrics.end(ProxyMetrics.URL_PARSE);
+			metrics.setProtocol(protocol == FTP ? ProxyMetrics.FTP : ProxyMetrics.HTTP);
+			metrics.setSource(ProxyMetrics.ORIGIN);
+
+			if(protocol == FTP) {
+				fetchFTP();
+			} else {
+				resolve();
+			}
+		}
+
+		/**
+		 * Looks up the remote host, connecting at once when the address is
+		 * cached and otherwise resolving it off the event loop first.
+		 */
+		private void resolve() {
+			state = RESOLVING;
+			metrics.begin(ProxyMetrics.UPSTREAM_CONNECT);
+			remotePort = DnsCache.isLocal(remoteServer) ? LOCAL_PORT : HTTP_PORT;
+			DnsCache dns = DnsCache.getShared();
+			try {
+				InetAddress cached = dns.getCached(remoteServer);
+				if(cached != null) {
+					connect(new InetSocketAddress(cached, remotePort));
+					return;
+				}
+			} catch(UnknownHostException e) {
+				connect(InetSocketAddress.createUnresolved(remoteServer, remotePort));
+				return;
+			}
+			blockingPool.submit(() -> {
+				InetSocketAddress remote;
+				try {
+					remote = new InetSocketAddress(dns.resolve(remoteServer), remotePort);
+				} catch(UnknownHostException e) {
+					remote = InetSocketAddress.createUnresolved(remoteServer, remotePort);
+				}
+				InetSocketAddress resolved = remote;
+				loop.execute(() -> connect(resolved));
+			});
+		}
+
+		/**
+		 * Starts a non-blocking connection to the remote server.
+		 *
+		 * @param remote the remote server address
+		 */
+		private void connect(InetSocketAddress remote) {
+			if(state == CLOSED) return;
+			try {
+				if(remote.isUnresolved()) throw new UnknownHostException(remoteServer);
+				upstream = SocketChannel.open();
+				upstream.configureBlocking(false);
+				state = CONNECTING;
+				if(upstream.connect(remote)) {
+					upstreamKey = upstream.register(loop.selector, SelectionKey.OP_WRITE, this);
+					startRequest();
+				} else {
+					upstreamKey = upstream.register(loop.selector, SelectionKey.OP_CONNECT, this);
+				}
+			} catch(IOException e) {
+				Log.warn("NioProxyServer: Could't connect to server");
+				metrics.fail(ProxyMetrics.UPSTREAM_ERROR);
+				respond("Couldn't connect to server\r\n");
+			}
+		}
+
+		/**
+		 * Completes the connection to the remote server.
+		 */
+		private void finishConnect() {
+			try {
+				if(upstream.finishConnect()) {
+					upstreamKey.interestOps(SelectionKey.OP_WRITE);
+					startRequest();
+				}
+			} catch(IOException e) {
+				Log.warn("NioProxyServer: Could't connect to server");
+				metrics.fail(ProxyMetrics.UPSTREAM_ERROR);
+				respond("Couldn't connect to server\r\n");
+			}
+		}
+
+		/**
+		 * Puts the HTTP request in the buffer, it is written once the remote server is writable.
+		 */
+		private void startRequest() {
+			metrics.end(ProxyMetrics.UPSTREAM_CONNECT);
+			state = SENDING_REQUEST;
+			buffer.clear();
+			buffer.put(("GET " + resource + " HTTP/1.1\r\n"
+					+ "Host: " + remoteServer + (remotePort == HTTP_PORT ? "" : ":" + remotePort) + "\r\n"
+					+ "Connection: close\r\n\r\n").getBytes(Charset.forName("US-ASCII")));
+			buffer.flip();
+		}
+
+		/**
+		 * Send the request to the remote server, then start relaying its response.
+		 */
+		private void sendRequest() throws IOException {
+			upstream.write(buffer);
+			if(!buffer.hasRemaining()) {
+				buffer.clear();
+				state = RELAYING;
+				upstreamKey.interestOps(SelectionKey.OP_READ);
+				metrics.begin(ProxyMetrics.UPSTREAM_FIRST_BYTE);
+			}
+		}
+
+		/**
+		 * Read what the remote server has sent and pass it on to the client,
+		 * up to the end of the response as framed by its head. Reading stops
+		 * until the client has taken all of it.
+		 */
+		private void readFromServer() throws IOException {
+			int read = upstream.read(buffer);
+			if(read > 0 && metrics.end(ProxyMetrics.UPSTREAM_FIRST_BYTE)) metrics.begin(ProxyMetrics.TRANSFER);
+			int start = 0;
+			if(framer == null) {
+				HttpResponseHead head = HttpResponseHead.parse(buffer.array(), buffer.position());
+				if(head != null) {
+					framer = BodyFramer.forResponse(head);
+					start = head.getLength();
+				} else if(read != -1 && buffer.hasRemaining()) {
+					// the rest of the head is still to come
+					return;
+				} else {
+					// no head that fits in the buffer, relay until the server closes
+					framer = BodyFramer.untilClose();
+				}
+			}
+			int end = start + framer.frame(buffer.array(), start, buffer.position() - start);
+			upstreamKey.interestOps(0);
+			if(framer.isComplete() || read == -1) {
+				// a response cut short by the server closing
+				if(!framer.isComplete() && !framer.isDelimitedByClose()) metrics.fail(ProxyMetrics.UPSTREAM_ERROR);
+				metrics.end(ProxyMetrics.TRANSFER);
+				closeUpstream();
+				state = FINISHING;
+			}
+			buffer.flip();
+			buffer.limit(end);
+			output = buffer;
+			writeToClient();
+		}
+
+		/**
+		 * Fetch an FTP resource on the blocking pool, streaming it to the client
+		 * as it arrives, then send the done line.
+		 */
+		private void fetchFTP() {
+			state = STREAMING;
+			ChannelSink sink = new ChannelSink();
+			ftpSink = sink;
+			blockingPool.submit(() -> {
+				FTPClientStub ftpClientStub = new FTPClientStub(remoteServer, resource, user, pass);
+				// each write waits for the event loop, so the request is only used by one thread at a time
+				ftpClientStub.setMetrics(metrics);
+				ftpClientStub.start(sink);
+				if(!ftpClientStub.isComplete()) metrics.fail(ProxyMetrics.UPSTREAM_ERROR);
+				// the file is all sent, only the done line is left
+				loop.execute(() -> respond(new byte[0]));
+			});
+		}
+
+		/**
+		 * Write a buffer of the FTP file to the client.
+		 *
+		 * @param chunk the buffer
+		 */
+		private void stream(ByteBuffer chunk) {
+			if(state == CLOSED) {
+				ftpSink.taken();
+				return;
+			}
+			output = chunk;
+			try {
+				writeToClient();
+			} catch(IOException e) {
+				close();
+			}
+		}
+
+		/**
+		 * Send a message to the client, then close.
+		 *
+		 * @param message the message
+		 */
+		private void respond(String message) {
+			respond(message.getBytes(Charset.forName("US-ASCII")));
+		}
+
+		/**
+		 * Send a complete response to the client as is, then close.
+		 *
+		 * @param response the response
+		 */
+		private void respond(byte[] response) {
+			if(state == CLOSED) return;
+			closeUpstream();
+			state = FINISHING;
+			output = ByteBuffer.wrap(response);
+			try {
+				writeToClient();
+			} catch(IOException e) {
+				close();
+			}
+		}
+
+		/**
+		 * Write the pending output to the client. Once it is all written either
+		 * go back to reading from the remote server, or finish the response.
+		 */
+		private void writeToClient() throws IOException {
+			while(true) {
+				long start = System.nanoTime();
+				int written = client.write(output);
+				metrics.clientWrite(System.nanoTime() - start, written);
+				if(output.hasRemaining()) {
+					clientKey.interestOps(SelectionKey.OP_WRITE);
+					return;
+				}
+				if(state == RELAYING) {
+					buffer.clear();
+					clientKey.interestOps(0);
+					upstreamKey.interestOps(SelectionKey.OP_READ);
+					return;
+				}
+				if(state == STREAMING) {
+					clientKey.interestOps(0);
+					ftpSink.taken();
+					return;
+				}
+				if(doneSent) {
+					delivered = true;
+					close();
+					return;
+				}
+				doneSent = true;
+				output = ByteBuffer.wrap(DONE);
+			}
+		}
+
+		/**
+		 * Close the connection to the remote server.
+		 */
+		private void closeUpstream() {
+			if(upstream != null) {
+				try {
+					upstream.close();
+				} catch(IOException e) {
+					Log.warn("NioProxyServer: Error");
+				}
+			}
+		}
+
+		/**
+		 * Close both legs of the connection.
+		 */
+		void close() {
+			if(state == CLOSED) return;
+			state = CLOSED;
+			closeUpstream();
+			try {
+				client.close();
+			} catch(IOException e) {
+				Log.warn("NioProxyServer: Error");
+			}
+			if(!delivered) metrics.fail(ProxyMetrics.CLIENT_ERROR);
+			metrics.finish();
+			// a transfer still running stops at its next write
+			if(ftpSink != null) ftpSink.abort();
+		}
+
+		/*
+		 * The stream the FTP client writes the file to. Every write is handed
+		 * to the event loop and waits until the client has taken it, the way a
+		 * blocking write to the client would. The buffer is written as is, so
+		 * a transfer never holds more than the FTP client's one buffer.
+		 */
+		private class ChannelSink extends OutputStream {
+			private final Semaphore written = new Semaphore(0);
+			// set once the client connection is closed
+			private volatile boolean closed;
+
+			@Override
+			public void write(int b) throws IOException {
+				write(new byte[] {(byte) b}, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				if(closed) throw new IOException("Client closed");
+				if(len == 0) return;
+				ByteBuffer chunk = ByteBuffer.wrap(b, off, len);
+				loop.execute(() -> stream(chunk));
+				written.acquireUninterruptibly();
+				if(closed) throw new IOException("Client closed");
+			}
+
+			/**
+			 * Lets the FTP client go on once its buffer is written.
+			 */
+			void taken() {
+				written.release();
+			}
+
+			/**
+			 * Fails the write waiting for the client, and any write after it.
+			 */
+			void abort() {
+				closed = true;
+				written.release();
+			}
+		}
+	}
+}
@@ -0,0 +1,586 @@
+//package client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+* title: ProxyMetrics.java
+* to compile: javac ProxyMetrics.java
+* description: Counters and latency histograms of the proxy, for both engines. Every
+* 				connection gets a Request that times the phases it goes through,
+* 				waiting to be picked up after the accept, reading the request,
+* 				parsing the URL, connecting to the remote server, waiting for its
+* 				first byte, the transfer and the writes to the client, on the thread
+* 				handling it and without sharing anything. When the connection is
+* 				done the phases are recorded, by protocol and outcome, into shared
+* 				lock-free histograms. A small listener serves them at /metrics in
+* 				the Prometheus text format ("-Dproxy.metrics.port", 0 turns it off,
+* 				"-Dproxy.metrics.host").
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+public final class ProxyMetrics {
+
+	// the phases of a request
+	public static final int ACCEPT = 0;
+	public static final int REQUEST_READ = 1;
+	public static final int URL_PARSE = 2;
+	public static final int UPSTREAM_CONNECT = 3;
+	public static final int UPSTREAM_FIRST_BYTE = 4;
+	public static final int TRANSFER = 5;
+	public static final int CLIENT_WRITE = 6;
+	public static final int TOTAL = 7;
+	private static final String[] PHASES = {"accept", "request_read", "url_parse", "upstream_connect",
+			"upstream_first_byte", "transfer", "client_write", "total"};
+
+	// the protocols, NONE until the URL is parsed
+	public static final int NONE = 0;
+	public static final int HTTP = 1;
+	public static final int FTP = 2;
+	private static final String[] PROTOCOLS = {"none", "http", "ftp"};
+
+	// the outcomes, the first failure of a request is kept
+	public static final int OK = 0;
+	public static final int INVALID = 1;
+	public static final int UPSTREAM_ERROR = 2;
+	public static final int CLIENT_ERROR = 3;
+	public static final int SHED = 4;
+	public static final int TIMEOUT = 5;
+	private static final String[] OUTCOMES = {"ok", "invalid", "upstream_error", "client_error", "shed", "timeout"};
+
+	// where a response came from
+	public static final int ORIGIN = 0;
+	public static final int MEMORY = 1;
+	public static final int DISK = 2;
+	public static final int COALESCED = 3;
+	public static final int REVALIDATED = 4;
+	private static final String[] SOURCES = {"origin", "memory", "disk", "coalesced", "revalidated"};
+
+	// the port /metrics is served on, 0 or less turns it off
+	private static final int PORT = Integer.getInteger("proxy.metrics.port", 9464);
+	// the address /metrics is served on
+	private static final String HOST = System.getProperty("proxy.metrics.host", "localhost");
+
+	// phases are kept in microseconds, to two significant digits, up to 10 minutes
+	private static final long HIGHEST_LATENCY = TimeUnit.MINUTES.toMicros(10);
+	private static final int SIGNIFICANT_DIGITS = 2;
+	// the upper bounds of the Prometheus buckets, in microseconds and as printed in seconds
+	private static final long[] BUCKETS = {100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000,
+			100000, 250000, 500000, 1000000, 2500000, 5000000, 10000000, 30000000};
+	private static final String[] BUCKET_LABELS = {"0.0001", "0.00025", "0.0005", "0.001", "0.0025", "0.005",
+			"0.01", "0.025", "0.05", "0.1", "0.25", "0.5", "1", "2.5", "5", "10", "30"};
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// one histogram per phase, protocol and outcome, created the first time it is used
+	private static final AtomicReferenceArray<LatencyHistogram> histograms =
+			new AtomicReferenceArray<>(PHASES.length * PROTOCOLS.length * OUTCOMES.length);
+	private static final LongAdder[] requests = adders(PROTOCOLS.length * OUTCOMES.length);
+	private static final LongAdder[] responses = adders(SOURCES.length);
+	private static final LongAdder[] clientBytes = adders(PROTOCOLS.length);
+	private static final LongAdder accepted = new LongAdder();
+	private static final LongAdder acceptErrors = new LongAdder();
+	private static final LongAdder active = new LongAdder();
+	private static final LongAdder scrapes = new LongAdder();
+	// the queue of the thread pool, null for the other engines
+	private static volatile SheddingExecutor workQueue;
+
+	private ProxyMetrics() {
+	}
+
+	private static LongAdder[] adders(int count) {
+		LongAdder[] adders = new LongAdder[count];
+		for(int i = 0; i < count; i++) {
+			adders[i] = new LongAdder();
+		}
+		return adders;
+	}
+
+	/**
+	 * Counts a connection just accepted and starts timing it.
+	 *
+	 * @return the request of the connection
+	 */
+	public static Request accepted() {
+		accepted.increment();
+		active.increment();
+		return new Request(true);
+	}
+
+	/**
+	 * Returns a request that times its phases but is never recorded, for
+	 * the stubs used outside of the proxy.
+	 *
+	 * @return the request
+	 */
+	public static Request untracked() {
+		return new Request(false);
+	}
+
+	/**
+	 * Exports the length of the queue of the thread pool and the connections
+	 * it refused.
+	 *
+	 * @param executor the thread pool
+	 */
+	public static void setWorkQueue(SheddingExecutor executor) {
+		workQueue = executor;
+	}
+
+	/**
+	 * Counts a failed accept.
+	 */
+	public static void acceptFailed() {
+		acceptErrors.increment();
+	}
+
+	private static LatencyHistogram histogram(int phase, int protocol, int outcome) {
+		int index = (phase * PROTOCOLS.length + protocol) * OUTCOMES.length + outcome;
+		LatencyHistogram histogram = histograms.get(index);
+		if(histogram == null) {
+			histograms.compareAndSet(index, null, new LatencyHistogram(HIGHEST_LATENCY, SIGNIFICANT_DIGITS));
+			histogram = histograms.get(index);
+		}
+		return histogram;
+	}
+
+	/**
+	 * The phases of one connection. Used by one thread at a time, the one
+	 * handling the connection, so nothing in it is shared until finish().
+	 */
+	public static final class Request {
+		private final boolean tracked;
+		private final long[] started = new long[PHASES.length];
+		private final long[] durations = new long[PHASES.length];
+		// the phases started and not ended, and the phases that took place
+		private int running;
+		private int seen;
+		private int protocol = NONE;
+		private int outcome = OK;
+		private int source = -1;
+		private long bytes;
+		private boolean finished;
+
+		private Request(boolean tracked) {
+			this.tracked = tracked;
+			// the accept phase lasts until a thread picks the connection up
+			started[ACCEPT] = started[TOTAL] = System.nanoTime();
+			running = 1 << ACCEPT;
+		}
+
+		/**
+		 * Starts timing a phase.
+		 *
+		 * @param phase the phase
+		 */
+		public void begin(int phase) {
+			started[phase] = System.nanoTime();
+			running |= 1 << phase;
+		}
+
+		/**
+		 * Stops timing a phase, adding the time since it began to it.
+		 *
+		 * @param phase the phase
+		 * @return false if the phase was not running
+		 */
+		public boolean end(int phase) {
+			if((running & 1 << phase) == 0) return false;
+			running &= ~(1 << phase);
+			add(phase, System.nanoTime() - started[phase]);
+			return true;
+		}
+
+		/**
+		 * Adds time to a phase.
+		 *
+		 * @param phase the phase
+		 * @param nanos the time in nanoseconds
+		 */
+		public void add(int phase, long nanos) {
+			durations[phase] += nanos;
+			seen |= 1 << phase;
+		}
+
+		public void setProtocol(int protocol) {
+			this.protocol = protocol;
+		}
+
+		public void setSource(int source) {
+			this.source = source;
+		}
+
+		/**
+		 * Marks the request failed, unless it already failed for another reason.
+		 *
+		 * @param outcome the failure
+		 */
+		public void fail(int outcome) {
+			if(this.outcome == OK) this.outcome = outcome;
+		}
+
+		/**
+		 * Counts bytes written to the client and the time it took.
+		 *
+		 * @param nanos the time in nanoseconds
+		 * @param length the number of bytes
+		 */
+		public void clientWrite(long nanos, long length) {
+			add(CLIENT_WRITE, nanos);
+			bytes += length;
+		}
+
+		/**
+		 * Returns a stream that writes to the client, timing every write and
+		 * marking the request failed if one does.
+		 *
+		 * @param client the stream to the client
+		 * @return the timed stream
+		 */
+		public OutputStream wrap(OutputStream client) {
+			return new OutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					long start = System.nanoTime();
+					try {
+						client.write(b);
+					} catch(IOException e) {
+						fail(CLIENT_ERROR);
+						throw e;
+					} finally {
+						clientWrite(System.nanoTime() - start, 1);
+					}
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					long start = System.nanoTime();
+					try {
+						client.write(b, off, len);
+					} catch(IOException e) {
+						fail(CLIENT_ERROR);
+						throw e;
+					} finally {
+						clientWrite(System.nanoTime() - start, len);
+					}
+				}
+
+				@Override
+				public void flush() throws IOException {
+					long start = System.nanoTime();
+					try {
+						client.flush();
+					} catch(IOException e) {
+						fail(CLIENT_ERROR);
+						throw e;
+					} finally {
+						add(CLIENT_WRITE, System.nanoTime() - start);
+					}
+				}
+
+				@Override
+				public void close() throws IOException {
+					client.close();
+				}
+			};
+		}
+
+		/**
+		 * Records the phases that took place and the counters of the request,
+		 * once. Phases still running are ended first.
+		 */
+		public void finish() {
+			if(finished) return;
+			finished = true;
+			for(int phase = 0; phase < TOTAL; phase++) {
+				end(phase);
+			}
+			add(TOTAL, System.nanoTime() - started[TOTAL]);
+			if(!tracked) return;
+			active.decrement();
+			for(int phase = 0; phase < PHASES.length; phase++) {
+				if((seen & 1 << phase) != 0) {
+					histogram(phase, protocol, outcome).record(TimeUnit.NANOSECONDS.toMicros(durations[phase]));
+				}
+			}
+			requests[protocol * OUTCOMES.length + outcome].increment();
+			if(source != -1) responses[source].increment();
+			clientBytes[protocol].add(bytes);
+		}
+	}
+
+	/**
+	 * Starts serving the metrics at /metrics on a daemon thread, unless the
+	 * port is 0 or less.
+	 */
+	public static void startListener() {
+		if(PORT <= 0) return;
+		ServerSocket server;
+		try {
+			server = new ServerSocket();
+			server.bind(new InetSocketAddress(InetAddress.getByName(HOST), PORT), 10);
+		} catch(IOException e) {
+			Log.error("ProxyMetrics: Could not listen on " + HOST + ":" + PORT + ": " + e);
+			return;
+		}
+		Log.info("Metrics: http://" + HOST + ":" + PORT + "/metrics");
+		Thread thread = new Thread(() -> listen(server), "proxy-metrics");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/*
+	 * Answers one scrape at a time, each on a connection of its own.
+	 */
+	private static void listen(ServerSocket server) {
+		while(true) {
+			try(Socket connection = server.accept()) {
+				connection.setSoTimeout(2000);
+				String path = readPath(connection.getInputStream());
+				OutputStream out = connection.getOutputStream();
+				if(path == null) {
+					out.write("HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes(UTF8));
+				} else if(path.equals("/metrics") || path.startsWith("/metrics?")) {
+					scrapes.increment();
+					byte[] body = scrape().getBytes(UTF8);
+					out.write(("HTTP/1.1 200 OK\r\n"
+							+ "Content-Type: text/plain; version=0.0.4; charset=utf-8\r\n"
+							+ "Content-Length: " + body.length + "\r\n"
+							+ "Connection: close\r\n\r\n").getBytes(UTF8));
+					out.write(body);
+				} else {
+					out.write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\nConnection: close\r\n\r\n".getBytes(UTF8));
+				}
+				out.flush();
+			} catch(IOException e) {
+				Log.debug(() -> "ProxyMetrics: Scrape failed: " + e);
+			} catch(RuntimeException e) {
+				Log.error("Unexpected error: " + e);
+			}
+		}
+	}
+
+	/*
+	 * Reads the request head and returns the path of a GET, or null.
+	 */
+	private static String readPath(InputStream in) throws IOException {
+		byte[] head = new byte[8192];
+		int length = 0;
+		while(length < 4 || head[length - 1] != '\n' || (head[length - 2] != '\n' && head[length - 3] != '\n')) {
+			if(length == head.length) return null;
+			int read = in.read(head, length, head.length - length);
+			if(read == -1) break;
+			length += read;
+		}
+		String line = new String(head, 0, length, UTF8);
+		int end = line.indexOf('\r');
+		String[] pieces = (end == -1 ? line : line.substring(0, end)).split(" ");
+		if(pieces.length < 2 || !pieces[0].equals("GET")) return null;
+		return pieces[1];
+	}
+
+	/**
+	 * Returns every metric in the Prometheus text format.
+	 *
+	 * @return the metrics
+	 */
+	public static String scrape() {
+		StringBuilder out = new StringBuilder(16 * 1024);
+		header(out, "proxy_connections_accepted_total", "counter", "Client connections accepted.");
+		out.append("proxy_connections_accepted_total ").append(accepted.sum()).append('\n');
+		header(out, "proxy_connections_accept_errors_total", "counter", "Client connections that failed to be accepted.");
+		out.append("proxy_connections_accept_errors_total ").append(acceptErrors.sum()).append('\n');
+		header(out, "proxy_connections_active", "gauge", "Client connections being handled.");
+		out.append("proxy_connections_active ").append(active.sum()).append('\n');
+
+		header(out, "proxy_requests_total", "counter", "Requests handled, by protocol and outcome.");
+		for(int protocol = 0; protocol < PROTOCOLS.length; protocol++) {
+			for(int outcome = 0; outcome < OUTCOMES.length; outcome++) {
+				long count = requests[protocol * OUTCOMES.length + outcome].sum();
+				if(count == 0) continue;
+				out.append("proxy_requests_total{protocol=\"").append(PROTOCOLS[protocol])
+						.append("\",outcome=\"").append(OUTCOMES[outcome]).append("\"} ").append(count).append('\n');
+			}
+		}
+		header(out, "proxy_responses_total", "counter", "Responses sent, by where they came from.");
+		for(int source = 0; source < SOURCES.length; source++) {
+			out.append("proxy_responses_total{source=\"").append(SOURCES[source]).append("\"} ")
+					.append(responses[source].sum()).append('\n');
+		}
+		header(out, "proxy_client_bytes_total", "counter", "Bytes written to clients, by protocol.");
+		for(int protocol = 0; protocol < PROTOCOLS.length; protocol++) {
+			out.append("proxy_client_bytes_total{protocol=\"").append(PROTOCOLS[protocol]).append("\"} ")
+					.append(clientBytes[protocol].sum()).append('\n');
+		}
+
+		header(out, "proxy_phase_duration_seconds", "histogram",
+				"Time spent in each phase of a request, by protocol and outcome.");
+		for(int phase = 0; phase < PHASES.length; phase++) {
+			for(int protocol = 0; protocol < PROTOCOLS.length; protocol++) {
+				for(int outcome = 0; outcome < OUTCOMES.length; outcome++) {
+					LatencyHistogram histogram = histograms.get((phase * PROTOCOLS.length + protocol) * OUTCOMES.length + outcome);
+					if(histogram == null) continue;
+					String labels = "phase=\"" + PHASES[phase] + "\",protocol=\"" + PROTOCOLS[protocol]
+							+ "\",outcome=\"" + OUTCOMES[outcome] + "\"";
+					appendHistogram(out, "proxy_phase_duration_seconds", labels, histogram);
+				}
+			}
+		}
+
+		SheddingExecutor queue = workQueue;
+		if(queue != null) {
+			header(out, "proxy_queue_length", "gauge", "Connections waiting for a thread.");
+			out.append("proxy_queue_length ").append(queue.getQueueLength()).append('\n');
+			header(out, "proxy_queue_capacity", "gauge", "The most connections that can wait for a thread.");
+			out.append("proxy_queue_capacity ").append(queue.getQueueCapacity()).append('\n');
+			header(out, "proxy_queue_refused_total", "counter",
+					"Connections refused, because the queue was full or they waited too long in it.");
+			out.append("proxy_queue_refused_total{reason=\"full\"} ").append(queue.getRejected()).append('\n');
+			out.append("proxy_queue_refused_total{reason=\"timeout\"} ").append(queue.getShed()).append('\n');
+		}
+		HttpConnectionPool httpPool = HTTPClientStub.getPool();
+		int open = httpPool.getOpen();
+		int idle = httpPool.getIdle();
+		header(out, "proxy_http_pool_connections", "gauge", "Connections to remote HTTP servers, by state.");
+		out.append("proxy_http_pool_connections{state=\"idle\"} ").append(idle).append('\n');
+		out.append("proxy_http_pool_connections{state=\"leased\"} ").append(Math.max(open - idle, 0)).append('\n');
+		single(out, "proxy_http_pool_hosts", "gauge", "Remote HTTP server addresses the pool keeps connections for.",
+				httpPool.getHostCount());
+		single(out, "proxy_http_pool_created_total", "counter", "Connections opened to remote HTTP servers.", httpPool.getCreated());
+		single(out, "proxy_http_pool_reused_total", "counter", "Requests sent over a pooled connection.", httpPool.getReused());
+		header(out, "proxy_http_pool_closed_total", "counter",
+				"Pooled connections closed, because they sat idle too long or failed the check before reuse.");
+		out.append("proxy_http_pool_closed_total{reason=\"idle\"} ").append(httpPool.getEvicted()).append('\n');
+		out.append("proxy_http_pool_closed_total{reason=\"failed_check\"} ").append(httpPool.getFailedChecks()).append('\n');
+		single(out, "proxy_http_pool_wait_timeouts_total", "counter",
+				"Requests that found no free connection to their host in time.", httpPool.getTimeouts());
+
+		FtpSessionPool ftpPool = FTPClientStub.getPool();
+		single(out, "proxy_ftp_pool_idle_sessions", "gauge", "Logged in FTP sessions waiting to be reused.", ftpPool.getIdle());
+		single(out, "proxy_ftp_pool_created_total", "counter", "FTP sessions logged in.", ftpPool.getCreated());
+		single(out, "proxy_ftp_pool_reused_total", "counter", "FTP sessions reused.", ftpPool.getReused());
+		header(out, "proxy_ftp_pool_closed_total", "counter",
+				"Idle FTP sessions closed, because they sat idle too long or failed a NOOP.");
+		out.append("proxy_ftp_pool_closed_total{reason=\"idle\"} ").append(ftpPool.getExpired()).append('\n');
+		out.append("proxy_ftp_pool_closed_total{reason=\"failed_check\"} ").append(ftpPool.getFailedChecks()).append('\n');
+		single(out, "proxy_ftp_transfers_total", "counter", "FTP transfers started.", FTPClientStub.getTransfers());
+		single(out, "proxy_ftp_transfers_failed_total", "counter", "FTP transfers that did not complete.",
+				FTPClientStub.getFailedTransfers());
+		single(out, "proxy_ftp_transfer_bytes_total", "counter", "Bytes relayed from FTP servers.",
+				FTPClientStub.getTotalBytesTransferred());
+
+		ResponseCache cache = ConnectionHandler.getCache();
+		DiskCache diskCache = ConnectionHandler.getDiskCache();
+		single(out, "proxy_cache_entries", "gauge", "Responses in the memory cache.", cache.getEntryCount());
+		single(out, "proxy_cache_bytes", "gauge", "Size of the responses in the memory cache.", cache.getSize());
+		header(out, "proxy_cache_capacity_bytes", "gauge", "Size of each cache tier.");
+		out.append("proxy_cache_capacity_bytes{tier=\"memory\"} ").append(cache.getCapacity()).append('\n');
+		if(diskCache != null) {
+			out.append("proxy_cache_capacity_bytes{tier=\"disk\"} ").append(diskCache.getCapacity()).append('\n');
+		}
+		header(out, "proxy_cache_lookups_total", "counter", "Cache lookups, by tier and result.");
+		out.append("proxy_cache_lookups_total{tier=\"memory\",result=\"hit\"} ").append(cache.getHits()).append('\n');
+		out.append("proxy_cache_lookups_total{tier=\"memory\",result=\"miss\"} ").append(cache.getMisses()).append('\n');
+		if(diskCache != null) {
+			out.append("proxy_cache_lookups_total{tier=\"disk\",result=\"hit\"} ").append(diskCache.getHits()).append('\n');
+			out.append("proxy_cache_lookups_total{tier=\"disk\",result=\"miss\"} ").append(diskCache.getMisses()).append('\n');
+		}
+		single(out, "proxy_cache_evictions_total", "counter", "Responses evicted from the memory cache.", cache.getEvictions());
+		single(out, "proxy_cache_rejections_total", "counter", "Responses the admission policy kept out of the memory cache.",
+				cache.getRejections());
+		single(out, "proxy_cache_revalidations_total", "counter", "Stale responses the remote server confirmed unchanged.",
+				cache.getRevalidations());
+		if(diskCache != null) {
+			single(out, "proxy_disk_cache_writes_total", "counter", "Responses written to the disk cache.", diskCache.getWrites());
+			single(out, "proxy_disk_cache_dropped_total", "counter", "Responses the disk cache had no room for.",
+					diskCache.getDropped());
+			single(out, "proxy_disk_cache_recycled_total", "counter", "Disk cache segments emptied for new responses.",
+					diskCache.getRecycled());
+		}
+
+		RequestCoalescer coalescer = ConnectionHandler.getCoalescer();
+		single(out, "proxy_coalesce_in_flight", "gauge", "Fetches that still take followers.", coalescer.getInFlight());
+		header(out, "proxy_coalesce_requests_total", "counter",
+				"Requests that made a fetch (leader) or shared one under way (follower).");
+		out.append("proxy_coalesce_requests_total{role=\"leader\"} ").append(coalescer.getLeaders()).append('\n');
+		out.append("proxy_coalesce_requests_total{role=\"follower\"} ").append(coalescer.getFollowers()).append('\n');
+		single(out, "proxy_coalesce_shared_bytes_total", "counter", "Bytes sent to followers from a shared fetch.",
+				coalescer.getSharedBytes());
+
+		HedgingPolicy hedging = HedgingPolicy.getShared();
+		header(out, "proxy_hedge_delay_seconds", "gauge",
+				"How long a GET waits for its first byte before it is hedged, -1 while not hedging.");
+		long delay = hedging.getDelayMicros();
+		out.append("proxy_hedge_delay_seconds ")
+				.append(delay < 0 ? "-1" : String.format(Locale.US, "%.6f", delay / 1e6)).append('\n');
+		header(out, "proxy_hedges_total", "counter",
+				"Hedged GETs, by whether the hedge or the first request answered first, or could not be sent.");
+		out.append("proxy_hedges_total{result=\"won\"} ").append(hedging.getWon()).append('\n');
+		out.append("proxy_hedges_total{result=\"lost\"} ").append(hedging.getLost()).append('\n');
+		out.append("proxy_hedges_total{result=\"failed\"} ").append(hedging.getFailed()).append('\n');
+		header(out, "proxy_hedges_throttled_total", "counter", "Hedges not sent because the hedge budget was spent.");
+		out.append("proxy_hedges_throttled_total ").append(hedging.getThrottled()).append('\n');
+		header(out, "proxy_log_dropped_total", "counter", "Log messages dropped because the log queue was full.");
+		out.append("proxy_log_dropped_total ").append(Log.getDropped()).append('\n');
+		header(out, "proxy_log_queue_depth", "gauge", "Log messages waiting to be printed.");
+		out.append("proxy_log_queue_depth ").append(Log.getDepth()).append('\n');
+		DnsCache dns = DnsCache.getShared();
+		header(out, "proxy_dns_lookup_duration_seconds", "histogram",
+				"Time of the host lookups made by the DNS cache, by whether the host was found.");
+		appendHistogram(out, "proxy_dns_lookup_duration_seconds", "result=\"found\"", dns.getLookupTimes(true));
+		appendHistogram(out, "proxy_dns_lookup_duration_seconds", "result=\"unknown\"", dns.getLookupTimes(false));
+		single(out, "proxy_dns_cache_entries", "gauge", "Hosts held by the DNS cache.", dns.getEntryCount());
+		single(out, "proxy_dns_cache_evictions_total", "counter", "Hosts dropped from the DNS cache, expired or for room.",
+				dns.getEvictions());
+		single(out, "proxy_dns_hits_total", "counter", "Lookups answered with a cached address.", dns.getHits());
+		single(out, "proxy_dns_misses_total", "counter", "Lookups the DNS cache had no live answer for.", dns.getMisses());
+		single(out, "proxy_dns_negative_hits_total", "counter", "Lookups answered from a cached failure.",
+				dns.getNegativeHits());
+		single(out, "proxy_dns_refreshes_total", "counter", "Cached hosts refreshed in the background before they expired.",
+				dns.getRefreshes());
+		header(out, "proxy_metrics_scrapes_total", "counter", "Scrapes of this endpoint.");
+		out.append("proxy_metrics_scrapes_total ").append(scrapes.sum()).append('\n');
+		return out.toString();
+	}
+
+	private static void header(StringBuilder out, String name, String type, String help) {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	/*
+	 * Writes a metric with a single value and no labels.
+	 */
+	private static void single(StringBuilder out, String name, String type, String help, long value) {
+		header(out, name, type, help);
+		out.append(name).append(' ').append(value).append('\n');
+	}
+
+	/*
+	 * Writes a histogram as cumulative Prometheus buckets. The bucket a bound
+	 * falls in is counted whole, so a bucket may take in values up to one
+	 * percent above its bound.
+	 */
+	private static void appendHistogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+		long count = histogram.getTotalCount();
+		for(int i = 0; i < BUCKETS.length; i++) {
+			out.append(name).append("_bucket{").append(labels).append(",le=\"").append(BUCKET_LABELS[i]).append("\"} ")
+					.append(Math.min(histogram.getCountAtOrBelow(BUCKETS[i]), count)).append('\n');
+		}
+		out.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(count).append('\n');
+		out.append(name).append("_sum{").append(labels).append("} ")
+				.append(String.format(Locale.US, "%.6f", histogram.getSum() / 1e6)).append('\n');
+		out.append(name).append("_count{").append(labels).append("} ").append(count).append('\n');
+	}
+}
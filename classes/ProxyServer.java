@@ -2,16 +2,17 @@
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
 * title: ProxyServer.java
 * to compile: javac -cp commons-net-3.6.jar; ProxyServer.java
-* to run: java -cp commons-net-3.6.jar;. ProxyServer
+* to run: java -cp commons-net-3.6.jar;. ProxyServer [pool|virtual|nio]
 * description: A proxy server is a special-purpose HTTP server; it is the core application for this project.
 * 				The proxy server has two socket connections. It listens for communication from clients
 * 				through one and launches requests to specific Web servers through the other.
@@ -24,54 +25,96 @@ public class ProxyServer {
 	
 	// the proxy's default port
 	private final int PORT = 8000;
+	// the threads of the pool
+	private static final int THREADS = 100;
+	// the most connections waiting for a thread, more are refused at once
+	private static final int QUEUE_CAPACITY = Integer.getInteger("proxy.queue.capacity", 1000);
+	// the longest wait for a thread while the queue is standing, and otherwise, in milliseconds
+	private static final long CODEL_TARGET = Long.getLong("proxy.codel.targetMillis", 10);
+	private static final long CODEL_INTERVAL = Long.getLong("proxy.codel.intervalMillis", 100);
 	
 	/**
 	 * starts the proxy server and accepts connections from clients.
 	 * Each client connection is handled by a separate Runnable object.
 	 * The Runnable object is of class ConnectionHandler.
+	 *
+	 * @param pool the executor that runs the connection handlers
 	 */
-	private void start() {
-		// a pool that handles multiple connections
-		ExecutorService pool = Executors.newFixedThreadPool(100);
+	private void start(ExecutorService pool) {
 		
 		// create an InetAddress object for the proxy server
 		InetAddress local = null;
 		try {
 			local = InetAddress.getByName("localhost");
 		} catch(UnknownHostException e) {
-			System.out.println("Proxy: Unkown host");
+			Log.error("Proxy: Unkown host");
 		}
 		
-		// start accepting connections from clients
-		try(ServerSocket proxyServer = new ServerSocket(PORT, 100, local)) {
-			System.out.println("Server: " + proxyServer.getInetAddress() 
+		// start accepting connections from clients, through a channel so every
+		// client socket has a channel that cached responses can be sent through
+		try(ServerSocketChannel channel = ServerSocketChannel.open()) {
+			ServerSocket proxyServer = channel.socket();
+			proxyServer.bind(new InetSocketAddress(local, PORT), 100);
+
+			Log.info("Server: " + proxyServer.getInetAddress() 
             						+ "\tPort: " + proxyServer.getLocalPort());
-			System.out.println("Accepting Connections...");
+			Log.info("Accepting Connections...");
 			
 			while(true) {
 				try {
 					Socket connection = proxyServer.accept();
-					System.out.println();
-					System.out.println("Client: " + connection.getInetAddress() 
+					ProxyMetrics.Request metrics = ProxyMetrics.accepted();
+					Log.debug(() -> "Client: " + connection.getInetAddress() 
 									+ " Port: " + connection.getPort()
 									+ "\tis connected");
-					System.out.println();
-					pool.submit(new ConnectionHandler(connection));
+					pool.execute(new ConnectionHandler(connection, metrics));
 				} catch(IOException e) {
-					System.out.println("Proxy: Unable to accept connection");
+					Log.warn("Proxy: Unable to accept connection");
+					ProxyMetrics.acceptFailed();
 				} catch(RuntimeException e) {
-					System.out.println("Unexpected error: " + e);
+					Log.error("Unexpected error: " + e);
 				}
 			}
 		} catch(IOException e) {
-			System.out.println("Proxy: Could not start server: " + e);
+			Log.error("Proxy: Could not start server: " + e);
+		}
+	}
+	
+	/**
+	 * starts the non-blocking engine, a few event loops (one per core)
+	 * handle every client connection instead of one thread each.
+	 */
+	private void startNio() {
+		InetAddress local = null;
+		try {
+			local = InetAddress.getByName("localhost");
+		} catch(UnknownHostException e) {
+			Log.error("Proxy: Unkown host");
 		}
 		
+		int loops = Runtime.getRuntime().availableProcessors();
+		new NioProxyServer(local, PORT, loops).start();
 	}
 	
 	public static void main(String[] args) {
 		
 		ProxyServer proxy = new ProxyServer();
-		proxy.start();
+		// the engine is picked on the command line, the thread pool is the default
+		if(args.length == 1 && args[0].equals("nio")) {
+			ProxyMetrics.startListener();
+			proxy.startNio();
+		} else if(args.length == 1 && args[0].equals("virtual")) {
+			// every connection gets its own virtual thread
+			ProxyMetrics.startListener();
+			proxy.start(VirtualThreads.newThreadPerTaskExecutor());
+		} else if(args.length == 0 || args[0].equals("pool")) {
+			// a pool that handles multiple connections, refusing them when it falls behind
+			SheddingExecutor pool = new SheddingExecutor(THREADS, QUEUE_CAPACITY, CODEL_TARGET, CODEL_INTERVAL);
+			ProxyMetrics.setWorkQueue(pool);
+			ProxyMetrics.startListener();
+			proxy.start(pool);
+		} else {
+			System.out.println("Usage: java ProxyServer [pool|virtual|nio]");
+		}
 	}
 }
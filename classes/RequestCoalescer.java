@@ -0,0 +1,377 @@
+//package client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+* title: RequestCoalescer.java
+* to compile: javac RequestCoalescer.java
+* description: Lets concurrent requests for the same resource share one fetch from the
+* 				remote server. The first request for a key that is not being fetched
+* 				becomes the leader: it fetches as usual and everything it sends its own
+* 				client is also kept in the flight. Requests for the key arriving while
+* 				the fetch is under way follow it: they are sent the bytes kept so far
+* 				and then the rest as the leader writes it, so every client gets the
+* 				same response streamed, and the remote server is asked once. The bytes
+* 				are only kept while the fetch is in flight. Once a flight has kept
+* 				more than the shared limit it takes no new followers, and from then
+* 				on it keeps only the bytes a follower has not read yet, at most the
+* 				shared limit of them: a follower that falls further behind the
+* 				leader is cut off. A leader whose client goes away keeps fetching
+* 				for its followers.
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+public class RequestCoalescer {
+
+	// the size of the blocks a flight keeps its bytes in
+	private static final int BLOCK_SIZE = 16 * 1024;
+
+	// the fetches under way, by key
+	private final ConcurrentHashMap<String, Transfer> flights = new ConcurrentHashMap<>();
+	// the most bytes a flight keeps while it still takes followers, and
+	// the furthest a follower may fall behind once it takes no more
+	private final long maxSharedBytes;
+
+	// statistics
+	private final AtomicLong leaders = new AtomicLong();
+	private final AtomicLong followers = new AtomicLong();
+	private final AtomicLong sharedBytes = new AtomicLong();
+
+	/**
+	 * Instantiates a new request coalescer.
+	 *
+	 * @param maxSharedBytes the most bytes a flight keeps while it still takes followers,
+	 * 			and the furthest a follower may fall behind after that
+	 */
+	public RequestCoalescer(long maxSharedBytes) {
+		this.maxSharedBytes = maxSharedBytes;
+	}
+
+	/**
+	 * Joins the fetch of a key, leading it if none is under way.
+	 *
+	 * @param key the key of the resource, the normalized URL
+	 * @return the flight, see Flight.isLeader()
+	 */
+	public Flight join(String key) {
+		while(true) {
+			Transfer transfer = flights.get(key);
+			if(transfer == null) {
+				Transfer created = new Transfer(key);
+				transfer = flights.putIfAbsent(key, created);
+				if(transfer == null) {
+					leaders.incrementAndGet();
+					return new Flight(created, null);
+				}
+			}
+			Reader reader = transfer.attach();
+			if(reader != null) {
+				followers.incrementAndGet();
+				return new Flight(transfer, reader);
+			}
+			// it takes no more followers, a new flight is started in its place
+			flights.remove(key, transfer);
+		}
+	}
+
+	/**
+	 * Returns the share of requests that followed a fetch instead of making one.
+	 *
+	 * @return the coalescing ratio, between 0 and 1
+	 */
+	public double getCoalescingRatio() {
+		long led = leaders.get();
+		long followed = followers.get();
+		return led + followed == 0 ? 0 : (double) followed / (led + followed);
+	}
+
+	/**
+	 * Returns the number of fetches that still take followers.
+	 *
+	 * @return the count
+	 */
+	public int getInFlight() {
+		return flights.size();
+	}
+
+	public long getLeaders() {
+		return leaders.get();
+	}
+
+	public long getFollowers() {
+		return followers.get();
+	}
+
+	/**
+	 * Returns the bytes sent to followers, which the remote server was not asked for again.
+	 *
+	 * @return the byte count
+	 */
+	public long getSharedBytes() {
+		return sharedBytes.get();
+	}
+
+	/**
+	 * The part a request plays in a fetch, leading it or following it.
+	 */
+	public class Flight {
+		private final Transfer transfer;
+		// how far a follower has read, null for the leader
+		private final Reader reader;
+
+		private Flight(Transfer transfer, Reader reader) {
+			this.transfer = transfer;
+			this.reader = reader;
+		}
+
+		/**
+		 * Returns whether this request makes the fetch. A follower only calls follow().
+		 *
+		 * @return true for the leader
+		 */
+		public boolean isLeader() {
+			return reader == null;
+		}
+
+		/**
+		 * Returns the stream the leader writes its response to: the bytes go to
+		 * its client and are kept for the followers. Once the client fails the
+		 * bytes are only kept, so the fetch goes on for the followers.
+		 *
+		 * @param client the stream to the leader's client
+		 * @return the stream to write the response to
+		 */
+		public OutputStream getOutput(OutputStream client) {
+			return new OutputStream() {
+				private boolean clientFailed;
+
+				@Override
+				public void write(int b) throws IOException {
+					write(new byte[] {(byte) b}, 0, 1);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					transfer.append(b, off, len);
+					if(clientFailed) return;
+					try {
+						client.write(b, off, len);
+					} catch(IOException e) {
+						clientFailed = true;
+						if(!transfer.hasFollowers()) throw e;
+					}
+				}
+
+				@Override
+				public void flush() throws IOException {
+					if(clientFailed) return;
+					try {
+						client.flush();
+					} catch(IOException e) {
+						clientFailed = true;
+						if(!transfer.hasFollowers()) throw e;
+					}
+				}
+			};
+		}
+
+		/**
+		 * Ends the flight, called by the leader once the response is written,
+		 * whether the fetch succeeded or not. Followers get what was written.
+		 */
+		public void finish() {
+			flights.remove(transfer.key, transfer);
+			transfer.finish();
+		}
+
+		/**
+		 * Sends the leader's response to a follower's client as it is written,
+		 * returning once the leader is done, the client fails or it falls too
+		 * far behind the leader.
+		 *
+		 * @param client the stream to the follower's client
+		 * @return false if the client failed or was cut off
+		 */
+		public boolean follow(OutputStream client) {
+			return transfer.copyTo(reader, client);
+		}
+	}
+
+	/*
+	 * How far a follower has read, and whether it was cut off for falling
+	 * too far behind. Guarded by the lock of the transfer.
+	 */
+	private static class Reader {
+		private long position;
+		private boolean cutOff;
+	}
+
+	/*
+	 * The bytes of one fetch, appended by the leader and read by the followers.
+	 */
+	private class Transfer {
+		private final String key;
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Condition written = lock.newCondition();
+		// the blocks not yet read by every follower, the first one is block number firstBlock
+		private final List<byte[]> blocks = new ArrayList<>();
+		private long firstBlock;
+		private long size;
+		private final List<Reader> readers = new ArrayList<>();
+		private boolean joinable = true;
+		private boolean done;
+
+		Transfer(String key) {
+			this.key = key;
+		}
+
+		/*
+		 * Adds a follower reading from the start, unless the flight takes no more.
+		 */
+		Reader attach() {
+			lock.lock();
+			try {
+				if(!joinable) return null;
+				Reader reader = new Reader();
+				readers.add(reader);
+				return reader;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		boolean hasFollowers() {
+			lock.lock();
+			try {
+				return !readers.isEmpty();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/*
+		 * Keeps the bytes the leader writes, while anyone may still read them.
+		 */
+		void append(byte[] b, int off, int len) {
+			lock.lock();
+			try {
+				if(size + len > maxSharedBytes && joinable) {
+					// too large to keep for late arrivals
+					joinable = false;
+					flights.remove(key, this);
+				}
+				if(!joinable && readers.isEmpty()) {
+					// nobody is left to read them
+					blocks.clear();
+					return;
+				}
+				while(len > 0) {
+					long index = size / BLOCK_SIZE;
+					int offset = (int) (size % BLOCK_SIZE);
+					if(index == firstBlock + blocks.size()) blocks.add(new byte[BLOCK_SIZE]);
+					int length = Math.min(len, BLOCK_SIZE - offset);
+					System.arraycopy(b, off, blocks.get((int) (index - firstBlock)), offset, length);
+					size += length;
+					off += length;
+					len -= length;
+				}
+				release();
+				written.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/*
+		 * Once no one can join, cuts off the followers that fell more than the
+		 * shared limit behind and drops the blocks every follower has read.
+		 * Called with the lock held.
+		 */
+		private void release() {
+			if(joinable) return;
+			long slowest = size;
+			for(Reader reader : readers) {
+				if(size - reader.position > maxSharedBytes) {
+					reader.cutOff = true;
+				} else {
+					slowest = Math.min(slowest, reader.position);
+				}
+			}
+			int read = (int) (slowest / BLOCK_SIZE - firstBlock);
+			if(read > 0) {
+				blocks.subList(0, read).clear();
+				firstBlock += read;
+			}
+		}
+
+		void finish() {
+			lock.lock();
+			try {
+				joinable = false;
+				done = true;
+				written.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/*
+		 * Writes the bytes kept so far to a follower's client, then waits for
+		 * more until the leader is done. The client is written to without the
+		 * lock held, a block at a time.
+		 */
+		boolean copyTo(Reader reader, OutputStream client) {
+			long position = 0;
+			try {
+				while(true) {
+					byte[] block;
+					int offset;
+					int length;
+					lock.lock();
+					try {
+						reader.position = position;
+						release();
+						while(position == size && !done && !reader.cutOff) {
+							written.awaitUninterruptibly();
+						}
+						if(reader.cutOff) return false;
+						if(position == size) break;
+						block = blocks.get((int) (position / BLOCK_SIZE - firstBlock));
+						offset = (int) (position % BLOCK_SIZE);
+						length = (int) Math.min(size - position, BLOCK_SIZE - offset);
+					} finally {
+						lock.unlock();
+					}
+					client.write(block, offset, length);
+					position += length;
+					sharedBytes.addAndGet(length);
+				}
+				client.flush();
+				return true;
+			} catch(IOException e) {
+				return false;
+			} finally {
+				detach(reader);
+			}
+		}
+
+		private void detach(Reader reader) {
+			lock.lock();
+			try {
+				readers.remove(reader);
+				release();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+}
@@ -0,0 +1,350 @@
+//package client;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+* title: RequestContext.java
+* to compile: javac RequestContext.java
+* description: The state of the request Server is answering on one connection: the
+* 				request head, parsed in place from the bytes read off the socket, and
+* 				the response being built for it. Each connection has its own context,
+* 				reused from one request to the next, so handler threads never share
+* 				request state. The parser only records where the method, target,
+* 				version and header fields are in the buffer; a String is made only
+* 				when a value is asked for, and header names are matched byte by byte.
+* 				Bytes read past the end of a head are kept for the next, pipelined,
+* 				request.
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+public class RequestContext {
+
+	private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+	// the initial size of the buffer and the largest request head accepted
+	private static final int INITIAL_SIZE = 2048;
+	private static final int MAX_HEAD = 16 * 1024;
+	// the most header fields accepted in a request
+	private static final int MAX_HEADERS = 100;
+
+	private final InputStream in;
+	// the bytes read, the current request head starts at position and ends at headEnd
+	private byte[] buffer = new byte[INITIAL_SIZE];
+	private int position;
+	private int headEnd;
+	private int limit;
+
+	// where the parts of the request line are in the buffer
+	private int methodEnd;
+	private int targetStart;
+	private int pathEnd;
+	private int targetEnd;
+	private int versionStart;
+	private int versionEnd;
+	// where the header names and values are, four offsets per field
+	private final int[] fields = new int[MAX_HEADERS * 4];
+	private int fieldCount;
+	// made on demand
+	private String method;
+	private String target;
+
+	// the response, filled in by the handler
+	File file;	// the file which is requested and to be sent
+	String encoding;	// the charset named in the response
+	byte[] content;	// content of the response, null when it is sent from the file
+	byte[] header;	// the response header
+	long contentLength;	// length of the content in the response
+	String contentType;	// content-type of the response
+	int responseCode;	// response code
+
+	/**
+	 * Instantiates a new request context reading from a connection.
+	 *
+	 * @param in the connection input stream, read directly since the context buffers
+	 */
+	public RequestContext(InputStream in) {
+		this.in = in;
+	}
+
+	/**
+	 * Reads and parses the next request head, dropping the previous request
+	 * and its response. Empty lines before a request are skipped.
+	 *
+	 * @return false if the client closed the connection before a new request
+	 * @throws IOException if the head is malformed, too large or cut short
+	 */
+	public boolean next() throws IOException {
+		position = headEnd;
+		method = null;
+		target = null;
+		file = null;
+		encoding = null;
+		content = null;
+		header = null;
+		contentLength = 0;
+		contentType = null;
+		responseCode = 0;
+
+		int scanned = position;
+		while(true) {
+			while(position < limit && (buffer[position] == '\r' || buffer[position] == '\n')) position++;
+			scanned = Math.max(scanned, position);
+			int end = findHeadEnd(scanned);
+			if(end != -1) {
+				headEnd = end;
+				parse();
+				return true;
+			}
+			scanned = Math.max(position, limit - 3);
+			int shift = position;
+			if(!fill()) {
+				if(position < limit) throw new EOFException("Request ended early");
+				return false;
+			}
+			scanned -= shift - position;
+		}
+	}
+
+	/*
+	 * Finds the end of the blank line ending the head, from the given offset on.
+	 */
+	private int findHeadEnd(int from) {
+		for(int i = from; i < limit; i++) {
+			if(buffer[i] != '\n') continue;
+			if(i + 1 < limit && buffer[i + 1] == '\n') return i + 2;
+			if(i + 2 < limit && buffer[i + 1] == '\r' && buffer[i + 2] == '\n') return i + 3;
+		}
+		return -1;
+	}
+
+	/*
+	 * Moves the unparsed bytes to the start of the buffer, growing it if it is
+	 * full, and reads more. Returns false at the end of the stream.
+	 */
+	private boolean fill() throws IOException {
+		if(position > 0) {
+			System.arraycopy(buffer, position, buffer, 0, limit - position);
+			limit -= position;
+			position = 0;
+		}
+		headEnd = 0;
+		if(limit == buffer.length) {
+			if(buffer.length >= MAX_HEAD) throw new IOException("Request head too large");
+			buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, MAX_HEAD));
+		}
+		int read = in.read(buffer, limit, buffer.length - limit);
+		if(read == -1) return false;
+		limit += read;
+		return true;
+	}
+
+	/*
+	 * Records where the request line parts and the header fields are.
+	 */
+	private void parse() throws IOException {
+		int lineEnd = position;
+		while(buffer[lineEnd] != '\n') lineEnd++;
+		int stop = buffer[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+
+		methodEnd = indexOf(' ', position, stop);
+		if(methodEnd == -1) methodEnd = stop;
+		targetStart = Math.min(methodEnd + 1, stop);
+		targetEnd = indexOf(' ', targetStart, stop);
+		if(targetEnd == -1) {
+			// no version, an HTTP/0.9 request
+			targetEnd = stop;
+			versionStart = versionEnd = stop;
+		} else {
+			versionStart = targetEnd + 1;
+			versionEnd = stop;
+		}
+		pathEnd = indexOf('?', targetStart, targetEnd);
+		if(pathEnd == -1) pathEnd = targetEnd;
+
+		fieldCount = 0;
+		int start = lineEnd + 1;
+		while(start < headEnd) {
+			lineEnd = indexOf('\n', start, headEnd);
+			if(lineEnd == -1) break;
+			stop = lineEnd > start && buffer[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+			int colon = indexOf(':', start, stop);
+			if(colon > start) {
+				if(fieldCount == MAX_HEADERS) throw new IOException("Too many header fields");
+				int field = fieldCount++ * 4;
+				fields[field] = start;
+				fields[field + 1] = trimEnd(start, colon);
+				fields[field + 2] = trimStart(colon + 1, stop);
+				fields[field + 3] = trimEnd(fields[field + 2], stop);
+			}
+			start = lineEnd + 1;
+		}
+	}
+
+	private int indexOf(char c, int from, int to) {
+		for(int i = from; i < to; i++) {
+			if(buffer[i] == c) return i;
+		}
+		return -1;
+	}
+
+	private int trimStart(int from, int to) {
+		while(from < to && (buffer[from] == ' ' || buffer[from] == '\t')) from++;
+		return from;
+	}
+
+	private int trimEnd(int from, int to) {
+		while(to > from && (buffer[to - 1] == ' ' || buffer[to - 1] == '\t')) to--;
+		return to;
+	}
+
+	/*
+	 * Compares part of the buffer with a lower case ASCII string, ignoring case.
+	 */
+	private boolean matches(int from, int to, String lowerCase) {
+		if(to - from != lowerCase.length()) return false;
+		for(int i = 0; i < lowerCase.length(); i++) {
+			int b = buffer[from + i];
+			if(b >= 'A' && b <= 'Z') b += 'a' - 'A';
+			if(b != lowerCase.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Returns the index of the first field with the given name, or -1.
+	 */
+	private int field(String lowerCaseName) {
+		for(int i = 0; i < fieldCount * 4; i += 4) {
+			if(matches(fields[i], fields[i + 1], lowerCaseName)) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns whether there are bytes of another request already read.
+	 *
+	 * @return true if a pipelined request is waiting
+	 */
+	public boolean hasBuffered() {
+		return headEnd < limit;
+	}
+
+	/**
+	 * Returns whether the request line names a protocol version.
+	 *
+	 * @return false for HTTP/0.9 requests
+	 */
+	public boolean isHttp() {
+		return versionEnd - versionStart > 5 && matches(versionStart, versionStart + 5, "http/");
+	}
+
+	public boolean isHttp10() {
+		return matches(versionStart, versionEnd, "http/1.0");
+	}
+
+	public boolean isHttp11() {
+		return matches(versionStart, versionEnd, "http/1.1");
+	}
+
+	/**
+	 * Returns whether the request has the given method, without making a String.
+	 *
+	 * @param name the method, upper case
+	 * @return true if it matches
+	 */
+	public boolean isMethod(String name) {
+		if(methodEnd - position != name.length()) return false;
+		for(int i = 0; i < name.length(); i++) {
+			if(buffer[position + i] != name.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	public String getMethod() {
+		if(method == null) method = new String(buffer, position, methodEnd - position, LATIN1);
+		return method;
+	}
+
+	/**
+	 * Returns the request target, path and query.
+	 *
+	 * @return the target
+	 */
+	public String getTarget() {
+		if(target == null) target = new String(buffer, targetStart, targetEnd - targetStart, LATIN1);
+		return target;
+	}
+
+	/**
+	 * Returns the path of the request target, without the query.
+	 *
+	 * @return the path
+	 */
+	public String getPath() {
+		return new String(buffer, targetStart, pathEnd - targetStart, LATIN1);
+	}
+
+	/**
+	 * Returns whether the path is just "/".
+	 *
+	 * @return true for the root
+	 */
+	public boolean isRootPath() {
+		return pathEnd - targetStart == 1 && buffer[targetStart] == '/';
+	}
+
+	/**
+	 * Returns the value of a query parameter.
+	 *
+	 * @param name the parameter name, lower case
+	 * @return the value, or null if the parameter is absent
+	 */
+	public String getParameter(String name) {
+		int start = pathEnd + 1;
+		while(start < targetEnd) {
+			int end = indexOf('&', start, targetEnd);
+			if(end == -1) end = targetEnd;
+			int equals = indexOf('=', start, end);
+			if(equals != -1 && matches(start, equals, name)) {
+				return new String(buffer, equals + 1, end - equals - 1, LATIN1);
+			}
+			start = end + 1;
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the value of a header field.
+	 *
+	 * @param name the field name, lower case
+	 * @return the value, or null if the field is absent
+	 */
+	public String getHeader(String name) {
+		int field = field(name);
+		if(field == -1) return null;
+		return new String(buffer, fields[field + 2], fields[field + 3] - fields[field + 2], LATIN1);
+	}
+
+	/**
+	 * Returns whether a header field contains a token, ignoring case,
+	 * without making a String.
+	 *
+	 * @param name the field name, lower case
+	 * @param token the token, lower case
+	 * @return true if the field is present and contains the token
+	 */
+	public boolean headerContains(String name, String token) {
+		int field = field(name);
+		if(field == -1) return false;
+		for(int i = fields[field + 2]; i + token.length() <= fields[field + 3]; i++) {
+			if(matches(i, i + token.length(), token)) return true;
+		}
+		return false;
+	}
+}
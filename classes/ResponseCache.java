@@ -0,0 +1,683 @@
+//package client;
+
+import java.net.URL;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+* title: ResponseCache.java
+* to compile: javac ResponseCache.java
+* description: An in-memory cache of HTTP responses kept by the proxy, keyed by the
+* 				normalized URL. How long a response stays fresh is taken from its
+* 				Cache-Control, Expires and Last-Modified headers. The cache is bounded
+* 				by the total size of the responses it holds and evicts with W-TinyLFU:
+* 				new responses enter a small LRU window, and a response leaving the window
+* 				only replaces one in the main segmented LRU if it has been asked for more
+* 				often, as counted by a compact frequency sketch. A scan of one-off URLs
+* 				therefore cannot flush the popular ones.
+* 				Reads never take a lock: the map is concurrent and accesses are recorded
+* 				in striped, lossy ring buffers that are applied to the eviction policy
+* 				in batches by whoever holds the policy lock next.
+* 				Evicted responses that are still fresh are handed to an eviction
+* 				listener, outside the lock, so a lower cache tier can keep them.
+* 				Stale responses stay until evicted so they can be revalidated with
+* 				a conditional request and made fresh again on a 304.
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+public class ResponseCache {
+
+	// the regions of the eviction policy an entry can be in
+	private static final int NONE = 0;
+	private static final int WINDOW = 1;
+	private static final int PROBATION = 2;
+	private static final int PROTECTED = 3;
+
+	// the window holds 1% of the capacity, the protected segment 80% of the rest
+	private static final double WINDOW_SHARE = 0.01;
+	private static final double PROTECTED_SHARE = 0.80;
+	// the size a response is assumed to have when sizing the frequency sketch
+	private static final int AVERAGE_ENTRY_SIZE = 8 * 1024;
+	// freshness given to a response that only has Last-Modified, as a share of its age
+	private static final double HEURISTIC_SHARE = 0.10;
+	// the longest heuristic freshness, in milliseconds
+	private static final long MAX_HEURISTIC = 24L * 60 * 60 * 1000;
+
+	// the number of read buffers and the slots in each one
+	private static final int READ_BUFFERS =
+			Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+	private static final int READ_BUFFER_SIZE = 64;
+
+	// the cached responses
+	private final ConcurrentHashMap<String, Entry> data = new ConcurrentHashMap<>();
+	// the total size of the cached responses, in bytes
+	private final long capacity;
+	// the largest response that is cached, in bytes
+	private final int maxEntrySize;
+
+	// everything below is guarded by the policy lock
+	private final ReentrantLock policyLock = new ReentrantLock();
+	private final FrequencySketch sketch;
+	private final AccessOrder window = new AccessOrder();
+	private final AccessOrder probation = new AccessOrder();
+	private final AccessOrder protectedSegment = new AccessOrder();
+	private final long windowMax;
+	private final long protectedMax;
+	private long windowSize;
+	private long protectedSize;
+	private long totalSize;
+
+	// the accesses waiting to be applied to the policy
+	private final ReadBuffer[] readBuffers = new ReadBuffer[READ_BUFFERS];
+	// the entries evicted under the policy lock, handed to the listener after it
+	private final List<Entry> evicted = new ArrayList<>();
+	// told about every fresh entry that is evicted
+	private volatile Consumer<Entry> evictionListener;
+
+	// statistics
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong rejections = new AtomicLong();
+	private final AtomicLong revalidations = new AtomicLong();
+
+	/**
+	 * Instantiates a new response cache.
+	 *
+	 * @param capacity the total size of the cached responses, in bytes
+	 * @param maxEntrySize the largest response that is cached, in bytes
+	 */
+	public ResponseCache(long capacity, int maxEntrySize) {
+		this.capacity = capacity;
+		this.maxEntrySize = (int) Math.min(maxEntrySize, capacity);
+		this.windowMax = Math.max((long) (capacity * WINDOW_SHARE), 1);
+		this.protectedMax = (long) ((capacity - windowMax) * PROTECTED_SHARE);
+		this.sketch = new FrequencySketch((int) Math.max(capacity / AVERAGE_ENTRY_SIZE, 64));
+		for(int i = 0; i < readBuffers.length; i++) {
+			readBuffers[i] = new ReadBuffer();
+		}
+	}
+
+	/**
+	 * Sets the listener told about every evicted entry that is still fresh.
+	 *
+	 * @param listener the listener
+	 */
+	public void setEvictionListener(Consumer<Entry> listener) {
+		this.evictionListener = listener;
+	}
+
+	/**
+	 * Returns the cache key of a URL: lower case scheme and host, no default port,
+	 * "/" for an empty path and no fragment.
+	 *
+	 * @param url the URL
+	 * @return the key
+	 */
+	public static String normalize(URL url) {
+		StringBuilder key = new StringBuilder(64);
+		key.append(url.getProtocol().toLowerCase())
+			.append("://")
+			.append(url.getHost().toLowerCase());
+		if(url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+			key.append(':').append(url.getPort());
+		}
+		key.append(url.getPath().isEmpty() ? "/" : url.getPath());
+		return key.toString();
+	}
+
+	/**
+	 * Returns the fresh response cached for a key.
+	 *
+	 * @param key the normalized URL
+	 * @return the entry, or null if nothing fresh is cached
+	 */
+	public Entry get(String key) {
+		Entry entry = data.get(key);
+		if(entry == null || !entry.isFresh(System.currentTimeMillis())) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		recordAccess(entry);
+		return entry;
+	}
+
+	/**
+	 * Returns the response cached for a key even if it is no longer fresh, so it
+	 * can be revalidated with the server instead of being fetched again.
+	 *
+	 * @param key the normalized URL
+	 * @return the entry, or null if nothing is cached
+	 */
+	public Entry getStale(String key) {
+		return data.get(key);
+	}
+
+	/**
+	 * Makes a stale response fresh again after the server answered its
+	 * revalidation with 304, taking the freshness from the merged headers.
+	 *
+	 * @param stale the entry that was revalidated
+	 * @param notModified the 304 response
+	 * @return true if the response is cached again
+	 */
+	public boolean refresh(Entry stale, HttpResponseHead notModified) {
+		revalidations.incrementAndGet();
+		HttpResponseHead head = stale.head.updatedWith(notModified);
+		long now = System.currentTimeMillis();
+		long expires = freshUntil(head, now);
+		if(expires < 0) return false;
+		insert(new Entry(stale.key, head, stale.response, expires), now);
+		return true;
+	}
+
+	/**
+	 * Caches a response if its headers allow it.
+	 *
+	 * @param key the normalized URL
+	 * @param head the status line and headers of the response
+	 * @param response the whole response, head and body
+	 * @return true if the response was cached
+	 */
+	public boolean put(String key, HttpResponseHead head, byte[] response) {
+		long now = System.currentTimeMillis();
+		long expires = freshUntil(head, now);
+		if(expires < 0 || response.length > maxEntrySize) {
+			return false;
+		}
+		insert(new Entry(key, head, response, expires), now);
+		return true;
+	}
+
+	/*
+	 * Adds an entry to the window, replacing any entry with the same key, and evicts.
+	 */
+	private void insert(Entry entry, long now) {
+		List<Entry> removed = null;
+		policyLock.lock();
+		try {
+			drainReadBuffers();
+			Entry old = data.put(entry.key, entry);
+			if(old != null) {
+				unlink(old);
+			}
+			sketch.increment(entry.hash);
+			entry.region = WINDOW;
+			window.addLast(entry);
+			windowSize += entry.size;
+			totalSize += entry.size;
+			evict();
+			if(!evicted.isEmpty()) {
+				removed = new ArrayList<>(evicted);
+				evicted.clear();
+			}
+		} finally {
+			policyLock.unlock();
+		}
+		notifyEvicted(removed, now);
+	}
+
+	/*
+	 * Hands the fresh entries among the evicted ones to the eviction listener.
+	 */
+	private void notifyEvicted(List<Entry> removed, long now) {
+		Consumer<Entry> listener = evictionListener;
+		if(removed == null || listener == null) return;
+		for(Entry entry : removed) {
+			if(entry.isFresh(now)) {
+				listener.accept(entry);
+			}
+		}
+	}
+
+	/**
+	 * Returns the time until which a response is fresh, or -1 if it may not be
+	 * stored. A response marked no-cache is stored but is stale right away.
+	 *
+	 * @param head the status line and headers of the response
+	 * @param now the current time in milliseconds
+	 * @return the time in milliseconds, or -1
+	 */
+	static long freshUntil(HttpResponseHead head, long now) {
+		if(head.getCode() != 200) return -1;
+		String vary = head.getHeader("vary");
+		if(vary != null && vary.contains("*")) return -1;
+
+		String cacheControl = head.getHeader("cache-control");
+		if(cacheControl != null) {
+			cacheControl = cacheControl.toLowerCase();
+			if(cacheControl.contains("no-store") || cacheControl.contains("private")) return -1;
+			if(cacheControl.contains("no-cache")) return now;
+			long maxAge = directive(cacheControl, "s-maxage");
+			if(maxAge < 0) maxAge = directive(cacheControl, "max-age");
+			if(maxAge >= 0) return now + maxAge * 1000;
+		}
+
+		long expires = parseDate(head.getHeader("expires"));
+		if(head.getHeader("expires") != null) {
+			// an invalid date means already expired
+			if(expires < 0) return now;
+			long date = parseDate(head.getHeader("date"));
+			return date < 0 ? expires : now + (expires - date);
+		}
+
+		long lastModified = parseDate(head.getHeader("last-modified"));
+		if(lastModified >= 0 && lastModified <= now) {
+			return now + Math.min((long) ((now - lastModified) * HEURISTIC_SHARE), MAX_HEURISTIC);
+		}
+		return -1;
+	}
+
+	/*
+	 * Returns the number of seconds of a Cache-Control directive, or -1 if absent.
+	 */
+	private static long directive(String cacheControl, String name) {
+		int index = cacheControl.indexOf(name + "=");
+		// make sure max-age does not match the end of s-maxage
+		while(index > 0 && Character.isLetterOrDigit(cacheControl.charAt(index - 1))) {
+			index = cacheControl.indexOf(name + "=", index + 1);
+		}
+		if(index < 0) return -1;
+		int start = index + name.length() + 1;
+		int end = start;
+		while(end < cacheControl.length() && Character.isDigit(cacheControl.charAt(end))) end++;
+		try {
+			return Long.parseLong(cacheControl.substring(start, end));
+		} catch(NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Parses an HTTP date.
+	 *
+	 * @param value the header value
+	 * @return the time in milliseconds, or -1 if absent or invalid
+	 */
+	static long parseDate(String value) {
+		if(value == null) return -1;
+		try {
+			return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+		} catch(DateTimeParseException e) {
+			return -1;
+		}
+	}
+
+	/*
+	 * Records a read in the read buffer of the calling thread, and applies the
+	 * buffered reads to the policy once a buffer is half full and the lock is free.
+	 */
+	private void recordAccess(Entry entry) {
+		ReadBuffer buffer = readBuffers[(int) Thread.currentThread().getId() & (READ_BUFFERS - 1)];
+		long index = buffer.writes.getAndIncrement();
+		buffer.slots.lazySet((int) (index & (READ_BUFFER_SIZE - 1)), entry);
+		if((index & (READ_BUFFER_SIZE / 2 - 1)) == 0 && policyLock.tryLock()) {
+			try {
+				drainReadBuffers();
+			} finally {
+				policyLock.unlock();
+			}
+		}
+	}
+
+	/*
+	 * Applies the buffered reads to the policy. Reads that were overwritten
+	 * before being drained are lost, which only makes the policy a bit less exact.
+	 */
+	private void drainReadBuffers() {
+		for(ReadBuffer buffer : readBuffers) {
+			long writes = buffer.writes.get();
+			long start = Math.max(buffer.reads, writes - READ_BUFFER_SIZE);
+			for(long i = start; i < writes; i++) {
+				Entry entry = buffer.slots.getAndSet((int) (i & (READ_BUFFER_SIZE - 1)), null);
+				if(entry != null) {
+					onAccess(entry);
+				}
+			}
+			buffer.reads = writes;
+		}
+	}
+
+	/*
+	 * Moves an entry that was read to the most recently used end of its region,
+	 * promoting it to the protected segment if it was on probation.
+	 */
+	private void onAccess(Entry entry) {
+		sketch.increment(entry.hash);
+		switch(entry.region) {
+			case WINDOW:
+				window.moveToLast(entry);
+				break;
+			case PROBATION:
+				probation.remove(entry);
+				entry.region = PROTECTED;
+				protectedSegment.addLast(entry);
+				protectedSize += entry.size;
+				// demote the least recently used protected entries back to probation
+				while(protectedSize > protectedMax) {
+					Entry demoted = protectedSegment.first();
+					protectedSegment.remove(demoted);
+					protectedSize -= demoted.size;
+					demoted.region = PROBATION;
+					probation.addLast(demoted);
+				}
+				break;
+			case PROTECTED:
+				protectedSegment.moveToLast(entry);
+				break;
+			default:
+				// the entry was removed after it was read
+		}
+	}
+
+	/*
+	 * Moves the entries that overflow the window to probation, then evicts until
+	 * the cache fits its capacity. Each entry leaving the window competes with the
+	 * least recently used entry on probation and the less frequently used one goes.
+	 */
+	private void evict() {
+		Entry candidates = null;
+		while(windowSize > windowMax && window.first() != null) {
+			Entry entry = window.first();
+			window.remove(entry);
+			windowSize -= entry.size;
+			entry.region = PROBATION;
+			probation.addLast(entry);
+			if(candidates == null) candidates = entry;
+		}
+
+		while(totalSize > capacity) {
+			Entry victim = probation.first();
+			if(victim == null) victim = protectedSegment.first();
+			if(victim == null) victim = window.first();
+			if(victim == null) break;
+
+			Entry candidate = candidates;
+			if(candidate != null && candidate.region == PROBATION && candidate != victim) {
+				candidates = candidate.next;
+				if(sketch.frequency(candidate.hash) <= sketch.frequency(victim.hash)) {
+					// the newcomer is not asked for more often, it is the one to go
+					rejections.incrementAndGet();
+					victim = candidate;
+				}
+			} else {
+				candidates = null;
+			}
+			remove(victim);
+		}
+	}
+
+	/*
+	 * Removes an entry from the map and the policy.
+	 */
+	private void remove(Entry entry) {
+		data.remove(entry.key, entry);
+		unlink(entry);
+		evictions.incrementAndGet();
+		if(evictionListener != null) {
+			evicted.add(entry);
+		}
+	}
+
+	/*
+	 * Takes an entry out of the region it is in.
+	 */
+	private void unlink(Entry entry) {
+		switch(entry.region) {
+			case WINDOW:
+				window.remove(entry);
+				windowSize -= entry.size;
+				break;
+			case PROBATION:
+				probation.remove(entry);
+				break;
+			case PROTECTED:
+				protectedSegment.remove(entry);
+				protectedSize -= entry.size;
+				break;
+			default:
+				return;
+		}
+		totalSize -= entry.size;
+		entry.region = NONE;
+	}
+
+	/**
+	 * Returns the largest response that is cached.
+	 *
+	 * @return the size in bytes
+	 */
+	public int getMaxEntrySize() {
+		return maxEntrySize;
+	}
+
+	/**
+	 * Returns the number of responses in the cache.
+	 *
+	 * @return the count
+	 */
+	public int getEntryCount() {
+		return data.size();
+	}
+
+	/**
+	 * Returns the total size of the responses in the cache.
+	 *
+	 * @return the size in bytes
+	 */
+	public long getSize() {
+		policyLock.lock();
+		try {
+			return totalSize;
+		} finally {
+			policyLock.unlock();
+		}
+	}
+
+	public long getCapacity() {
+		return capacity;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Returns the number of responses the admission policy kept out.
+	 *
+	 * @return the count
+	 */
+	public long getRejections() {
+		return rejections.get();
+	}
+
+	public long getRevalidations() {
+		return revalidations.get();
+	}
+
+	/**
+	 * A cached response.
+	 */
+	public static class Entry {
+		private final String key;
+		private final int hash;
+		private final HttpResponseHead head;
+		private final byte[] response;
+		private final int size;
+		// the time until which the response is fresh, in milliseconds
+		private final long expires;
+
+		// the policy region and list links, guarded by the policy lock
+		private int region;
+		private Entry prev;
+		private Entry next;
+
+		private Entry(String key, HttpResponseHead head, byte[] response, long expires) {
+			this.key = key;
+			this.hash = key.hashCode();
+			this.head = head;
+			this.response = response;
+			this.size = response.length;
+			this.expires = expires;
+		}
+
+		/**
+		 * Returns whether the response can be served without asking the server.
+		 *
+		 * @param now the current time in milliseconds
+		 * @return true if fresh
+		 */
+		public boolean isFresh(long now) {
+			return now < expires;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * Returns the time until which the response is fresh.
+		 *
+		 * @return the time in milliseconds
+		 */
+		public long getExpires() {
+			return expires;
+		}
+
+		public HttpResponseHead getHead() {
+			return head;
+		}
+
+		/**
+		 * Returns the whole response, head and body. The array is shared and must not be changed.
+		 *
+		 * @return the response
+		 */
+		public byte[] getResponse() {
+			return response;
+		}
+	}
+
+	/*
+	 * A doubly linked list of entries from least to most recently used.
+	 */
+	private static class AccessOrder {
+		private Entry head;
+		private Entry tail;
+
+		Entry first() {
+			return head;
+		}
+
+		void addLast(Entry entry) {
+			entry.prev = tail;
+			entry.next = null;
+			if(tail == null) head = entry;
+			else tail.next = entry;
+			tail = entry;
+		}
+
+		void remove(Entry entry) {
+			if(entry.prev == null) head = entry.next;
+			else entry.prev.next = entry.next;
+			if(entry.next == null) tail = entry.prev;
+			else entry.next.prev = entry.prev;
+			entry.prev = null;
+			entry.next = null;
+		}
+
+		void moveToLast(Entry entry) {
+			if(entry != tail) {
+				remove(entry);
+				addLast(entry);
+			}
+		}
+	}
+
+	/*
+	 * A ring of recent reads written by any thread and drained under the policy lock.
+	 */
+	private static class ReadBuffer {
+		private final AtomicReferenceArray<Entry> slots = new AtomicReferenceArray<>(READ_BUFFER_SIZE);
+		private final AtomicLong writes = new AtomicLong();
+		private long reads;
+	}
+
+	/*
+	 * A count-min sketch of 4-bit counters estimating how often each key was
+	 * asked for. All counters are halved once enough increments have been made,
+	 * so the sketch forgets old popularity.
+	 */
+	private static class FrequencySketch {
+		private static final long[] SEEDS = {
+			0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+		};
+		private static final long RESET_MASK = 0x7777777777777777L;
+
+		private final long[] table;
+		private final int mask;
+		private final int sampleSize;
+		private int additions;
+
+		FrequencySketch(int expectedEntries) {
+			int length = Integer.highestOneBit(Math.max(expectedEntries, 16) - 1) << 1;
+			table = new long[length];
+			mask = length - 1;
+			sampleSize = 10 * length;
+		}
+
+		int frequency(int hash) {
+			int frequency = Integer.MAX_VALUE;
+			for(int i = 0; i < 4; i++) {
+				long h = spread(hash, i);
+				int index = (int) h & mask;
+				int offset = (int) ((h >>> 32) & 15) << 2;
+				frequency = Math.min(frequency, (int) ((table[index] >>> offset) & 15));
+			}
+			return frequency;
+		}
+
+		void increment(int hash) {
+			boolean added = false;
+			for(int i = 0; i < 4; i++) {
+				long h = spread(hash, i);
+				int index = (int) h & mask;
+				int offset = (int) ((h >>> 32) & 15) << 2;
+				if(((table[index] >>> offset) & 15) != 15) {
+					table[index] += 1L << offset;
+					added = true;
+				}
+			}
+			if(added && ++additions == sampleSize) {
+				for(int i = 0; i < table.length; i++) {
+					table[i] = (table[i] >>> 1) & RESET_MASK;
+				}
+				additions /= 2;
+			}
+		}
+
+		private static long spread(int hash, int i) {
+			long h = (hash + SEEDS[i]) * SEEDS[i];
+			return h ^ (h >>> 29);
+		}
+	}
+}
@@ -2,21 +2,27 @@
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
 import java.nio.file.*;
 import java.util.concurrent.*;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * title: Server.java
  * compile: javac Server.java
- * run: java Server serverAddress rootDirectory
+ * run: java Server serverAddress rootDirectory [virtual]
  * description: Provides multiple files, it is a working HTTP server.
  * 				This server is able to display HTML web pages as well
  * 				as embedded multimedia content such as .pdf files or
  * 				images (.jpg or .png). This server can be accessed by
- * 				any web browser.
+ * 				any web browser. Connections are kept alive as HTTP/1.1
+ * 				asks, so a page and its assets load over one connection.
  *
  * @date: July 10, 2018
  * @author Zakaria Bakkal
@@ -24,19 +30,62 @@ import java.util.Date;
  */
 class Server {
 
+    private static final int MAX_RANGES = 16;	// the most byte ranges served in one response
+    private static final int LISTING_CHUNK_SIZE = 8 * 1024;	// the size of the chunks of a directory listing
+    private static final String DEFAULT_ENCODING = "UTF-8";	// default encoding
+    // the 404 and 501 responses never change, they are built once
+    private static final byte[] NOT_FOUND = new StringBuilder("<html>\r\n")
+            .append("<head><title>File Not Found</title>\r\n")
+            .append("<head>\r\n")
+            .append("<body>")
+            .append("<h1>HTTP Error 404: File Not Found</h1>\r\n")
+            .append("</body></html>\r\n").toString().getBytes(Charset.forName("US-ASCII"));
+    private static final byte[] NOT_FOUND_HEADER = ("HTTP/1.1 404 File Not Found\r\n"
+            + "Server: " + "HTTPServer" + "\r\n"
+            + "Content-length: " + NOT_FOUND.length + "\r\n"
+            + "Content-type: " + "text/html; charset=utf-8" + "\r\n\r\n").getBytes(Charset.forName("US-ASCII"));
+    private static final byte[] NOT_IMPLEMENTED_HEADER = ("HTTP/1.1 501 Not Implemented\r\n"
+            + "Server: " + "HTTPServer" + "\r\n"
+            + "Content-length: " + 0 + "\r\n"
+            + "Content-type: " + "text/html; charset=utf-8" + "\r\n"
+            + "Connection: close" + "\r\n\r\n").getBytes(Charset.forName("US-ASCII"));
+    // sent to a connection refused because the server is overloaded
+    private static final byte[] SERVICE_UNAVAILABLE_HEADER = ("HTTP/1.1 503 Service Unavailable\r\n"
+            + "Server: " + "HTTPServer" + "\r\n"
+            + "Retry-After: 1" + "\r\n"
+            + "Content-length: " + 0 + "\r\n"
+            + "Connection: close" + "\r\n\r\n").getBytes(Charset.forName("US-ASCII"));
     private String serverAddress;	// the host server, must be modified to start the local server
     private String root;	// the root where the server resides, must be modified as needed
     private String homePage = "/index.html";	// the home page of the HTTP server, must be modified as needed
-    private byte[] content; 	// content of the server response message
-    private int contentLength;	// length of the content in the server response message
-    private String contentType;	// content-type of the server response message
-    private byte[] header;	// headers
-    private File file;	// the file which is requested and to be sent
-    private String fileName;	// used to manipulate the requested file to be sent
     private int port = 800;	// default port
-    private String encoding = "UTF-8";	// default encoding
-    private int responseCode;	// server response code
-    private String method;	// HTTP request message method
+
+    // the files served, kept in memory with their response header
+    private final StaticFileCache fileCache = new StaticFileCache(
+            Long.getLong("server.cache.bytes", 32L * 1024 * 1024),
+            Long.getLong("server.cache.maxEntryBytes", 1024 * 1024),
+            Long.getLong("server.cache.checkMillis", 1000),
+            Long.getLong("server.sendfile.threshold", 64 * 1024),
+            Long.getLong("server.gzip.minBytes", 1024),
+            Long.getLong("server.gzip.maxBytes", 16L * 1024 * 1024));
+
+    // how long an idle persistent connection is kept open, in milliseconds
+    private final int keepAliveTimeout = Integer.getInteger("server.keepalive.timeout", 5000);
+    // the most requests served on one connection before it is closed
+    private final int maxRequests = Integer.getInteger("server.keepalive.maxRequests", 100);
+    // the access log, null when it is turned off with -Dserver.accesslog=
+    private final AccessLog accessLog = openAccessLog();
+    // the most connections waiting for a thread, more are refused at once
+    private final int queueCapacity = Integer.getInteger("server.queue.capacity", 1000);
+    // the longest wait for a thread while the queue is standing, and otherwise, in milliseconds
+    private final long codelTarget = Long.getLong("server.codel.targetMillis", 10);
+    private final long codelInterval = Long.getLong("server.codel.intervalMillis", 100);
+    // whether a refused connection gets a 503, or is just closed
+    private final boolean rejectWith503 = !"close".equals(System.getProperty("server.queue.reject", "503"));
+    // how often the statistics are printed, in milliseconds, 0 for only at shutdown
+    private final long statsInterval = Long.getLong("server.stats.intervalMillis", 60000);
+    // the access log records dropped as of the last report
+    private long reportedDrops;
 
     /**
      * Instantiates a new server, by initializing serverAdress and root
@@ -53,11 +102,20 @@ class Server {
     /**
      * Creates a pool of threads that takes care of each connections request.
      * Then, it starts accepting connections. , then submits the connection
-     * to the ConnectionHandler object.
+     * to the ConnectionHandler object. Connections that find the queue of the
+     * pool full, or wait in it too long, are refused with a 503.
      * 
      */
     public void start() {
-		ExecutorService pool = Executors.newFixedThreadPool(100);
+        start(new SheddingExecutor(100, queueCapacity, codelTarget, codelInterval));
+    }
+
+    /**
+     * Accepts connections and submits each one to the given executor.
+     *
+     * @param pool the executor that runs the connection handlers
+     */
+    public void start(ExecutorService pool) {
 		// holds the InetAddress of the server
 		InetAddress local = null;
     	try {
@@ -66,11 +124,15 @@ class Server {
             System.out.println("Server: Unknown Host \"" + serverAddress + "\"");
         }
 		
-    	// start accepting connections
-        try (ServerSocket server = new ServerSocket(this.port, 100, local)) {
+    	// start accepting connections, through a channel so the connections
+    	// have socket channels that large files can be transferred to
+        try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+            ServerSocket server = channel.socket();
+            server.bind(new InetSocketAddress(local, this.port), 100);
             System.out.println("Server: " + server.getInetAddress() 
                     + "\tPort: " + server.getLocalPort());
             System.out.println("Accepting Connections...");
+            startReports(pool);
             
             while(true) {
 				try {
@@ -79,7 +141,7 @@ class Server {
 		            System.out.println("Accepted connection...");
 		            System.out.println("Client: " + connection.getInetAddress()
 		                      + "\tPort: " + connection.getPort());
-		            pool.submit(new Handler(connection) {});
+		            pool.execute(new Handler(connection));
 		        } catch (IOException ex) {
 		            System.out.println("Exception accepting connection" + ex);
 				} catch (RuntimeException ex) {
@@ -95,7 +157,7 @@ class Server {
      * handles individual client connections made to the server.
      * 
      * */
-    private class Handler implements Callable<Void> {
+    private class Handler implements Callable<Void>, Runnable, SheddingExecutor.Rejectable {
         private final Socket connection;
 
         /**
@@ -107,150 +169,77 @@ class Server {
         	this.connection = connection;
         }
 
+        @Override
+        public void run() {
+            try {
+                call();
+            } catch (IOException ex) {
+                System.out.println("Error closing connection" + ex);
+            }
+        }
+
         /*
-         * Retrieves requested files from the root directory and sends them back
-         * to the client, also constructs messages such as request messages and
-         * error messages and sends them to the client.
+         * Refuses the connection, the server is overloaded. The client gets a 503
+         * right away, unless server.queue.reject is close. What the client already
+         * sent is discarded without waiting, so the close does not reset the
+         * connection before the 503 is read.
+         * */
+        @Override
+        public void reject() {
+            try {
+                if(rejectWith503) {
+                    connection.getOutputStream().write(SERVICE_UNAVAILABLE_HEADER);
+                    InputStream in = connection.getInputStream();
+                    int unread = in.available();
+                    if(unread > 0) in.skip(unread);
+                    connection.shutdownOutput();
+                }
+            } catch (IOException ex) {
+                // the client is gone, nothing to refuse
+            } finally {
+                try {
+                    connection.close();
+                } catch (IOException ex) {
+                    // already closed
+                }
+            }
+        }
+
+        /*
+         * Serves the requests of a persistent connection in order, until the client
+         * closes it, asks for it to be closed, stays idle longer than the keep alive
+         * timeout or reaches the most requests served on one connection. Responses to
+         * pipelined requests are flushed together once no further request is waiting.
          * */
         @Override
         public Void call() throws IOException {
             try {
-            	// set up the input and output streams to communicate with the client
+            	// set up the input and output streams to communicate with the client,
+            	// the request context does its own buffering of the input
                 OutputStream out = new BufferedOutputStream(connection.getOutputStream());
-                InputStream in = new BufferedInputStream(connection.getInputStream());
-                
-                // read the first line only; that's all we need
-                StringBuilder request = new StringBuilder(80);
-                int c;
-                while(true) {
-                    c = in.read();
-                    if(c == '\r' || c == '\n' || c == -1) break;
-                    request.append((char) c);
-                }
-                // if this is HTTP/1.0 or later send a MIME header
-                if(request.toString().indexOf("HTTP/") != -1) {
-                    // get the request message method
-                    method = request.toString().substring(0, request.toString().indexOf(" "));
-                    // if the method is "GET" we proceed
-                    if(method.equals("GET")) {
-                        // set server response code to 200
-                        responseCode = 200;
-                        // find where the requested file starts
-                        int index = request.toString().toLowerCase().indexOf("/");
-                        // holds the index of the last character in the first line of the request message
-                        int endOfLine;
-                        // if the requested file is not specified we return the home page file "index.html"
-                        if(request.toString().charAt(index + 1) == ' ') {
-                            file = new File(root + homePage);
-                        } else {	// otherwise we extract the file from the request message
-                            endOfLine = request.toString().toLowerCase().indexOf(' ', index);
-                            // construct a file object from the root and the requested file name
-                            file = new File(root + request.toString().substring(index, endOfLine));
-                        }
+                InputStream in = connection.getInputStream();
+                RequestContext context = new RequestContext(in);
+                // an idle connection is closed once the keep alive timeout runs out
+                connection.setSoTimeout(keepAliveTimeout);
 
-                        // if the file requested exists
-                        if(file.canRead()) {
-                            // get the requested file name as a string
-                            fileName = request.toString().substring(request.toString().indexOf("/"), request.toString().length());
-                            // get all the file read to content
-                            content = Files.readAllBytes(file.toPath());
-                            // find out the file content type, in case the file is css
-                            // we set content type the the corresponding type otherwise we let java figure it out
-                            contentType = URLConnection.getFileNameMap().getContentTypeFor(file.toString());
-                            if(contentType == null) {
-                                if(file.toString().endsWith(".css")) {
-                                    contentType = "text/css";
-                                }
-                                if(file.toString().endsWith(".js")) {
-                                    contentType = "application/javascript";
-                                }
-                            }
-
-
-                            // calculate the file content length
-                            contentLength = content.length;
-                            // find the encoding of the request message desired
-                            index = request.toString().toLowerCase().indexOf("charset");
-                            // if the encoding is provided in the request message we exctract it from it
-                            // otherwise the encoding used is the default one
-                            if(index != -1) {
-                                endOfLine = request.toString().indexOf('\r', index);
-                                encoding = request.substring(index + 8, endOfLine);
-                            }
-
-                            // construct the response header
-                            String h = "HTTP/1.0 200 OK\r\n"
-                                    + "Server: OneFile 2.0\r\n"
-                                    + "Content-length: " + contentLength + "\r\n"
-                                    + "Content-type: " + contentType + "; charset= " 
-                                    + encoding + "\r\n\r\n";
-                            // transform it to a byte[] header
-                            header = h.getBytes(Charset.forName("US-ASCII"));
-                            // in this case the file is not found and the response is a 404 file not found
-                        } else {
-                            fileName = request.toString()
-                                    .substring(request.toString().indexOf("/")
-                                            , request.toString().length());
-                            // construct an html response to the client
-                            String fileNotFound = new StringBuilder("<html>\r\n")
-                                    .append("<head><title>File Not Found</title>\r\n")
-                                    .append("<head>\r\n")
-                                    .append("<body>")
-                                    .append("<h1>HTTP Error 404: File Not Found</h1>\r\n")
-                                    .append("</body></html>\r\n").toString();
-                            content = fileNotFound.getBytes(Charset.forName("US-ASCII"));
-                            contentLength = content.length;
-                            String h = "HTTP/1.0 404 File Not Found\r\n"
-                                    + "Server: " + "HTTPServer" + "\r\n"
-                                    + "Content-length:" + contentLength + "\r\n"
-                                    + "Content-type:"  + "text/html" + "\r\n"
-                                    + "charset=utf-8" + "\r\n\r\n";
-                            header = h.getBytes(Charset.forName("US-ASCII"));
-                            responseCode = 404;
-                        }
+                int served = 0;
+                while(true) {
+                    try {
+                        if(!context.next()) break;
+                    } catch (SocketTimeoutException ex) {
+                        break;
+                    }
+                    served++;
 
-                        out.write(header);
-                        out.write(content);
-                        out.write(0);
+                    boolean keepAlive = isKeepAlive(context) && served < maxRequests;
+                    keepAlive = respond(context, keepAlive, out);
+                    // flush once the pipelined requests already received are answered
+                    if(!keepAlive || (!context.hasBuffered() && in.available() == 0)) {
                         out.flush();
-
-                    } else {
-                        // set server response code to 501
-                        responseCode = 501;
-                        String h = "HTTP/1.0 501 Not Implemented\r\n"
-                                    + "Server: " + "HTTPServer" + "\r\n"
-                                    + "Content-length:" + 0 + "\r\n"
-                                    + "Content-type:"  + "text/html" + "\r\n"
-                                    + "charset=utf-8" + "\r\n\r\n";
-                        header = h.getBytes(Charset.forName("US-ASCII"));
                     }
-
-                    // after the server starts and accepts a valid connection and the connection has a valid request message
-                    // we start setting the info needed for the INFO logger
-
-                    // store the current date and time
-                    String date = new SimpleDateFormat("dd/MM/yyy:HH:mm:ss -z").format(new Date());
-                    // get the remote host address
-                    String remoteHost = connection.getRemoteSocketAddress().toString();
-                    // extract the desired remote address format
-                    remoteHost = remoteHost.substring(1, remoteHost.indexOf(":"));
-                    // this StringBuilder holds the whole message
-                    StringBuilder loggerInfo = new StringBuilder();
-                    loggerInfo.append(remoteHost)
-                    		  .append(" - - [")
-                    		  .append(date)
-                    		  .append("] ")
-                    		  .append("\"")
-                    		  .append(method)
-                    		  .append(" ")
-                    		  .append(fileName)
-                    		  .append("\" ")
-                    		  .append(responseCode)
-                    		  .append(" ")
-                    		  .append(contentLength)
-                    		  .append('\n');
+                    if(!keepAlive) break;
                 }
-                    
+                out.flush();
             } catch (IOException ex) {
                 System.out.println("Error writing to client" + ex);
             } finally {
@@ -260,20 +249,531 @@ class Server {
             return null;
             
         }
+
+        /*
+         * Retrieves requested files from the root directory and sends them back
+         * to the client, also constructs messages such as request messages and
+         * error messages and sends them to the client. Returns whether the
+         * connection stays open for another request.
+         * */
+        private boolean respond(RequestContext context, boolean keepAlive, OutputStream out)
+                throws IOException {
+            // if this is HTTP/1.0 or later send a MIME header
+            if(!context.isHttp()) return false;
+            boolean http10 = context.isHttp10();
+
+            // if the method is "GET" we proceed
+            if(context.isMethod("GET")) {
+                // set server response code to 200
+                context.responseCode = 200;
+                // if the requested file is not specified we return the home page file "index.html",
+                // otherwise we construct a file object from the root and the requested file name
+                context.file = new File(root + (context.isRootPath() ? homePage : context.getPath()));
+
+                // if the encoding is provided in the request we use it,
+                // otherwise the encoding used is the default one
+                context.encoding = context.getParameter("charset");
+                if(context.encoding == null) context.encoding = DEFAULT_ENCODING;
+
+                // the file with its content type and response header already built,
+                // straight from memory when it is cached and has not changed
+                StaticFileCache.Entry entry = fileCache.get(context.file, context.encoding);
+
+                // the byte ranges asked for, when a partial response is sent
+                List<long[]> ranges = null;
+                // the directory asked for, when it is listed
+                Path directory = entry == null ? findDirectory(context) : null;
+                // if the file requested exists
+                if(entry != null) {
+                    context.contentType = entry.getContentType();
+                    // a range is only served if the file is still the one the client has part of
+                    String range = context.getHeader("range");
+                    boolean ranged = range != null && ifRangeMatches(context.getHeader("if-range"), entry);
+                    // text files go compressed to clients that accept it, unless they
+                    // ask for a range, compressed once and then served from the cache
+                    StaticFileCache.Variant variant = null;
+                    if(entry.isCompressible() && !ranged) {
+                        String coding = chooseCoding(context);
+                        if(coding != null) {
+                            variant = fileCache.getVariant(entry, coding);
+                        }
+                    }
+                    String etag = variant != null ? variant.getETag() : entry.getETag();
+                    // a matching validator answers with 304 even when a range is asked for
+                    boolean notModified = isNotModified(context, etag, entry.getLastModified());
+                    ranges = ranged && !notModified ? parseRanges(range, entry.getLength()) : null;
+                    if(notModified) {
+                        // the client already has this version of the file
+                        context.responseCode = 304;
+                        context.header = withConnection(StaticFileCache.buildNotModifiedHeader(
+                                entry.getLastModified(), etag, entry.isCompressible()), keepAlive, http10);
+                    } else if(ranges != null) {
+                        context.responseCode = ranges.isEmpty() ? 416 : 206;
+                    } else if(variant != null) {
+                        context.content = variant.getContent();
+                        context.contentLength = context.content.length;
+                        context.header = withConnection(variant.getHeader(context.encoding), keepAlive, http10);
+                    } else {
+                        context.content = entry.getContent();
+                        // calculate the file content length
+                        context.contentLength = entry.getLength();
+                        context.header = withConnection(entry.getHeader(context.encoding), keepAlive, http10);
+                    }
+                    // a directory is listed, the listing is generated while it is sent
+                } else if(directory != null) {
+                    context.contentType = "text/html";
+                    // in this case the file is not found and the response is a 404 file not found
+                } else {
+                    context.content = NOT_FOUND;
+                    context.contentLength = NOT_FOUND.length;
+                    context.header = withConnection(NOT_FOUND_HEADER, keepAlive, http10);
+                    context.responseCode = 404;
+                }
+
+                if(context.responseCode == 304) {
+                    out.write(context.header);
+                } else if(ranges != null) {
+                    context.contentLength = sendRanges(out, entry, context.encoding, ranges, keepAlive, http10);
+                } else if(directory != null) {
+                    context.contentLength = sendListing(context, directory, keepAlive, http10, out);
+                } else if(entry == null || !send(out, context.header, context.content, entry)) {
+                    out.write(context.header);
+                    if(context.content != null) {
+                        out.write(context.content);
+                    } else {
+                        Files.copy(entry.getFile().toPath(), out);
+                    }
+                }
+
+            } else {
+                // set server response code to 501, the request may carry a body
+                // we do not read, so the connection is closed after the response
+                context.responseCode = 501;
+                keepAlive = false;
+                out.write(NOT_IMPLEMENTED_HEADER);
+            }
+
+            // the access log line is formatted and written by the log writer thread
+            if(accessLog != null) {
+                accessLog.log(connection.getInetAddress(), context.isMethod("GET") ? "GET" : context.getMethod(),
+                        context.getTarget(), context.responseCode, context.contentLength);
+            }
+
+            return keepAlive;
+        }
+
+        /*
+         * HTTP/1.1 connections persist unless the client asks to close them,
+         * HTTP/1.0 connections only if the client asks to keep them alive.
+         */
+        private boolean isKeepAlive(RequestContext context) {
+            if(context.headerContains("connection", "close")) return false;
+            return context.isHttp11() || context.headerContains("connection", "keep-alive");
+        }
+
+        /*
+         * Picks the content coding from Accept-Encoding, gzip before deflate.
+         * A coding with q=0 is refused, as is everything under "*;q=0".
+         * Returns null if the file is to be sent as it is.
+         */
+        private String chooseCoding(RequestContext context) {
+            String acceptEncoding = context.getHeader("accept-encoding");
+            if(acceptEncoding == null) return null;
+            boolean gzip = false;
+            boolean deflate = false;
+            boolean any = false;
+            boolean gzipRefused = false;
+            boolean deflateRefused = false;
+            for(String token : acceptEncoding.toLowerCase().split(",")) {
+                int semicolon = token.indexOf(';');
+                String coding = (semicolon == -1 ? token : token.substring(0, semicolon)).trim();
+                boolean refused = semicolon != -1 && token.substring(semicolon).replace(" ", "").matches(";q=0(\\.0*)?");
+                if(coding.equals("gzip") || coding.equals("x-gzip")) {
+                    gzip = !refused;
+                    gzipRefused = refused;
+                } else if(coding.equals("deflate")) {
+                    deflate = !refused;
+                    deflateRefused = refused;
+                } else if(coding.equals("*")) {
+                    any = !refused;
+                }
+            }
+            if(gzip || (any && !gzipRefused)) return "gzip";
+            if(deflate || (any && !deflateRefused)) return "deflate";
+            return null;
+        }
+
+        /*
+         * Returns whether the client already has the file: its If-None-Match lists
+         * the entity tag, or, without If-None-Match, the file has not changed since
+         * its If-Modified-Since date.
+         */
+        private boolean isNotModified(RequestContext context, String etag, long lastModified) {
+            String ifNoneMatch = context.getHeader("if-none-match");
+            if(ifNoneMatch != null) {
+                if(ifNoneMatch.trim().equals("*")) return true;
+                for(String tag : ifNoneMatch.split(",")) {
+                    tag = tag.trim();
+                    // weak comparison, as If-None-Match asks
+                    if(tag.startsWith("W/")) tag = tag.substring(2);
+                    if(tag.equals(etag)) return true;
+                }
+                return false;
+            }
+            long since = StaticFileCache.parseHttpDate(context.getHeader("if-modified-since"));
+            // HTTP dates have a one second resolution
+            return since >= 0 && lastModified / 1000 <= since / 1000;
+        }
+
+        /*
+         * Returns whether a range request applies: there is no If-Range, or it
+         * holds the current entity tag or the exact modification date.
+         */
+        private boolean ifRangeMatches(String ifRange, StaticFileCache.Entry entry) {
+            if(ifRange == null) return true;
+            ifRange = ifRange.trim();
+            if(ifRange.startsWith("\"")) return ifRange.equals(entry.getETag());
+            long date = StaticFileCache.parseHttpDate(ifRange);
+            return date >= 0 && date / 1000 == entry.getLastModified() / 1000;
+        }
+
+        /*
+         * Parses a Range header into inclusive first and last byte positions.
+         * Ranges that start past the end are dropped, so an empty list means the
+         * range cannot be satisfied. Returns null if the header is invalid, or asks
+         * for so many or such overlapping ranges that the whole file is sent instead.
+         */
+        private List<long[]> parseRanges(String value, long length) {
+            value = value.trim();
+            if(!value.regionMatches(true, 0, "bytes=", 0, 6)) return null;
+            List<long[]> ranges = new ArrayList<>();
+            long total = 0;
+            for(String spec : value.substring(6).split(",")) {
+                spec = spec.trim();
+                int dash = spec.indexOf('-');
+                if(dash == -1) return null;
+                long first;
+                long last;
+                try {
+                    if(dash == 0) {
+                        // the last bytes of the file
+                        long suffix = Long.parseLong(spec.substring(1).trim());
+                        if(suffix < 0) return null;
+                        if(suffix == 0) continue;
+                        first = Math.max(length - suffix, 0);
+                        last = length - 1;
+                    } else {
+                        first = Long.parseLong(spec.substring(0, dash).trim());
+                        last = dash == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash + 1).trim());
+                        if(first < 0 || last < first) return null;
+                        last = Math.min(last, length - 1);
+                    }
+                } catch (NumberFormatException ex) {
+                    return null;
+                }
+                if(first >= length) continue;
+                ranges.add(new long[] {first, last});
+                total += last - first + 1;
+                if(ranges.size() > MAX_RANGES || total > length) return null;
+            }
+            return ranges;
+        }
+
+        /*
+         * Sends a 206 response with one range, or several in a multipart/byteranges
+         * body, or a 416 response if none can be satisfied. Returns the body length.
+         */
+        private long sendRanges(OutputStream out, StaticFileCache.Entry entry, String encoding,
+                List<long[]> ranges, boolean keepAlive, boolean http10) throws IOException {
+            long length = entry.getLength();
+            if(ranges.isEmpty()) {
+                String h = "HTTP/1.1 416 Range Not Satisfiable\r\n"
+                        + "Server: " + "HTTPServer" + "\r\n"
+                        + "Content-length: " + 0 + "\r\n"
+                        + "Content-Range: bytes */" + length + "\r\n\r\n";
+                out.write(withConnection(h.getBytes(Charset.forName("US-ASCII")), keepAlive, http10));
+                return 0;
+            }
+            String type = entry.getContentType() + "; charset=" + encoding;
+            if(ranges.size() == 1) {
+                long[] range = ranges.get(0);
+                long count = range[1] - range[0] + 1;
+                out.write(withConnection(StaticFileCache.buildPartialHeader(count, type,
+                        "bytes " + range[0] + "-" + range[1] + "/" + length, entry.getLastModified(),
+                        entry.getETag()), keepAlive, http10));
+                writeRange(out, entry, range[0], count);
+                return count;
+            }
+
+            // the part headers are built first, the body length has to be known up front
+            String boundary = Long.toHexString(entry.getLastModified()) + Long.toHexString(System.nanoTime());
+            byte[][] parts = new byte[ranges.size()][];
+            byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(Charset.forName("US-ASCII"));
+            long total = end.length;
+            for(int i = 0; i < parts.length; i++) {
+                long[] range = ranges.get(i);
+                parts[i] = ("\r\n--" + boundary + "\r\n"
+                        + "Content-type: " + type + "\r\n"
+                        + "Content-Range: bytes " + range[0] + "-" + range[1] + "/" + length + "\r\n\r\n")
+                        .getBytes(Charset.forName("US-ASCII"));
+                total += parts[i].length + range[1] - range[0] + 1;
+            }
+            out.write(withConnection(StaticFileCache.buildPartialHeader(total,
+                    "multipart/byteranges; boundary=" + boundary, null, entry.getLastModified(),
+                    entry.getETag()), keepAlive, http10));
+            for(int i = 0; i < parts.length; i++) {
+                long[] range = ranges.get(i);
+                out.write(parts[i]);
+                writeRange(out, entry, range[0], range[1] - range[0] + 1);
+            }
+            out.write(end);
+            return total;
+        }
+
+        /*
+         * Writes part of a file, from memory when it is cached, otherwise from the
+         * file channel, transferred straight to the socket channel when there is one.
+         */
+        private void writeRange(OutputStream out, StaticFileCache.Entry entry, long first, long count)
+                throws IOException {
+            byte[] cached = entry.getContent();
+            if(cached != null) {
+                out.write(cached, (int) first, (int) count);
+                return;
+            }
+            try (FileChannel file = FileChannel.open(entry.getFile().toPath(), StandardOpenOption.READ)) {
+                SocketChannel channel = connection.getChannel();
+                long position = first;
+                long end = first + count;
+                if(channel != null && channel.isBlocking()) {
+                    // anything buffered goes out first
+                    out.flush();
+                    while(position < end) {
+                        long sent = file.transferTo(position, end - position, channel);
+                        if(sent <= 0) throw new IOException("File truncated while sending " + entry.getFile());
+                        position += sent;
+                    }
+                    return;
+                }
+                byte[] buffer = BufferPool.acquire();
+                try {
+                    ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+                    while(position < end) {
+                        wrapped.clear().limit((int) Math.min(buffer.length, end - position));
+                        int read = file.read(wrapped, position);
+                        if(read <= 0) throw new IOException("File truncated while sending " + entry.getFile());
+                        out.write(buffer, 0, read);
+                        position += read;
+                    }
+                } finally {
+                    BufferPool.release(buffer);
+                }
+            }
+        }
+
+        /*
+         * Returns the directory a request names, or null if it names none. Only
+         * directories inside the root are listed: a path with a ".." segment is
+         * refused, and the directory, with its links followed, must still be under
+         * the root.
+         */
+        private Path findDirectory(RequestContext context) {
+            String path = context.getPath();
+            for(String segment : path.split("/")) {
+                if(segment.equals("..")) return null;
+            }
+            try {
+                Path top = Paths.get(root).toRealPath();
+                Path directory = top.resolve(path.startsWith("/") ? path.substring(1) : path).normalize();
+                if(!Files.isDirectory(directory)) return null;
+                directory = directory.toRealPath();
+                return directory.startsWith(top) ? directory : null;
+            } catch (IOException | InvalidPathException ex) {
+                return null;
+            }
+        }
+
+        /*
+         * Sends the listing of a directory, generated entry by entry as it is written.
+         * Its length is not known up front, so HTTP/1.1 clients get it chunked: each
+         * chunk is sent as soon as it is full and the client sees the first entries
+         * while the rest are still being read from the disk. HTTP/1.0 clients cannot
+         * take chunks, for them the listing is built in memory and sent with its length.
+         * Returns the length of the listing.
+         */
+        private long sendListing(RequestContext context, Path directory, boolean keepAlive, boolean http10,
+                OutputStream out) throws IOException {
+            StringBuilder header = new StringBuilder(160)
+                    .append("HTTP/1.1 200 OK\r\n")
+                    .append("Server: OneFile 2.0\r\n")
+                    .append("Content-type: text/html; charset=utf-8\r\n");
+            if(http10) {
+                ByteArrayOutputStream listing = new ByteArrayOutputStream();
+                writeListing(context.getPath(), directory, listing);
+                header.append("Content-length: ").append(listing.size()).append("\r\n\r\n");
+                context.header = withConnection(header.toString().getBytes(Charset.forName("US-ASCII")), keepAlive, true);
+                out.write(context.header);
+                listing.writeTo(out);
+                return listing.size();
+            }
+            header.append("Transfer-Encoding: chunked\r\n\r\n");
+            context.header = withConnection(header.toString().getBytes(Charset.forName("US-ASCII")), keepAlive, false);
+            out.write(context.header);
+            ChunkedOutputStream chunks = new ChunkedOutputStream(out, LISTING_CHUNK_SIZE);
+            writeListing(context.getPath(), directory, chunks);
+            chunks.finish();
+            return chunks.getBytesWritten();
+        }
+
+        /*
+         * Writes the listing page of a directory, in the order the entries are read.
+         */
+        private void writeListing(String path, Path directory, OutputStream out) throws IOException {
+            String base = path.endsWith("/") ? path : path + "/";
+            Writer writer = new OutputStreamWriter(out, Charset.forName("UTF-8"));
+            writer.write("<html>\r\n<head><title>Index of " + escapeHtml(path) + "</title></head>\r\n"
+                    + "<body>\r\n<h1>Index of " + escapeHtml(path) + "</h1>\r\n<ul>\r\n");
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for(Path entry : entries) {
+                    String name = entry.getFileName() + (Files.isDirectory(entry) ? "/" : "");
+                    writer.write("<li><a href=\"" + escapeHtml(base + name) + "\">" + escapeHtml(name) + "</a></li>\r\n");
+                }
+            }
+            writer.write("</ul>\r\n</body></html>\r\n");
+            writer.flush();
+        }
+
+        private String escapeHtml(String text) {
+            return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+        }
+
+        /*
+         * Adds the Connection field to a header when the client has to be told:
+         * the connection is closing, or an HTTP/1.0 client gets to keep it alive.
+         * Otherwise the header is returned as is.
+         */
+        private byte[] withConnection(byte[] header, boolean keepAlive, boolean http10) {
+            if(keepAlive && !http10) return header;
+            byte[] field = (keepAlive ? "Connection: keep-alive\r\n\r\n" : "Connection: close\r\n\r\n")
+                    .getBytes(Charset.forName("US-ASCII"));
+            byte[] result = Arrays.copyOf(header, header.length - 2 + field.length);
+            System.arraycopy(field, 0, result, header.length - 2, field.length);
+            return result;
+        }
+
+        /*
+         * Writes the header and content straight to the socket channel: content in
+         * memory with a single gathering write, a file at or above the send file
+         * threshold with FileChannel.transferTo so its bytes never enter the Java heap.
+         * Returns false when the connection has no channel to write to.
+         */
+        private boolean send(OutputStream out, byte[] header, byte[] content, StaticFileCache.Entry entry)
+                throws IOException {
+            SocketChannel channel = connection.getChannel();
+            if(channel == null || !channel.isBlocking()) return false;
+            // anything buffered goes out first
+            out.flush();
+            ByteBuffer head = ByteBuffer.wrap(header);
+            if(content != null) {
+                ByteBuffer[] response = {head, ByteBuffer.wrap(content)};
+                while(response[1].hasRemaining()) {
+                    channel.write(response);
+                }
+                return true;
+            }
+            try (FileChannel file = FileChannel.open(entry.getFile().toPath(), StandardOpenOption.READ)) {
+                // the file may have shrunk since the header was built
+                long length = Math.min(entry.getLength(), file.size());
+                while(head.hasRemaining()) {
+                    channel.write(head);
+                }
+                long position = 0;
+                while(position < length) {
+                    long sent = file.transferTo(position, length - position, channel);
+                    if(sent <= 0) break;
+                    position += sent;
+                }
+                if(position < entry.getLength()) {
+                    throw new IOException("File truncated while sending " + entry.getFile());
+                }
+            }
+            return true;
+        }
+    }
+
+    /*
+     * Prints the statistics every statsInterval milliseconds, and once more
+     * when the server shuts down.
+     */
+    private void startReports(ExecutorService pool) {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> report(pool), "server-stats-exit"));
+        if(statsInterval <= 0) return;
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "server-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> report(pool), statsInterval, statsInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * Prints the access log, file cache and queue statistics. Records the
+     * access log dropped since the last report get a line of their own.
+     */
+    private synchronized void report(ExecutorService pool) {
+        if(accessLog != null) {
+            long dropped = accessLog.getDropped();
+            if(dropped > reportedDrops) {
+                System.out.println("Server: Access log dropped " + (dropped - reportedDrops)
+                        + " records, " + accessLog.getDepth() + " waiting");
+                reportedDrops = dropped;
+            }
+            System.out.println("Server: Access log " + accessLog.getStatistics());
+        }
+        System.out.println("Server: File cache " + fileCache.getStatistics());
+        if(pool instanceof SheddingExecutor) {
+            System.out.println("Server: Queue " + ((SheddingExecutor) pool).getStatistics());
+        }
+    }
+
+    /*
+     * Opens the access log named by server.accesslog, rotated at server.accesslog.maxBytes
+     * keeping server.accesslog.files old files. Returns null if it is turned off or
+     * could not be opened.
+     */
+    private static AccessLog openAccessLog() {
+        String path = System.getProperty("server.accesslog", "logs/access.log");
+        if(path.isEmpty()) return null;
+        try {
+            return new AccessLog(new File(path),
+                    Integer.getInteger("server.accesslog.capacity", 8192),
+                    Long.getLong("server.accesslog.maxBytes", 10L * 1024 * 1024),
+                    Integer.getInteger("server.accesslog.files", 5));
+        } catch (IOException ex) {
+            System.out.println("Server: Unable to open access log " + path + ": " + ex);
+            return null;
+        }
     }
 
 	public static void main(String[] args) {
 
             String serverAddress = "";
             String root = "";
-            if(args.length == 2) {
+            boolean virtual = false;
+            if(args.length == 2 || args.length == 3) {
                 serverAddress = args[0];
                 root = args[1];
+                // every connection gets its own virtual thread
+                virtual = args.length == 3 && args[2].equals("virtual");
             } else {
-		System.out.println("Usage: java Server host root");
+		System.out.println("Usage: java Server host root [virtual]");
             }
 
             Server server = new Server(serverAddress, root);
-            server.start();
+            if(virtual) {
+                server.start(VirtualThreads.newThreadPerTaskExecutor());
+            } else {
+                server.start();
+            }
         }
 }
\ No newline at end of file
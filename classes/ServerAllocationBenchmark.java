@@ -0,0 +1,149 @@
+//package client;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+* title: ServerAllocationBenchmark.java
+* to compile: javac ServerAllocationBenchmark.java
+* run: java ServerAllocationBenchmark rootDirectory [requests] [path]
+* description: Measures how many bytes Server allocates on the heap per request.
+* 				It starts a server on 127.0.0.1 in this JVM, sends it requests for
+* 				one file over persistent connections, and reads the allocation
+* 				counters of every thread but its own before and after, so only
+* 				the server threads are counted. A warm up round runs first so
+* 				class loading and the file cache are not counted.
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+public class ServerAllocationBenchmark {
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	public static void main(String[] args) throws Exception {
+		if(args.length < 1) {
+			System.out.println("Usage: java ServerAllocationBenchmark rootDirectory [requests] [path]");
+			return;
+		}
+		int requests = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+		String path = args.length > 2 ? args[2] : "/index.html";
+
+		Thread server = new Thread(() -> new Server("127.0.0.1", args[0]).start(), "benchmark-server");
+		server.setDaemon(true);
+		server.start();
+		waitForServer();
+
+		byte[] request = ("GET " + path + " HTTP/1.1\r\n"
+				+ "Host: 127.0.0.1:800\r\n"
+				+ "User-Agent: ServerAllocationBenchmark\r\n"
+				+ "Accept: */*\r\n"
+				+ "Accept-Encoding: identity\r\n\r\n").getBytes(ASCII);
+		run(request, requests / 4);
+
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		Map<Long, Long> before = allocated(threads);
+		long start = System.nanoTime();
+		run(request, requests);
+		long elapsed = System.nanoTime() - start;
+		Map<Long, Long> after = allocated(threads);
+
+		long bytes = 0;
+		for(Map.Entry<Long, Long> thread : after.entrySet()) {
+			bytes += thread.getValue() - before.getOrDefault(thread.getKey(), 0L);
+		}
+		System.out.println("ServerAllocationBenchmark: " + requests + " requests for " + path);
+		System.out.println("allocated bytes per request: " + bytes / requests);
+		System.out.println("requests per second: " + (long) (requests / (elapsed / 1e9)));
+		// the server pool threads would keep the JVM running
+		System.exit(0);
+	}
+
+	/*
+	 * The bytes allocated so far by every live thread except this one.
+	 */
+	private static Map<Long, Long> allocated(com.sun.management.ThreadMXBean threads) {
+		long self = Thread.currentThread().getId();
+		long[] ids = threads.getAllThreadIds();
+		long[] bytes = threads.getThreadAllocatedBytes(ids);
+		Map<Long, Long> result = new HashMap<>();
+		for(int i = 0; i < ids.length; i++) {
+			if(ids[i] != self && bytes[i] >= 0) {
+				result.put(ids[i], bytes[i]);
+			}
+		}
+		return result;
+	}
+
+	private static void waitForServer() throws InterruptedException {
+		for(int i = 0; i < 100; i++) {
+			try {
+				new Socket("127.0.0.1", 800).close();
+				return;
+			} catch(IOException e) {
+				Thread.sleep(50);
+			}
+		}
+		throw new IllegalStateException("Server did not start");
+	}
+
+	/*
+	 * Sends the request the given number of times, one at a time, opening a new
+	 * connection whenever the server closes the current one.
+	 */
+	private static void run(byte[] request, int count) throws IOException {
+		byte[] buffer = new byte[64 * 1024];
+		Socket socket = null;
+		InputStream in = null;
+		OutputStream out = null;
+		try {
+			for(int i = 0; i < count; i++) {
+				if(socket == null) {
+					socket = new Socket("127.0.0.1", 800);
+					socket.setTcpNoDelay(true);
+					in = new BufferedInputStream(socket.getInputStream());
+					out = socket.getOutputStream();
+				}
+				out.write(request);
+				out.flush();
+				if(!readResponse(in, buffer)) {
+					socket.close();
+					socket = null;
+				}
+			}
+		} finally {
+			if(socket != null) socket.close();
+		}
+	}
+
+	/*
+	 * Reads one response framed by Content-length and returns whether the
+	 * connection stays open.
+	 */
+	private static boolean readResponse(InputStream in, byte[] buffer) throws IOException {
+		int length = 0;
+		while(length < 4 || buffer[length - 1] != '\n' || buffer[length - 3] != '\n') {
+			int c = in.read();
+			if(c == -1) throw new IOException("Connection closed");
+			buffer[length++] = (byte) c;
+		}
+		String head = new String(buffer, 0, length, ASCII).toLowerCase();
+		int index = head.indexOf("content-length:");
+		long remaining = index == -1 ? 0 : Long.parseLong(head.substring(index + 15, head.indexOf('\r', index)).trim());
+		while(remaining > 0) {
+			int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+			if(read == -1) throw new IOException("Connection closed");
+			remaining -= read;
+		}
+		return !head.contains("connection: close");
+	}
+}
@@ -0,0 +1,144 @@
+//package client;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.Charset;
+
+/**
+* title: ServerConditionalTest.java
+* to compile: javac ServerConditionalTest.java
+* run: java ServerConditionalTest rootDirectory [path]
+* description: Checks how Server answers a range request that also carries a
+* 				validator. It starts a server on 127.0.0.1 in this JVM, fetches
+* 				the file once for its entity tag and modification date, then asks
+* 				for a range with a matching If-None-Match, a matching
+* 				If-Modified-Since and a stale If-None-Match. The first two must
+* 				get a bare 304 and the last a 206. Every request of a check goes
+* 				over one persistent connection, so a body sent after a 304 would
+* 				show up in front of the next response. Exits with 1 if a check fails.
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+public class ServerConditionalTest {
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	private static int failures;
+
+	public static void main(String[] args) throws Exception {
+		if(args.length < 1) {
+			System.out.println("Usage: java ServerConditionalTest rootDirectory [path]");
+			return;
+		}
+		String path = args.length > 1 ? args[1] : "/index.html";
+
+		Thread server = new Thread(() -> new Server("127.0.0.1", args[0]).start(), "test-server");
+		server.setDaemon(true);
+		server.start();
+		waitForServer();
+
+		try(Socket socket = connect()) {
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			OutputStream out = socket.getOutputStream();
+			String head = exchange(in, out, path, "");
+			check("full response", head.startsWith("HTTP/1.1 200"), head);
+			String etag = header(head, "etag");
+			String lastModified = header(head, "last-modified");
+
+			head = exchange(in, out, path, "Range: bytes=0-9\r\nIf-None-Match: " + etag + "\r\n");
+			check("range with a matching If-None-Match", isBare304(head), head);
+			head = exchange(in, out, path, "Range: bytes=0-9\r\nIf-Modified-Since: " + lastModified + "\r\n");
+			check("range with a matching If-Modified-Since", isBare304(head), head);
+			head = exchange(in, out, path, "Range: bytes=0-9\r\nIf-None-Match: \"stale\"\r\n");
+			check("range with a stale If-None-Match", head.startsWith("HTTP/1.1 206"), head);
+			// a body left behind by any of the above would be read as this head
+			head = exchange(in, out, path, "");
+			check("connection still in step", head.startsWith("HTTP/1.1 200"), head);
+		}
+
+		System.out.println(failures == 0 ? "ServerConditionalTest: passed" : "ServerConditionalTest: " + failures + " failed");
+		// the server pool threads would keep the JVM running
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	private static void check(String name, boolean passed, String head) {
+		System.out.println((passed ? "ok     " : "FAILED ") + name);
+		if(!passed) {
+			failures++;
+			System.out.println(head);
+		}
+	}
+
+	/*
+	 * A 304 has no body, no Content-Range and no Content-length.
+	 */
+	private static boolean isBare304(String head) {
+		return head.startsWith("HTTP/1.1 304")
+				&& header(head, "content-range") == null
+				&& header(head, "content-length") == null;
+	}
+
+	private static Socket connect() throws IOException {
+		Socket socket = new Socket("127.0.0.1", 800);
+		socket.setSoTimeout(5000);
+		return socket;
+	}
+
+	private static void waitForServer() throws InterruptedException {
+		for(int i = 0; i < 100; i++) {
+			try {
+				new Socket("127.0.0.1", 800).close();
+				return;
+			} catch(IOException e) {
+				Thread.sleep(50);
+			}
+		}
+		throw new IllegalStateException("Server did not start");
+	}
+
+	/*
+	 * Sends a GET with the given extra header lines and reads the response,
+	 * skipping its body by Content-length. Returns the response head.
+	 */
+	private static String exchange(InputStream in, OutputStream out, String path, String headers) throws IOException {
+		out.write(("GET " + path + " HTTP/1.1\r\n"
+				+ "Host: 127.0.0.1:800\r\n"
+				+ "Accept-Encoding: identity\r\n"
+				+ headers + "\r\n").getBytes(ASCII));
+		out.flush();
+		ByteArrayOutputStream head = new ByteArrayOutputStream();
+		int last = 0;
+		int c;
+		// the head ends with an empty line
+		while((c = in.read()) != -1) {
+			head.write(c);
+			last = last << 8 | c;
+			if(last == 0x0d0a0d0a) break;
+		}
+		String text = new String(head.toByteArray(), ASCII);
+		String length = header(text, "content-length");
+		for(long remaining = length == null ? 0 : Long.parseLong(length); remaining > 0; remaining--) {
+			if(in.read() == -1) throw new IOException("Connection closed");
+		}
+		return text;
+	}
+
+	/*
+	 * The value of a header field, or null if the head does not have it.
+	 */
+	private static String header(String head, String name) {
+		for(String line : head.split("\r\n")) {
+			int colon = line.indexOf(':');
+			if(colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase(name)) {
+				return line.substring(colon + 1).trim();
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,172 @@
+//package client;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+* title: SheddingExecutor.java
+* to compile: javac SheddingExecutor.java
+* description: A fixed pool of threads in front of a bounded queue, for the proxy and
+* 				the server. A connection that finds the queue full is refused at once
+* 				on the accepting thread. A connection that waited too long in the
+* 				queue is refused when a thread takes it, rather than served late, so
+* 				under overload the queue never holds more than a short wait of work.
+* 				How long is too long follows CoDel: while the queue keeps emptying,
+* 				a connection may wait up to the interval, a burst is absorbed; once
+* 				it has not emptied for a whole interval the queue is standing, and
+* 				only the target wait is allowed until it empties again.
+* 				Tasks that implement Rejectable answer their client when refused,
+* 				others are dropped.
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+public class SheddingExecutor extends ThreadPoolExecutor {
+
+	/**
+	 * A task that can answer its client when it is refused, for example
+	 * with a 503 or by closing the connection.
+	 */
+	public interface Rejectable {
+
+		/**
+		 * Refuses the task, it will not be run.
+		 */
+		void reject();
+	}
+
+	// the wait allowed while the queue is standing, and while it is not, in nanoseconds
+	private final long target;
+	private final long interval;
+	// the last time a thread found the queue empty
+	private volatile long lastEmpty = System.nanoTime();
+
+	private final LongAdder admitted = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder shed = new LongAdder();
+
+	/**
+	 * Instantiates a new executor.
+	 *
+	 * @param threads the number of threads
+	 * @param capacity the most tasks waiting in the queue
+	 * @param targetMillis the longest wait in a standing queue, in milliseconds
+	 * @param intervalMillis the longest wait otherwise, and how long the queue must
+	 * 			stay non-empty to be standing, in milliseconds
+	 */
+	public SheddingExecutor(int threads, int capacity, long targetMillis, long intervalMillis) {
+		super(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(capacity));
+		this.target = TimeUnit.MILLISECONDS.toNanos(targetMillis);
+		this.interval = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+		setRejectedExecutionHandler((task, executor) -> {
+			rejected.increment();
+			refuse(((Queued) task).task);
+		});
+	}
+
+	/**
+	 * Queues the task, or refuses it on the calling thread if the queue is full.
+	 *
+	 * @param task the task
+	 */
+	@Override
+	public void execute(Runnable task) {
+		super.execute(new Queued(task, System.nanoTime()));
+	}
+
+	private static void refuse(Runnable task) {
+		if(task instanceof Rejectable) {
+			((Rejectable) task).reject();
+		}
+	}
+
+	/*
+	 * A task with the time it was queued, decides when a thread takes it
+	 * whether it waited too long.
+	 */
+	private class Queued implements Runnable {
+		private final Runnable task;
+		private final long queued;
+
+		Queued(Runnable task, long queued) {
+			this.task = task;
+			this.queued = queued;
+		}
+
+		@Override
+		public void run() {
+			long now = System.nanoTime();
+			if(getQueue().isEmpty()) lastEmpty = now;
+			// a queue that has not emptied for an interval is standing, only the target wait is allowed
+			long allowed = now - lastEmpty > interval ? target : interval;
+			if(now - queued > allowed) {
+				shed.increment();
+				refuse(task);
+				return;
+			}
+			admitted.increment();
+			task.run();
+		}
+	}
+
+	/**
+	 * Returns the number of tasks refused because the queue was full.
+	 *
+	 * @return the count
+	 */
+	public long getRejected() {
+		return rejected.sum();
+	}
+
+	/**
+	 * Returns the number of tasks refused because they waited too long.
+	 *
+	 * @return the count
+	 */
+	public long getShed() {
+		return shed.sum();
+	}
+
+	/**
+	 * Returns the number of tasks run.
+	 *
+	 * @return the count
+	 */
+	public long getAdmitted() {
+		return admitted.sum();
+	}
+
+	/**
+	 * Returns the number of tasks waiting.
+	 *
+	 * @return the queue length
+	 */
+	public int getQueueLength() {
+		return getQueue().size();
+	}
+
+	/**
+	 * Returns the most tasks that can wait.
+	 *
+	 * @return the queue capacity
+	 */
+	public int getQueueCapacity() {
+		return getQueue().size() + getQueue().remainingCapacity();
+	}
+
+	/**
+	 * Returns the counters of the executor.
+	 *
+	 * @return the statistics
+	 */
+	public String getStatistics() {
+		return "admitted=" + admitted.sum()
+				+ " rejected=" + rejected.sum()
+				+ " shed=" + shed.sum()
+				+ " queued=" + getQueue().size()
+				+ " active=" + getActiveCount();
+	}
+}
@@ -0,0 +1,544 @@
+//package client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+* title: StaticFileCache.java
+* to compile: javac StaticFileCache.java
+* description: Keeps the files served by Server in memory together with their
+* 				response header, already encoded, keyed by path. A cached file is
+* 				checked against its modification time and size at most once per
+* 				check interval, so a hot file is served without any file system
+* 				call in between. The cache is bounded by the total size of the
+* 				files it holds; the least recently served file is dropped first.
+* 				Files at or above the send file threshold are never read into
+* 				memory, only their header is cached, and Server sends them from
+* 				the file channel straight to the socket.
+* 				Text files get gzip and deflate variants, compressed once when
+* 				first asked for and kept in the entry next to the raw bytes, so
+* 				they count against the cache size and go with it when the file
+* 				changes. Files below the compression minimum or of a type that
+* 				does not compress are always sent as they are.
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+public class StaticFileCache {
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	// the total size of the cached files, in bytes
+	private final long capacity;
+	// the largest file that is cached, in bytes
+	private final long maxEntrySize;
+	// files this large are sent from the file channel instead of being read, in bytes
+	private final long sendFileThreshold;
+	// files are compressed only within these sizes, in bytes
+	private final long minCompressSize;
+	private final long maxCompressSize;
+	// how often a cached file is checked against the file system, in milliseconds
+	private final long checkInterval;
+	// the cached files, keyed by path
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	// the total size of the cached files
+	private final AtomicLong size = new AtomicLong();
+
+	// statistics
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong loads = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong compressions = new AtomicLong();
+
+	/**
+	 * Instantiates a new static file cache.
+	 *
+	 * @param capacity the total size of the cached files, in bytes
+	 * @param maxEntrySize the largest file that is cached, in bytes
+	 * @param checkInterval how often a cached file is checked, in milliseconds
+	 * @param sendFileThreshold files this large are sent from the file channel, in bytes
+	 * @param minCompressSize the smallest file that is compressed, in bytes
+	 * @param maxCompressSize the largest file that is compressed, in bytes
+	 */
+	public StaticFileCache(long capacity, long maxEntrySize, long checkInterval, long sendFileThreshold,
+			long minCompressSize, long maxCompressSize) {
+		this.capacity = capacity;
+		this.maxEntrySize = Math.min(maxEntrySize, capacity);
+		this.checkInterval = checkInterval;
+		this.sendFileThreshold = sendFileThreshold;
+		this.minCompressSize = minCompressSize;
+		this.maxCompressSize = maxCompressSize;
+	}
+
+	/**
+	 * Returns a file with its response header, from memory if it is cached and
+	 * has not changed, otherwise read from disk. A file at or above the send file
+	 * threshold comes without its content, see {@link Entry#isSendFile()}. A file
+	 * is cached once whatever the charset, the header kept names the one it was
+	 * loaded with and is built again for any other, see {@link Entry#getHeader(String)}.
+	 *
+	 * @param file the file
+	 * @param encoding the charset named in the response header of a file loaded now
+	 * @return the entry, or null if the file cannot be read
+	 * @throws IOException if the file could not be read
+	 */
+	public Entry get(File file, String encoding) throws IOException {
+		long now = System.currentTimeMillis();
+		String key = file.getPath();
+		Entry entry = entries.get(key);
+		if(entry != null) {
+			if(now - entry.checked < checkInterval) {
+				entry.lastAccess = now;
+				hits.incrementAndGet();
+				return entry;
+			}
+			// time to look at the file again, it is reloaded only if it changed
+			if(file.lastModified() == entry.lastModified && file.length() == entry.length) {
+				entry.checked = now;
+				entry.lastAccess = now;
+				hits.incrementAndGet();
+				return entry;
+			}
+		}
+
+		if(!file.canRead() || !file.isFile()) {
+			if(entry != null && entries.remove(key, entry)) {
+				size.addAndGet(-entry.weight());
+			}
+			return null;
+		}
+		long lastModified = file.lastModified();
+		long length = file.length();
+		String contentType = contentType(file);
+		boolean compressible = length >= minCompressSize && length <= maxCompressSize && isCompressible(contentType);
+		loads.incrementAndGet();
+		if(length >= sendFileThreshold) {
+			// only the header is kept, the content is sent from the file
+			Entry streamed = new Entry(key, file, null, length, contentType, encoding, lastModified, compressible, now);
+			store(key, streamed);
+			return streamed;
+		}
+		byte[] content = Files.readAllBytes(file.toPath());
+		Entry loaded = new Entry(key, file, content, content.length, contentType, encoding, lastModified,
+				compressible, now);
+		if(content.length <= maxEntrySize) {
+			store(key, loaded);
+		}
+		return loaded;
+	}
+
+	/*
+	 * Adds an entry, then drops the least recently served ones until the cache fits.
+	 */
+	private void store(String key, Entry entry) {
+		Entry old = entries.put(key, entry);
+		size.addAndGet(entry.weight() - (old == null ? 0 : old.weight()));
+		while(size.get() > capacity) {
+			String oldestKey = null;
+			Entry oldest = null;
+			for(Map.Entry<String, Entry> candidate : entries.entrySet()) {
+				if(oldest == null || candidate.getValue().lastAccess < oldest.lastAccess) {
+					oldestKey = candidate.getKey();
+					oldest = candidate.getValue();
+				}
+			}
+			if(oldest == null) break;
+			if(entries.remove(oldestKey, oldest)) {
+				size.addAndGet(-oldest.weight());
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Returns the content of an entry compressed with gzip or deflate, compressing
+	 * it the first time it is asked for. The variant is kept in the entry.
+	 *
+	 * @param entry the entry, as returned by get
+	 * @param coding "gzip" or "deflate"
+	 * @return the variant, or null if the entry is not compressible or does not get smaller
+	 * @throws IOException if the file could not be read
+	 */
+	public Variant getVariant(Entry entry, String coding) throws IOException {
+		if(!entry.compressible) return null;
+		boolean gzip = coding.equals("gzip");
+		Variant variant = gzip ? entry.gzip : entry.deflate;
+		if(variant != null) return variant.content == null ? null : variant;
+
+		synchronized(entry) {
+			variant = gzip ? entry.gzip : entry.deflate;
+			if(variant != null) return variant.content == null ? null : variant;
+			byte[] raw = entry.content != null ? entry.content : Files.readAllBytes(entry.file.toPath());
+			byte[] compressed = compress(raw, gzip);
+			compressions.incrementAndGet();
+			// a variant that is not smaller is remembered as missing
+			variant = compressed.length < raw.length
+					? new Variant(entry, compressed, coding)
+					: new Variant(entry, null, coding);
+			if(gzip) {
+				entry.gzip = variant;
+			} else {
+				entry.deflate = variant;
+			}
+			if(variant.content != null && entries.get(entry.key) == entry) {
+				size.addAndGet(variant.content.length);
+			}
+		}
+		return variant.content == null ? null : variant;
+	}
+
+	/*
+	 * Compresses at the best level, since it is done once per file.
+	 */
+	private static byte[] compress(byte[] raw, boolean gzip) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(raw.length / 3 + 64);
+		if(gzip) {
+			try(OutputStream out = new GZIPOutputStream(bytes) {
+					{
+						def.setLevel(Deflater.BEST_COMPRESSION);
+					}
+				}) {
+				out.write(raw);
+			}
+		} else {
+			Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+			try(OutputStream out = new DeflaterOutputStream(bytes, deflater)) {
+				out.write(raw);
+			} finally {
+				deflater.end();
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Returns whether a content type is worth compressing: text, scripts,
+	 * JSON, XML and SVG. Images and archives are already compressed.
+	 *
+	 * @param contentType the content type
+	 * @return true if the content type compresses well
+	 */
+	public static boolean isCompressible(String contentType) {
+		if(contentType == null) return false;
+		return contentType.startsWith("text/")
+				|| contentType.equals("application/javascript")
+				|| contentType.equals("application/json")
+				|| contentType.endsWith("xml")
+				|| contentType.equals("image/svg+xml");
+	}
+
+	/**
+	 * Finds out the file content type, in case the file is css or js
+	 * we set content type the the corresponding type otherwise we let java figure it out.
+	 *
+	 * @param file the file
+	 * @return the content type
+	 */
+	public static String contentType(File file) {
+		String contentType = URLConnection.getFileNameMap().getContentTypeFor(file.toString());
+		if(contentType == null) {
+			if(file.toString().endsWith(".css")) {
+				contentType = "text/css";
+			}
+			if(file.toString().endsWith(".js")) {
+				contentType = "application/javascript";
+			}
+		}
+		return contentType;
+	}
+
+	/**
+	 * Builds the header of a 200 response. A compressible file varies with
+	 * Accept-Encoding whether it is sent compressed or not.
+	 *
+	 * @param contentLength the length of the content
+	 * @param contentType the content type
+	 * @param encoding the charset
+	 * @param lastModified the file modification time in milliseconds
+	 * @param contentEncoding "gzip", "deflate", "identity" or null if the file is not compressible
+	 * @param etag the entity tag
+	 * @return the header
+	 */
+	public static byte[] buildHeader(long contentLength, String contentType, String encoding, long lastModified,
+			String contentEncoding, String etag) {
+		StringBuilder h = new StringBuilder(240)
+				.append("HTTP/1.1 200 OK\r\n")
+				.append("Server: OneFile 2.0\r\n")
+				.append("Content-length: ").append(contentLength).append("\r\n")
+				.append("Content-type: ").append(contentType).append("; charset=").append(encoding).append("\r\n")
+				.append("Last-Modified: ").append(httpDate(lastModified)).append("\r\n")
+				.append("ETag: ").append(etag).append("\r\n")
+				.append("Accept-Ranges: bytes\r\n");
+		if(contentEncoding != null) {
+			if(!contentEncoding.equals("identity")) {
+				h.append("Content-Encoding: ").append(contentEncoding).append("\r\n");
+			}
+			h.append("Vary: Accept-Encoding\r\n");
+		}
+		return h.append("\r\n").toString().getBytes(ASCII);
+	}
+
+	/**
+	 * Builds the header of a 304 response, which repeats the validators.
+	 *
+	 * @param lastModified the file modification time in milliseconds
+	 * @param etag the entity tag
+	 * @param vary whether the response varies with Accept-Encoding
+	 * @return the header
+	 */
+	public static byte[] buildNotModifiedHeader(long lastModified, String etag, boolean vary) {
+		String h = "HTTP/1.1 304 Not Modified\r\n"
+				+ "Server: OneFile 2.0\r\n"
+				+ "Last-Modified: " + httpDate(lastModified) + "\r\n"
+				+ "ETag: " + etag + "\r\n"
+				+ (vary ? "Vary: Accept-Encoding\r\n" : "") + "\r\n";
+		return h.getBytes(ASCII);
+	}
+
+	/**
+	 * Builds the header of a 206 response.
+	 *
+	 * @param contentLength the length of the content
+	 * @param contentType the content type, with its parameters
+	 * @param contentRange the Content-Range value, or null for a multipart response
+	 * @param lastModified the file modification time in milliseconds
+	 * @param etag the entity tag
+	 * @return the header
+	 */
+	public static byte[] buildPartialHeader(long contentLength, String contentType, String contentRange,
+			long lastModified, String etag) {
+		String h = "HTTP/1.1 206 Partial Content\r\n"
+				+ "Server: OneFile 2.0\r\n"
+				+ "Content-length: " + contentLength + "\r\n"
+				+ "Content-type: " + contentType + "\r\n"
+				+ (contentRange == null ? "" : "Content-Range: " + contentRange + "\r\n")
+				+ "Last-Modified: " + httpDate(lastModified) + "\r\n"
+				+ "ETag: " + etag + "\r\n\r\n";
+		return h.getBytes(ASCII);
+	}
+
+	/**
+	 * Returns the strong entity tag of a file, made of its modification time,
+	 * its length and the content coding, so each compressed variant has its own.
+	 *
+	 * @param length the file length
+	 * @param lastModified the file modification time in milliseconds
+	 * @param contentEncoding "gzip", "deflate" or null for the file as it is
+	 * @return the entity tag, quoted
+	 */
+	public static String etag(long length, long lastModified, String contentEncoding) {
+		return "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length)
+				+ (contentEncoding == null ? "" : "-" + contentEncoding) + "\"";
+	}
+
+	/**
+	 * Parses an HTTP date.
+	 *
+	 * @param value the date
+	 * @return the time in milliseconds, or -1 if absent or invalid
+	 */
+	public static long parseHttpDate(String value) {
+		if(value == null) return -1;
+		try {
+			return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+		} catch(DateTimeParseException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Formats a time as an HTTP date.
+	 *
+	 * @param time the time in milliseconds
+	 * @return the date
+	 */
+	public static String httpDate(long time) {
+		return DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(time).atOffset(ZoneOffset.UTC));
+	}
+
+	/**
+	 * Returns the cache statistics as a single line.
+	 *
+	 * @return the statistics
+	 */
+	public String getStatistics() {
+		return "files=" + entries.size()
+				+ " bytes=" + size.get()
+				+ " hits=" + hits.get()
+				+ " loads=" + loads.get()
+				+ " evictions=" + evictions.get()
+				+ " compressions=" + compressions.get();
+	}
+
+	/**
+	 * A file and its response header.
+	 */
+	public static class Entry {
+		private final String key;
+		private final File file;
+		private final byte[] content;
+		private final long length;
+		private final byte[] header;
+		private final String etag;
+		private final String contentType;
+		private final String encoding;
+		private final long lastModified;
+		// whether the file gets compressed variants, and the variants made so far
+		private final boolean compressible;
+		private volatile Variant gzip;
+		private volatile Variant deflate;
+		// the last time the file was checked and served, in milliseconds
+		private volatile long checked;
+		private volatile long lastAccess;
+
+		private Entry(String key, File file, byte[] content, long length, String contentType, String encoding,
+				long lastModified, boolean compressible, long now) {
+			this.key = key;
+			this.file = file;
+			this.content = content;
+			this.length = length;
+			this.contentType = contentType;
+			this.encoding = encoding;
+			this.lastModified = lastModified;
+			this.compressible = compressible;
+			this.etag = etag(length, lastModified, null);
+			this.header = buildHeader(length, contentType, encoding, lastModified, compressible ? "identity" : null,
+					etag);
+			this.checked = now;
+			this.lastAccess = now;
+		}
+
+		/*
+		 * The bytes the entry takes up in the cache.
+		 */
+		private long weight() {
+			long weight = content == null ? header.length : content.length;
+			Variant variant = gzip;
+			if(variant != null && variant.content != null) weight += variant.content.length;
+			variant = deflate;
+			if(variant != null && variant.content != null) weight += variant.content.length;
+			return weight;
+		}
+
+		/**
+		 * Returns whether the file is sent compressed to clients that accept it.
+		 *
+		 * @return true if the file has compressed variants
+		 */
+		public boolean isCompressible() {
+			return compressible;
+		}
+
+		/**
+		 * Returns whether the content is not in memory and has to be sent from the file.
+		 *
+		 * @return true if the file is at or above the send file threshold
+		 */
+		public boolean isSendFile() {
+			return content == null;
+		}
+
+		/**
+		 * Returns the file content. The array is shared and must not be changed.
+		 *
+		 * @return the content, or null if the file is sent from the file channel
+		 */
+		public byte[] getContent() {
+			return content;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		public long getLength() {
+			return length;
+		}
+
+		/**
+		 * Returns the encoded response header naming a charset, the one kept in the
+		 * entry if it names the same charset. The array is shared and must not be changed.
+		 *
+		 * @param encoding the charset
+		 * @return the header
+		 */
+		public byte[] getHeader(String encoding) {
+			if(encoding.equals(this.encoding)) return header;
+			return buildHeader(length, contentType, encoding, lastModified, compressible ? "identity" : null, etag);
+		}
+
+		public String getContentType() {
+			return contentType;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		public String getETag() {
+			return etag;
+		}
+	}
+
+	/**
+	 * A compressed file and its response header.
+	 */
+	public static class Variant {
+		private final Entry entry;
+		private final byte[] content;
+		private final String coding;
+		private final byte[] header;
+		private final String etag;
+
+		private Variant(Entry entry, byte[] content, String coding) {
+			this.entry = entry;
+			this.content = content;
+			this.coding = coding;
+			this.etag = etag(entry.length, entry.lastModified, coding);
+			this.header = content == null ? null : buildHeader(content.length, entry.contentType, entry.encoding,
+					entry.lastModified, coding, etag);
+		}
+
+		public String getETag() {
+			return etag;
+		}
+
+		/**
+		 * Returns the compressed content. The array is shared and must not be changed.
+		 *
+		 * @return the content
+		 */
+		public byte[] getContent() {
+			return content;
+		}
+
+		/**
+		 * Returns the encoded response header naming a charset, the one kept in the
+		 * variant if it names the same charset. The array is shared and must not be changed.
+		 *
+		 * @param encoding the charset
+		 * @return the header
+		 */
+		public byte[] getHeader(String encoding) {
+			if(encoding.equals(entry.encoding)) return header;
+			return buildHeader(content.length, entry.contentType, encoding, entry.lastModified, coding, etag);
+		}
+	}
+}
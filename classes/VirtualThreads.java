@@ -0,0 +1,40 @@
+//package client;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+* title: VirtualThreads.java
+* to compile: javac VirtualThreads.java
+* description: Creates the executor used when the proxy server or the HTTP server
+* 				run each connection on its own virtual thread. Virtual threads are
+* 				looked up at run time so the project still compiles and runs on
+* 				older JDKs, where a cached pool of platform threads is used instead.
+*
+* @date: October 17, 2026
+* @author Zakaria Bakkal
+* @version 1.0
+*/
+public final class VirtualThreads {
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * Returns an executor that starts a new virtual thread for every task.
+	 * If the running JDK has no virtual threads, a thread per task executor
+	 * backed by platform threads is returned.
+	 *
+	 * @return the executor
+	 */
+	public static ExecutorService newThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor")
+					.invoke(null);
+		} catch(ReflectiveOperationException e) {
+			System.out.println("VirtualThreads: Not supported by this JDK, using platform threads");
+			return Executors.newCachedThreadPool();
+		}
+	}
+}